@@ -247,8 +247,31 @@ public abstract class ParkableForkJoinTask<V> extends ForkJoinTask<V> {
     }
 
     public boolean unpark(ForkJoinPool fjPool, Object unblocker) {
+        final int _state = unpark0(unblocker);
+        if (_state == PARKED) {
+            if (fjPool != null)
+                submit(fjPool);
+            else
+                submit();
+        }
+        return _state == PARKED || _state == PARKING; // Actually woken up the fiber
+    }
+
+    /**
+     * Unparks the task like {@link #unpark(Object) unpark}, but leaves submitting it to the caller.
+     *
+     * @return {@code true} if the task has been unparked and must now be submitted; {@code false} otherwise.
+     */
+    protected boolean unparkNoSubmit(Object unblocker) {
+        return unpark0(unblocker) == PARKED;
+    }
+
+    /**
+     * @return the state the task has been unparked from, or {@code LEASED} if the unpark had no effect.
+     */
+    private int unpark0(Object unblocker) {
         if (isDone())
-            return false;
+            return LEASED;
 
         int newState;
         int _state;
@@ -260,7 +283,7 @@ public abstract class ParkableForkJoinTask<V> extends ForkJoinTask<V> {
                     break;
                 case PARKED:
                     if (parkExclusive & unblocker != blocker & unblocker != EMERGENCY_UNBLOCKER)
-                        return false;
+                        return LEASED;
                     newState = RUNNABLE;
                     break;
                 case PARKING:
@@ -269,7 +292,7 @@ public abstract class ParkableForkJoinTask<V> extends ForkJoinTask<V> {
                 case LEASED:
                     if (Debug.isDebug())
                         record("unpark", "current: %s - %s. return.", this, _state);
-                    return false;
+                    return LEASED;
                 default:
                     throw new AssertionError("Unknown task state: " + _state);
             }
@@ -282,15 +305,9 @@ public abstract class ParkableForkJoinTask<V> extends ForkJoinTask<V> {
             this.unparker = unblocker;
             if (CAPTURE_UNPARK_STACK)
                 this.unparkStackTrace = Thread.currentThread().getStackTrace();
-            if (_state != PARKING) {
-                if (fjPool != null)
-                    submit(fjPool);
-                else
-                    submit();
-            }
         }
 
-        return _state == PARKED || _state == PARKING; // Actually woken up the fiber
+        return _state;
     }
 
     protected boolean tryUnpark(Object unblocker) {
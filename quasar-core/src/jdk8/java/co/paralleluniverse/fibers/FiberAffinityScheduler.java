@@ -0,0 +1,229 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.monitoring.MonitorType;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@code ForkJoinPool} based scheduler for fibers that prefers to resume a fiber on the thread it last ran on.
+ * <p>
+ * A {@link FiberForkJoinScheduler} runs a resumed fiber on the thread that has resumed it (or whichever thread steals it from there),
+ * so fibers that frequently exchange messages migrate between threads, and lose their cache locality.
+ * This scheduler remembers the last thread each fiber has run on. When a fiber is resumed by another thread while its last thread
+ * is running a fiber, the resumed fiber is placed in that thread's inbox, which the thread drains into its own queue as soon as
+ * the fiber it is running parks or terminates. If its last thread isn't running a fiber, and so may not drain its inbox for a while,
+ * the resumed fiber is submitted as usual.
+ * <p>
+ * A thread running a long fiber doesn't drain its inbox, so a watchdog thread submits the fibers that have waited in it for longer
+ * than the {@link #setMaxInboxWait(long, TimeUnit) maximum inbox wait} to the pool, where any thread can run them. Until the long
+ * fiber parks or terminates, the fibers last run on that thread are submitted as usual, as are fibers resumed while another fiber
+ * is already waiting in their last thread's inbox.
+ *
+ * @author pron
+ */
+public class FiberAffinityScheduler extends FiberForkJoinScheduler {
+    private static final long DEFAULT_MAX_INBOX_WAIT = TimeUnit.MILLISECONDS.toNanos(10);
+    private final Thread watchdog;
+    private volatile long maxInboxWait = DEFAULT_MAX_INBOX_WAIT;
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a new fiber scheduler.
+     *
+     * @param name             the scheuler's name. This name is used in naming the scheduler's threads.
+     * @param parallelism      the number of threads in the pool
+     * @param exceptionHandler an {@link UncaughtExceptionHandler UncaughtExceptionHandler} to be used for exceptions thrown in fibers that aren't caught.
+     * @param monitorType      the {@link MonitorType} type to use for the {@code ForkJoinPool}.
+     * @param detailedInfo     whether detailed information about the fibers is collected by the fibers monitor.
+     */
+    @SuppressWarnings("CallToThreadStartDuringObjectConstruction")
+    public FiberAffinityScheduler(String name, int parallelism, UncaughtExceptionHandler exceptionHandler, MonitorType monitorType, boolean detailedInfo) {
+        super(name, parallelism, exceptionHandler, monitorType, detailedInfo);
+        this.watchdog = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("FiberAffinityWatchdog-" + name).build().newThread(new Runnable() {
+            @Override
+            public void run() {
+                watchdog();
+            }
+        });
+        watchdog.start();
+    }
+
+    /**
+     * Creates a new fiber scheduler using a default {@link UncaughtExceptionHandler UncaughtExceptionHandler}.
+     *
+     * @param name         the scheuler's name. This name is used in naming the scheduler's threads.
+     * @param parallelism  the number of threads in the pool
+     * @param monitorType  the {@link MonitorType} type to use for the {@code ForkJoinPool}.
+     * @param detailedInfo whether detailed information about the fibers is collected by the fibers monitor.
+     */
+    public FiberAffinityScheduler(String name, int parallelism, MonitorType monitorType, boolean detailedInfo) {
+        this(name, parallelism, null, monitorType, detailedInfo);
+    }
+
+    /**
+     * Creates a new fiber scheduler using a default {@link UncaughtExceptionHandler UncaughtExceptionHandler} and no monitoring.
+     *
+     * @param name        the scheuler's name. This name is used in naming the scheduler's threads.
+     * @param parallelism the number of threads in the pool
+     */
+    public FiberAffinityScheduler(String name, int parallelism) {
+        this(name, parallelism, null, null, false);
+    }
+
+    /**
+     * Sets the maximum time a resumed fiber may wait in the inbox of its last thread while that thread is running another fiber.
+     * Once it's exceeded, the fiber is submitted as usual, and may be run by any thread.
+     *
+     * @param maxWait the maximum wait; {@code 10ms} by default.
+     * @param unit    {@code maxWait}'s time unit
+     */
+    public void setMaxInboxWait(long maxWait, TimeUnit unit) {
+        if (maxWait <= 0)
+            throw new IllegalArgumentException("maxWait: " + maxWait);
+        this.maxInboxWait = unit.toNanos(maxWait);
+        LockSupport.unpark(watchdog);
+    }
+
+    public long getMaxInboxWait(TimeUnit unit) {
+        return unit.convert(maxInboxWait, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Shuts down the scheduler, as {@link FiberForkJoinScheduler#shutdown()} does, and stops the watchdog thread.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        this.shutdown = true;
+        LockSupport.unpark(watchdog);
+    }
+
+    @Override
+    <V> FiberTask<V> newFiberTask(Fiber<V> fiber) {
+        return new AffinityFiberTask<V>(fiber, getForkJoinPool());
+    }
+
+    @Override
+    void afterExec() {
+        final FiberWorkerThread worker = currentWorker();
+        if (worker != null) {
+            worker.inFiber = false;
+            drainInbox(worker);
+        }
+        super.afterExec();
+    }
+
+    /**
+     * Forks the fibers offered to the given thread into its own queue.
+     */
+    private static void drainInbox(FiberWorkerThread worker) {
+        FiberForkJoinTask<?> task;
+        while ((task = worker.affinityInbox.poll()) != null) {
+            if (((AffinityFiberTask<?>) task).claim())
+                task.fork();
+        }
+    }
+
+    /**
+     * Every half of the maximum inbox wait, submits the fibers waiting in the inbox of each thread that has been running the same
+     * fiber since the previous check, so no fiber waits in an inbox for longer than the maximum.
+     */
+    private void watchdog() {
+        try {
+            while (!shutdown) {
+                for (FiberWorkerThread worker : activeThreads) {
+                    final boolean inFiber = worker.inFiber; // read before runs, which is written before inFiber is set
+                    final int run = worker.runs;
+                    if (!inFiber)
+                        continue;
+                    if (run != worker.watchedRun) {
+                        worker.watchedRun = run;
+                        continue;
+                    }
+                    worker.stalledRun = run;
+                    FiberForkJoinTask<?> task;
+                    while ((task = worker.affinityInbox.poll()) != null) {
+                        if (((AffinityFiberTask<?>) task).claim())
+                            ((AffinityFiberTask<?>) task).submitToPool();
+                    }
+                }
+                LockSupport.parkNanos(this, maxInboxWait >> 1);
+            }
+        } catch (Throwable t) {
+            System.err.println("FiberAffinityScheduler watchdog thread terminated!");
+            t.printStackTrace();
+        }
+    }
+
+    static final class AffinityFiberTask<V> extends FiberForkJoinTask<V> {
+        private static final AtomicIntegerFieldUpdater<AffinityFiberTask> offeredUpdater = AtomicIntegerFieldUpdater.newUpdater(AffinityFiberTask.class, "offered");
+        private FiberWorkerThread lastWorker; // racy reads only affect placement
+        private volatile int offered;
+
+        AffinityFiberTask(Fiber<V> fiber, ForkJoinPool fjPool) {
+            super(fiber, fjPool);
+        }
+
+        @Override
+        public void submit() {
+            final FiberWorkerThread worker = lastWorker;
+            if (worker != null && worker != Thread.currentThread() && worker.inFiber
+                    && worker.stalledRun != worker.runs && worker.affinityInbox.isEmpty()) {
+                offered = 1;
+                worker.affinityInbox.offer(this);
+                // the worker clears inFiber before draining its inbox, so if it's still set, the worker (or the watchdog) will see the offer;
+                // otherwise, the offer is left in the inbox, to be skipped when it's drained
+                if (worker.inFiber || !claim())
+                    return;
+            }
+            super.submit();
+        }
+
+        void submitToPool() {
+            super.submit();
+        }
+
+        /**
+         * Takes the task offered to its last thread, either to run it there or, if that thread has stopped running fibers, to submit it as usual.
+         * Only the first claim succeeds.
+         */
+        boolean claim() {
+            return offered == 1 && offeredUpdater.compareAndSet(this, 1, 0);
+        }
+
+        @Override
+        protected boolean exec1() {
+            final FiberWorkerThread worker = currentWorker();
+            this.lastWorker = worker;
+            if (worker != null) {
+                worker.runs++;
+                worker.inFiber = true;
+            }
+            return super.exec1();
+        }
+
+        private FiberWorkerThread currentWorker() {
+            final Thread currentThread = Thread.currentThread();
+            if (currentThread instanceof FiberWorkerThread && ((FiberWorkerThread) currentThread).getPool() == getFjPool())
+                return (FiberWorkerThread) currentThread;
+            return null;
+        }
+    }
+}
@@ -17,6 +17,7 @@ import co.paralleluniverse.common.monitoring.ForkJoinPoolMonitor;
 import co.paralleluniverse.common.monitoring.JMXForkJoinPoolMonitor;
 import co.paralleluniverse.common.monitoring.MetricsForkJoinPoolMonitor;
 import co.paralleluniverse.common.monitoring.MonitorType;
+import co.paralleluniverse.common.util.SystemProperties;
 import co.paralleluniverse.concurrent.forkjoin.ExtendedForkJoinWorkerFactory;
 import co.paralleluniverse.concurrent.forkjoin.ExtendedForkJoinWorkerThread;
 import co.paralleluniverse.concurrent.forkjoin.MonitoredForkJoinPool;
@@ -27,9 +28,12 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
@@ -38,13 +42,21 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * A {@code ForkJoinPool} based scheduler for fibers.
+ * <p>
+ * By default, the timed parks of all fibers in the scheduler are handled by a single timer thread. If the
+ * {@code co.paralleluniverse.fibers.perWorkerTimers} system property is set, each of the scheduler's threads instead keeps its own
+ * timer queue, which it checks between fibers, and a fallback thread only fires the timeouts of threads that are idle.
  *
  * @author pron
  */
 public class FiberForkJoinScheduler extends FiberScheduler {
+    private static final boolean PER_WORKER_TIMERS = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.perWorkerTimers");
     private final ForkJoinPool fjPool;
     private final FiberTimedScheduler timer;
-    private final Set<FiberWorkerThread> activeThreads = Collections.newSetFromMap(new ConcurrentHashMap<FiberWorkerThread, Boolean>());
+    private final ShardedFiberTimer shardedTimer;
+    private volatile int stackPoolCapacity;
+    private volatile int maxHandOffChain = 16;
+    final Set<FiberWorkerThread> activeThreads = Collections.newSetFromMap(new ConcurrentHashMap<FiberWorkerThread, Boolean>());
 
     /**
      * Creates a new fiber scheduler.
@@ -59,6 +71,7 @@ public class FiberForkJoinScheduler extends FiberScheduler {
         super(name, monitorType, detailedInfo);
         this.fjPool = createForkJoinPool(name, parallelism, exceptionHandler, monitorType);
         this.timer = createTimer(fjPool, getMonitor());
+        this.shardedTimer = PER_WORKER_TIMERS ? createShardedTimer(fjPool, getMonitor()) : null;
     }
 
     /**
@@ -92,6 +105,7 @@ public class FiberForkJoinScheduler extends FiberScheduler {
         this.fjPool = fjPool;
 
         this.timer = timeService != null ? timeService : createTimer(fjPool, getMonitor());
+        this.shardedTimer = PER_WORKER_TIMERS ? createShardedTimer(fjPool, getMonitor()) : null;
     }
 
     private ForkJoinPool createForkJoinPool(String name, int parallelism, UncaughtExceptionHandler exceptionHandler, MonitorType monitorType) {
@@ -129,6 +143,12 @@ public class FiberForkJoinScheduler extends FiberScheduler {
             return new FiberTimedScheduler(this);
     }
 
+    private ShardedFiberTimer createShardedTimer(ForkJoinPool fjPool, FibersMonitor monitor) {
+        return new ShardedFiberTimer(fjPool.getParallelism(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("FiberTimerFallback-" + getName()).build(),
+                monitor);
+    }
+
     public ForkJoinPool getForkJoinPool() {
         return fjPool;
     }
@@ -138,11 +158,134 @@ public class FiberForkJoinScheduler extends FiberScheduler {
         return fjPool;
     }
 
+    /**
+     * Shuts down the scheduler's {@code ForkJoinPool}, which lets its threads exit once they've run the fibers already submitted,
+     * and stops the fallback thread of the per-worker timers, if they're used.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (shardedTimer != null)
+            shardedTimer.shutdown();
+        fjPool.shutdown();
+    }
+
     @Override
     Future<Void> schedule(Fiber<?> fiber, Object blocker, long delay, TimeUnit unit) {
+        if (shardedTimer != null) {
+            final FiberWorkerThread worker = currentWorker();
+            return shardedTimer.schedule(worker != null ? worker.getTimerShard() : shardedTimer.shardFor(fiber), fiber, blocker, delay, unit);
+        }
         return timer.schedule(fiber, blocker, delay, unit);
     }
 
+    /**
+     * Enables recycling of fiber stacks.
+     * When enabled, each of the scheduler's threads keeps up to {@code capacity} stacks of fibers that have terminated on it,
+     * and reuses them for fibers created on that thread, reducing allocation for short-lived fibers.
+     * Stack pooling is disabled by default.
+     *
+     * @param capacity the maximum number of stacks pooled by each of the scheduler's threads; {@code 0} disables pooling.
+     */
+    public void setStackPoolCapacity(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity: " + capacity);
+        this.stackPoolCapacity = capacity;
+    }
+
+    public int getStackPoolCapacity() {
+        return stackPoolCapacity;
+    }
+
+    /**
+     * Sets the timer slack: the time by which the timed parks of fibers in this scheduler may expire late.
+     * Timeouts are rounded up to a multiple of the slack, so that timeouts set around the same time expire together, and fibers
+     * whose timeouts expire together are resumed as a batch. This trades timer precision for lower timer overhead when many fibers
+     * wait with timeouts.
+     *
+     * @param slack the slack; {@code 0} (the default) for no slack.
+     * @param unit  {@code slack}'s time unit
+     */
+    public void setTimerSlack(long slack, TimeUnit unit) {
+        timer.setSlack(slack, unit);
+        if (shardedTimer != null)
+            shardedTimer.setSlack(slack, unit);
+    }
+
+    public long getTimerSlack(TimeUnit unit) {
+        return timer.getSlack(unit);
+    }
+
+    /**
+     * Sets the maximum number of fibers a thread may run in a row by direct hand-off.
+     * When a fiber calls {@link Fiber#parkAndUnpark(Fiber) parkAndUnpark} or {@link Fiber#yieldAndUnpark(Fiber) yieldAndUnpark},
+     * the thread running it runs the unparked fiber as soon as the caller parks or yields, rather than submitting it to the pool,
+     * where it might be stolen by another thread or queued behind other fibers. Once a thread has handed off {@code max} times in a row,
+     * unparked fibers are submitted normally, so that a pair of fibers handing off to each other doesn't starve the rest.
+     * The default is 16.
+     *
+     * @param max the maximum length of a hand-off chain; {@code 0} disables direct hand-off.
+     */
+    public void setMaxHandOffChain(int max) {
+        if (max < 0)
+            throw new IllegalArgumentException("max: " + max);
+        this.maxHandOffChain = max;
+    }
+
+    public int getMaxHandOffChain() {
+        return maxHandOffChain;
+    }
+
+    @Override
+    boolean canHandOff(Fiber<?> current) {
+        final FiberWorkerThread worker = currentWorker();
+        return worker != null
+                && worker.running == current.getTask() // not when the current fiber has been run directly by another (see Fiber.exec(Object, ...))
+                && worker.handOff == null
+                && worker.handOffChain < maxHandOffChain;
+    }
+
+    @Override
+    void handOff(FiberTask<?> task) {
+        currentWorker().handOff = (FiberForkJoinTask<?>) task;
+    }
+
+    @Override
+    void releaseHandOff() {
+        final FiberWorkerThread worker = currentWorker();
+        final FiberForkJoinTask<?> task = worker != null ? worker.handOff : null;
+        if (task != null) {
+            worker.handOff = null;
+            task.submit();
+        }
+    }
+
+    @Override
+    StackPool getStackPool() {
+        if (stackPoolCapacity == 0)
+            return null;
+        final FiberWorkerThread worker = currentWorker();
+        return worker != null ? worker.getStackPool() : null;
+    }
+
+    /**
+     * Returns the current thread if it is one of this scheduler's threads; {@code null} otherwise.
+     */
+    FiberWorkerThread currentWorker() {
+        final Thread currentThread = Thread.currentThread();
+        if (!(currentThread instanceof FiberWorkerThread) || ((FiberWorkerThread) currentThread).getPool() != fjPool)
+            return null;
+        return (FiberWorkerThread) currentThread;
+    }
+
+    @Override
+    void submitAll(List<FiberTask<?>> tasks) {
+        if (tasks.size() == 1 || isCurrentThreadInScheduler()) // forking from one of our threads doesn't contend on the submission queue
+            super.submitAll(tasks);
+        else
+            fjPool.submit(new SubmitAllTask(tasks)); // a single external submission; the tasks are forked by the worker running it
+    }
+
     @Override
     <V> FiberTask<V> newFiberTask(Fiber<V> fiber) {
         return new FiberForkJoinTask<V>(fiber, fjPool);
@@ -163,7 +306,7 @@ public class FiberForkJoinScheduler extends FiberScheduler {
 
     @Override
     int getTimedQueueLength() {
-        return timer.getQueueLength();
+        return timer.getQueueLength() + (shardedTimer != null ? shardedTimer.getQueueLength() : 0);
     }
 
     @Override
@@ -206,6 +349,18 @@ public class FiberForkJoinScheduler extends FiberScheduler {
             return Fiber.getCurrentStrand();
     }
     
+    /**
+     * Called by a fiber after each run.
+     */
+    void afterExec() {
+        if (shardedTimer != null) {
+            final FiberWorkerThread worker = currentWorker();
+            if (worker != null)
+                shardedTimer.poll(worker.getTimerShard());
+        }
+        tryOnIdle();
+    }
+
     void tryOnIdle() {
         if (FiberForkJoinTask.isIdle())
             onIdle();
@@ -214,11 +369,34 @@ public class FiberForkJoinScheduler extends FiberScheduler {
     protected void onIdle() {
     }
 
-    private class FiberWorkerThread extends ExtendedForkJoinWorkerThread {
+    class FiberWorkerThread extends ExtendedForkJoinWorkerThread {
+        private StackPool stackPool;
+        private ShardedFiberTimer.Shard timerShard;
+        final Queue<FiberForkJoinTask<?>> affinityInbox = new ConcurrentLinkedQueue<>(); // used by FiberAffinityScheduler
+        volatile boolean inFiber; // used by FiberAffinityScheduler; whether the inbox is sure to be drained
+        int runs; // used by FiberAffinityScheduler; the number of fibers the thread has run, written before inFiber is set
+        volatile int stalledRun = -1; // used by FiberAffinityScheduler; a run that has kept the inbox from being drained for too long
+        int watchedRun = -1; // used by FiberAffinityScheduler's watchdog thread only
+        FiberForkJoinTask<?> running; // the task run by the pool or by hand-off
+        FiberForkJoinTask<?> handOff; // to run once running returns
+        int handOffChain;
+
         public FiberWorkerThread(ForkJoinPool pool) {
             super(pool);
         }
 
+        StackPool getStackPool() {
+            if (stackPool == null)
+                stackPool = new StackPool(stackPoolCapacity, getMonitor());
+            return stackPool;
+        }
+
+        ShardedFiberTimer.Shard getTimerShard() {
+            if (timerShard == null)
+                timerShard = shardedTimer.nextShard();
+            return timerShard;
+        }
+
         @Override
         protected void onStart() {
             super.onStart();
@@ -232,7 +410,31 @@ public class FiberForkJoinScheduler extends FiberScheduler {
         }
     }
 
-    static final class FiberForkJoinTask<V> extends ParkableForkJoinTask<V> implements FiberTask<V> {
+    private static final class SubmitAllTask extends ForkJoinTask<Void> {
+        private final List<FiberTask<?>> tasks;
+
+        SubmitAllTask(List<FiberTask<?>> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected boolean exec() {
+            for (FiberTask<?> task : tasks)
+                task.submit(); // forks into this worker's queue, from which idle workers steal
+            return true;
+        }
+
+        @Override
+        public Void getRawResult() {
+            return null;
+        }
+
+        @Override
+        protected void setRawResult(Void value) {
+        }
+    }
+
+    static class FiberForkJoinTask<V> extends ParkableForkJoinTask<V> implements FiberTask<V> {
         private final ForkJoinPool fjPool;
         private final Fiber<V> fiber;
 
@@ -250,6 +452,10 @@ public class FiberForkJoinScheduler extends FiberScheduler {
             return fiber;
         }
 
+        final ForkJoinPool getFjPool() {
+            return fjPool;
+        }
+
         @Override
         public void submit() {
 //            final FibersMonitor monitor = fiber.getMonitor();
@@ -261,6 +467,36 @@ public class FiberForkJoinScheduler extends FiberScheduler {
                 fjPool.submit(this);
         }
 
+        @Override
+        protected boolean exec() {
+            final Thread currentThread = Thread.currentThread();
+            if (!(currentThread instanceof FiberWorkerThread))
+                return super.exec();
+            final FiberWorkerThread worker = (FiberWorkerThread) currentThread;
+            worker.running = this;
+            try {
+                return super.exec();
+            } finally {
+                runHandOffs(worker);
+            }
+        }
+
+        /**
+         * Runs the fibers handed off by the fiber that has just run on this thread, and by them in turn.
+         * The chain is bounded by {@code canHandOff}.
+         */
+        private static void runHandOffs(FiberWorkerThread worker) {
+            FiberForkJoinTask<?> next;
+            while ((next = worker.handOff) != null) {
+                worker.handOff = null;
+                worker.handOffChain++;
+                worker.running = next;
+                next.doExec();
+            }
+            worker.running = null;
+            worker.handOffChain = 0;
+        }
+
         @Override
         protected boolean exec1() {
             return fiber.exec();
@@ -312,7 +548,12 @@ public class FiberForkJoinScheduler extends FiberScheduler {
 
         @Override
         public void doPark(boolean yield) {
-            super.doPark(yield);
+            if (yield && fiber.isPreempted()) {
+                // behind the pool's other submissions, rather than in this worker's queue, from which it would run again right away
+                fjPool.submit(this);
+                onParked(true);
+            } else
+                super.doPark(yield);
         }
 
         @Override
@@ -364,6 +605,11 @@ public class FiberForkJoinScheduler extends FiberScheduler {
             return super.tryUnpark(unblocker);
         }
 
+        @Override
+        public boolean unparkNoSubmit(Object unblocker) {
+            return super.unparkNoSubmit(unblocker == FiberTask.EMERGENCY_UNBLOCKER ? ParkableForkJoinTask.EMERGENCY_UNBLOCKER : unblocker);
+        }
+
         @Override
         public Object getUnparker() {
             return super.getUnparker();
@@ -0,0 +1,138 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.concurrent.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Compares the delay queues {@code FiberTimedScheduler} may use, under the load of fibers doing {@code receive(timeout)}:
+ * producers schedule a timeout and almost always cancel it shortly after, while a single consumer waits for timeouts to expire.
+ * As in {@code FiberTimedScheduler}, cancelled timeouts are only flagged in the heap and skip-list based queues,
+ * and are removed from the timing wheel.
+ *
+ * @author pron
+ */
+public class TimingWheelJMHBenchmark {
+    private static final String BENCHMARK = TimingWheelJMHBenchmark.class.getName() + ".*";
+
+    public static void main(String[] args) throws Exception {
+        Main.main(buildArguments(BENCHMARK, 5, 5000, 2));
+    }
+
+    private static String[] buildArguments(String className, int iterations, int runForMilliseconds, int producers) {
+        return new String[]{className,
+                    "-f", "1",
+                    "-i", "" + iterations,
+                    "-r", runForMilliseconds + "ms",
+                    "-tg", "1," + producers,
+                    "-w", "5000ms",
+                    "-wi", "3",
+                    "-prof", "gc"
+                };
+    }
+
+    private static final int MIN_DELAY_MS = 10;
+    private static final int MAX_DELAY_MS = 1000;
+    private static final int EXPIRING_ONE_IN = 100; // all other timeouts are cancelled
+
+    @State(Scope.Group)
+    public static class Q {
+        BlockingQueue<Timeout> delayQueue = new co.paralleluniverse.concurrent.util.DelayQueue<Timeout>();
+        BlockingQueue<Timeout> singleConsumerNonblockingProducerDelayQueue = new SingleConsumerNonblockingProducerDelayQueue<Timeout>();
+        BlockingQueue<Timeout> timingWheel = new TimingWheelDelayQueue<Timeout>(1, TimeUnit.MILLISECONDS);
+    }
+
+    public void write(BlockingQueue<Timeout> queue, boolean remove) {
+        final ThreadLocalRandom rand = ThreadLocalRandom.current();
+        final Timeout t = new Timeout(TimeUnit.MILLISECONDS.toNanos(rand.nextInt(MIN_DELAY_MS, MAX_DELAY_MS)));
+        queue.offer(t);
+        if (rand.nextInt(EXPIRING_ONE_IN) != 0) {
+            t.cancelled = true;
+            if (remove)
+                queue.remove(t);
+        }
+    }
+
+    public Timeout read(Control cnt, BlockingQueue<Timeout> queue) throws InterruptedException {
+        Timeout result = null;
+        while (!cnt.stopMeasurement && (null == (result = queue.poll(1, TimeUnit.MILLISECONDS)) || result.cancelled))
+            ;
+        return result;
+    }
+
+    // it is important that "read" is lexicographically lower than "write", as this is the order specified in the -tg flag
+    @Benchmark
+    @Group("delayQueue")
+    public Object read_DelayQueue(Control cnt, Q q) throws InterruptedException {
+        return read(cnt, q.delayQueue);
+    }
+
+    @Benchmark
+    @Group("delayQueue")
+    public void write_DelayQueue(Q q) {
+        write(q.delayQueue, false);
+    }
+
+    @Benchmark
+    @Group("singleConsumerNonblockingProducerDelayQueue")
+    public Object read_SingleConsumerNonblockingProducerDelayQueue(Control cnt, Q q) throws InterruptedException {
+        return read(cnt, q.singleConsumerNonblockingProducerDelayQueue);
+    }
+
+    @Benchmark
+    @Group("singleConsumerNonblockingProducerDelayQueue")
+    public void write_SingleConsumerNonblockingProducerDelayQueue(Q q) {
+        write(q.singleConsumerNonblockingProducerDelayQueue, false);
+    }
+
+    @Benchmark
+    @Group("timingWheel")
+    public Object read_TimingWheel(Control cnt, Q q) throws InterruptedException {
+        return read(cnt, q.timingWheel);
+    }
+
+    @Benchmark
+    @Group("timingWheel")
+    public void write_TimingWheel(Q q) {
+        write(q.timingWheel, true);
+    }
+
+    static final class Timeout extends TimingWheelDelayQueue.Entry {
+        final long time;
+        volatile boolean cancelled;
+
+        Timeout(long delayNanos) {
+            this.time = System.nanoTime() + delayNanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(time, ((Timeout) o).time);
+        }
+    }
+}
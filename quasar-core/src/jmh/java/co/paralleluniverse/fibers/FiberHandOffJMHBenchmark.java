@@ -0,0 +1,110 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Passes a token around a ring of fibers with {@link Fiber#parkAndUnpark(Fiber) parkAndUnpark}
+ * (a ring of two is a ping-pong), with direct hand-off disabled ({@code MAX_HAND_OFF_CHAIN = 0}) and enabled.
+ * Each operation is {@link #LAPS} laps of the ring, so the average time divided by {@code LAPS * RING} is the latency of a single hand-off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FiberHandOffJMHBenchmark {
+    static final int LAPS = 100;
+    private static final int IDLE = -1;
+
+    @Param({"2", "16"})
+    public int RING;
+
+    @Param({"0", "16"})
+    public int MAX_HAND_OFF_CHAIN;
+
+    @Param({"4"})
+    public int PARALLELISM;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(FiberHandOffJMHBenchmark.class.getName() + ".*")
+                .forks(1)
+                .warmupTime(TimeValue.seconds(5))
+                .warmupIterations(3)
+                .measurementTime(TimeValue.seconds(5))
+                .measurementIterations(5)
+                .build()).run();
+    }
+
+    private FiberForkJoinScheduler scheduler;
+    private Fiber<Void>[] fibers;
+    private volatile int token = IDLE;
+    private int laps; // only touched by the token holder
+    private volatile boolean done;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void prepare() {
+        scheduler = new FiberForkJoinScheduler("hand-off-benchmark", PARALLELISM);
+        scheduler.setMaxHandOffChain(MAX_HAND_OFF_CHAIN);
+        fibers = new Fiber[RING];
+        for (int i = 0; i < RING; i++) {
+            final int me = i;
+            fibers[i] = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    final int next = (me + 1) % RING;
+                    while (!done) {
+                        if (token != me) {
+                            Fiber.park();
+                            continue;
+                        }
+                        if (next == 0 && --laps == 0) {
+                            token = IDLE;
+                            continue;
+                        }
+                        token = next;
+                        Fiber.parkAndUnpark(fibers[next]);
+                    }
+                }
+            });
+        }
+        for (Fiber<Void> f : fibers)
+            f.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        done = true;
+        for (Fiber<Void> f : fibers)
+            f.unpark();
+        scheduler.getForkJoinPool().shutdown();
+    }
+
+    @Benchmark
+    public int ring() {
+        laps = LAPS;
+        token = 0;
+        fibers[0].unpark();
+        int spins = 0;
+        while (token != IDLE)
+            spins++;
+        return spins;
+    }
+}
@@ -14,11 +14,13 @@
 package co.paralleluniverse.fibers;
 
 import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
 import org.openjdk.jmh.runner.options.OptionsBuilder;
 import org.openjdk.jmh.runner.options.TimeValue;
 import org.openjdk.jmh.profile.*;
@@ -34,18 +36,23 @@ public class FiberOverheadJMHBenchmark {
     @Param({"16", "100"})
     public int STACK;
 
+    /**
+     * Pass {@code -gc} to also report GC time and allocation rate (which shows the lazily allocated stack in newFiberNoCall).
+     * The GC profiler distorts the timings, so it's off by default.
+     */
     public static void main(String[] args) throws Exception {
         // Main.main(new String[]{"-usage"});
-        new Runner(new OptionsBuilder()
+        final ChainedOptionsBuilder options = new OptionsBuilder()
                 .include(FiberOverheadJMHBenchmark.class.getName() + ".*")
                 .forks(1)
                 .warmupTime(TimeValue.seconds(5))
                 .warmupIterations(3)
                 .measurementTime(TimeValue.seconds(5))
-                .measurementIterations(5)
-                //.addProfiler(GCProfiler.class)    // report GC time
-                //.addProfiler(StackProfiler.class) // report method stack execution profile
-                .build()).run();
+                .measurementIterations(5);
+        if (Arrays.asList(args).contains("-gc"))
+            options.addProfiler(GCProfiler.class);
+        // options.addProfiler(StackProfiler.class); // report method stack execution profile
+        new Runner(options.build()).run();
     }
 
     @Benchmark
@@ -72,8 +79,30 @@ public class FiberOverheadJMHBenchmark {
         return res;
     }
 
+    /**
+     * Creates and runs a new fiber that never calls a suspendable method, and so never allocates its stack.
+     */
+    @Benchmark
+    public Object newFiberNoCall() {
+        res = 0;
+        exec(new Fiber((String) null, null, STACK, noCallTarget));
+        return res;
+    }
+
+    /**
+     * Creates and runs a new fiber that calls suspendable methods but never suspends.
+     */
+    @Benchmark
+    public Object newFiberNoPark() {
+        res = 0;
+        exec(new Fiber((String) null, null, STACK, noParkTarget));
+        return res;
+    }
+
     private long res;
     private long rands[];
+    private SuspendableRunnable noCallTarget;
+    private SuspendableRunnable noParkTarget;
     private Runnable runnable;
     private Fiber fiber;
     private Fiber fiber2;
@@ -97,12 +126,19 @@ public class FiberOverheadJMHBenchmark {
                 res = recursive2(DEPTH);
             }
         });
-        fiber2 = new Fiber((String) null, null, STACK, new SuspendableRunnable() {
+        noParkTarget = new SuspendableRunnable() {
             @Override
             public void run() throws SuspendExecution {
                 res = recursive3(DEPTH);
             }
-        });
+        };
+        fiber2 = new Fiber((String) null, null, STACK, noParkTarget);
+        noCallTarget = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                res = recursive1(DEPTH);
+            }
+        };
     }
 
     private long recursive1(int r) {
@@ -0,0 +1,141 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Two fibers play ping-pong with {@link Fiber#park() park} and {@link Fiber#unpark() unpark}; each operation is {@link #ROUNDS} round trips.
+ * <p>
+ * The untimed park/unpark path is expected not to allocate at all (when the flight recorder is off), so {@link #main(String[]) main}
+ * runs the benchmark with the GC profiler and fails if the allocation per round trip, as reported by {@code gc.alloc.rate.norm},
+ * is not (practically) zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FiberParkUnparkJMHBenchmark {
+    static final int ROUNDS = 1000;
+    /**
+     * The allocation per round trip that is attributed to measurement noise (JMH's bookkeeping, amortized over the round trips).
+     * Measured at well under 0.01 bytes; a single object allocated in one of every hundred round trips exceeds it.
+     */
+    private static final double MAX_BYTES_PER_ROUND = 0.1;
+
+    @Param({"1", "2"})
+    public int PARALLELISM;
+
+    public static void main(String[] args) throws Exception {
+        final Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(FiberParkUnparkJMHBenchmark.class.getName() + ".*")
+                .forks(1)
+                .warmupTime(TimeValue.seconds(5))
+                .warmupIterations(3)
+                .measurementTime(TimeValue.seconds(5))
+                .measurementIterations(5)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+
+        for (RunResult result : results) {
+            final Result<?> alloc = allocationRate(result.getSecondaryResults());
+            if (alloc == null)
+                throw new AssertionError("gc.alloc.rate.norm not reported");
+            final double perRound = alloc.getScore() / ROUNDS;
+            if (perRound > MAX_BYTES_PER_ROUND)
+                throw new AssertionError("park/unpark allocates " + perRound + " bytes per round trip (" + result.getParams() + ")");
+        }
+    }
+
+    private static Result<?> allocationRate(Map<String, Result> secondary) {
+        for (Map.Entry<String, Result> e : secondary.entrySet()) {
+            if (e.getKey().endsWith("gc.alloc.rate.norm"))
+                return e.getValue();
+        }
+        return null;
+    }
+
+    private static final int IDLE = 0;
+    private static final int PING = 1;
+    private static final int PONG = 2;
+
+    private FiberForkJoinScheduler scheduler;
+    private Fiber<Void> ping;
+    private Fiber<Void> pong;
+    private volatile int turn;
+    private int remaining; // only touched by pong, and by the benchmark thread while the fibers are idle
+    private volatile boolean done;
+
+    @Setup
+    public void prepare() {
+        scheduler = new FiberForkJoinScheduler("park-unpark-benchmark", PARALLELISM);
+        ping = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                while (!done) {
+                    Fiber.park();
+                    if (turn == PING) {
+                        turn = PONG;
+                        pong.unpark();
+                    }
+                }
+            }
+        });
+        pong = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                while (!done) {
+                    Fiber.park();
+                    if (turn == PONG) {
+                        if (--remaining > 0) {
+                            turn = PING;
+                            ping.unpark();
+                        } else
+                            turn = IDLE;
+                    }
+                }
+            }
+        });
+        ping.start();
+        pong.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        done = true;
+        ping.unpark();
+        pong.unpark();
+        scheduler.getForkJoinPool().shutdown();
+    }
+
+    @Benchmark
+    public int pingPong() {
+        remaining = ROUNDS;
+        turn = PING;
+        ping.unpark();
+        int spins = 0;
+        while (turn != IDLE)
+            spins++;
+        return spins;
+    }
+}
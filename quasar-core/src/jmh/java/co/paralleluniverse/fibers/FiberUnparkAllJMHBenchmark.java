@@ -0,0 +1,103 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Compares waking a group of parked fibers from a non-scheduler thread one by one with {@link Fiber#unpark()},
+ * and all together with {@link FiberScheduler#unparkAll(java.util.Collection) unparkAll}.
+ * Each operation wakes all fibers, and waits for all of them to run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FiberUnparkAllJMHBenchmark {
+    @Param({"16", "256", "1024"})
+    public int FIBERS;
+
+    @Param({"4"})
+    public int PARALLELISM;
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(FiberUnparkAllJMHBenchmark.class.getName() + ".*")
+                .forks(1)
+                .warmupTime(TimeValue.seconds(5))
+                .warmupIterations(3)
+                .measurementTime(TimeValue.seconds(5))
+                .measurementIterations(5)
+                .build()).run();
+    }
+
+    private FiberForkJoinScheduler scheduler;
+    private List<Fiber<Void>> fibers;
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean done;
+
+    @Setup
+    public void prepare() {
+        scheduler = new FiberForkJoinScheduler("unpark-all-benchmark", PARALLELISM);
+        fibers = new ArrayList<>(FIBERS);
+        for (int i = 0; i < FIBERS; i++) {
+            fibers.add(new Fiber<Void>(scheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    while (!done) {
+                        Fiber.park();
+                        pending.decrementAndGet();
+                    }
+                }
+            }).start());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        done = true;
+        for (Fiber<Void> fiber : fibers)
+            fiber.unpark();
+        scheduler.getForkJoinPool().shutdown();
+    }
+
+    @Benchmark
+    public int unpark() {
+        pending.set(FIBERS);
+        for (Fiber<Void> fiber : fibers)
+            fiber.unpark();
+        return await();
+    }
+
+    @Benchmark
+    public int unparkAll() {
+        pending.set(FIBERS);
+        scheduler.unparkAll(fibers);
+        return await();
+    }
+
+    private int await() {
+        int spins = 0;
+        while (pending.get() > 0)
+            spins++;
+        return spins;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.common.util;
+
+/**
+ * Aligns deadlines to multiples of a slack, so that those that are close to one another expire together. For internal use only.
+ *
+ * @author pron
+ */
+public final class TimerSlack {
+    /**
+     * Rounds the given time up to a multiple of {@code slack}.
+     *
+     * @param time  a time, in nanoseconds
+     * @param slack a positive duration, in nanoseconds
+     */
+    public static long roundUp(long time, long slack) {
+        long r = time % slack;
+        if (r < 0)
+            r += slack;
+        return r == 0 ? time : time - r + slack;
+    }
+
+    /**
+     * Rounds the expiration time of a timer up to a multiple of {@code slack}, unless it's only just past one, by no more than a
+     * sixteenth of the slack, in which case it's rounded down to it.
+     * Timers are given relative delays, so a deadline that has already been aligned (say, by a
+     * {@link co.paralleluniverse.strands.Timeout Timeout} with slack) comes back a little past its multiple of the slack, by the
+     * time it took to compute the delay and schedule the timer; rounding it up again would make it expire a whole slack late.
+     * A time is never rounded down to one that has already passed (as when a strand woken slightly early parks again for the
+     * rest of its timeout); it is then returned as is.
+     *
+     * @param time  a time, in nanoseconds
+     * @param now   the current time, in nanoseconds
+     * @param slack a positive duration, in nanoseconds
+     */
+    public static long align(long time, long now, long slack) {
+        final long t = roundUp(time - (slack >> 4), slack);
+        return t >= time || t > now ? t : time;
+    }
+
+    private TimerSlack() {
+    }
+}
@@ -16,6 +16,7 @@ package co.paralleluniverse.concurrent.util;
 import co.paralleluniverse.common.util.*;
 import sun.misc.*;
 
+import java.lang.invoke.*;
 import java.lang.ref.*;
 import java.lang.reflect.*;
 import java.security.*;
@@ -36,12 +37,14 @@ public class ThreadAccess {
     private static final Constructor threadLocalMapConstructor;
     private static final Constructor threadLocalMapInheritedConstructor;
 //    private static final Method threadLocalMapSet;
+    private static final MethodHandle threadLocalMapGetEntry; // (ThreadLocalMap, ThreadLocal) -> Entry, as (Object, ThreadLocal) -> Object
     private static final Field threadLocalMapTableField;
     private static final Field threadLocalMapSizeField;
     private static final Field threadLocalMapThresholdField;
     private static final Class threadLocalMapEntryClass;
     private static final Constructor threadLocalMapEntryConstructor;
     private static final Field threadLocalMapEntryValueField;
+    private static final MethodHandle threadLocalMapEntryValueGetter; // Entry -> value, as Object -> Object
 
     static {
         try {
@@ -64,6 +67,9 @@ public class ThreadAccess {
             threadLocalMapInheritedConstructor.setAccessible(true);
 //            threadLocalMapSet = threadLocalMapClass.getDeclaredMethod("set", ThreadLocal.class, Object.class);
 //            threadLocalMapSet.setAccessible(true);
+            final Method getEntry = threadLocalMapClass.getDeclaredMethod("getEntry", ThreadLocal.class);
+            getEntry.setAccessible(true);
+            threadLocalMapGetEntry = MethodHandles.lookup().unreflect(getEntry).asType(MethodType.methodType(Object.class, Object.class, ThreadLocal.class));
             threadLocalMapTableField = threadLocalMapClass.getDeclaredField("table");
             threadLocalMapTableField.setAccessible(true);
             threadLocalMapSizeField = threadLocalMapClass.getDeclaredField("size");
@@ -76,6 +82,7 @@ public class ThreadAccess {
             threadLocalMapEntryConstructor.setAccessible(true);
             threadLocalMapEntryValueField = threadLocalMapEntryClass.getDeclaredField("value");
             threadLocalMapEntryValueField.setAccessible(true);
+            threadLocalMapEntryValueGetter = MethodHandles.lookup().unreflectGetter(threadLocalMapEntryValueField).asType(MethodType.methodType(Object.class, Object.class));
         } catch (Exception ex) {
             throw new AssertionError(ex);
         }
@@ -137,6 +144,23 @@ public class ThreadAccess {
 //        }
 //    }
 
+    /**
+     * Returns the value of the given {@code ThreadLocal} in the given thread, or {@code absent} if it's not set
+     * (a value explicitly set to {@code null} is returned as {@code null}).
+     * Unlike {@link ThreadLocal#get()}, never calls {@code initialValue}.
+     */
+    public static Object getThreadLocalValue(Thread thread, ThreadLocal tl, Object absent) {
+        final Object map = getThreadLocals(thread);
+        if (map == null)
+            return absent;
+        try {
+            final Object entry = (Object) threadLocalMapGetEntry.invokeExact(map, tl);
+            return entry != null ? (Object) threadLocalMapEntryValueGetter.invokeExact(entry) : absent;
+        } catch (Throwable t) {
+            throw Exceptions.rethrow(t);
+        }
+    }
+
     // createInheritedMap works only for InheritableThreadLocals
     public static Object cloneThreadLocalMap(Object orig) {
         try {
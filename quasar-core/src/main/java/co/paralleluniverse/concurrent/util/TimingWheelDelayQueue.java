@@ -0,0 +1,383 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.concurrent.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A delay queue with a single consumer and any number of producers, implemented as a hashed hierarchical timing wheel.
+ * <p>
+ * Time is divided into ticks of a fixed duration, and elements are hashed into the wheel by the tick in which they expire,
+ * so adding and removing an element take constant time regardless of the number of elements in the queue (unlike a heap or a skip-list,
+ * which take logarithmic time). The price is precision: an element is only returned at the end of the tick its delay expires in,
+ * i.e., up to one tick late (never early).
+ * <p>
+ * The wheel is only ever touched by the consumer. Producers hand new and {@link #remove(Object) removed} elements to the consumer
+ * through lock-free queues, and the consumer applies them to the wheel the next time it polls. So, unlike in a {@code DelayQueue},
+ * a removed element is unlinked from the queue at once rather than lingering until it expires.
+ * <p>
+ * Elements must extend {@link Entry}, which holds the wheel's links, and may be added to only one queue, once.
+ * Like {@code poll}, {@link #peek() peek} and {@link #iterator() iteration} may only be performed by the consumer.
+ *
+ * @author pron
+ */
+public class TimingWheelDelayQueue<E extends TimingWheelDelayQueue.Entry> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+    // entry states; only accessed by the consumer
+    private static final int PENDING = 0;
+    private static final int IN_WHEEL = 1;
+    private static final int READY = 2;
+    private static final int DONE = 3;
+    private static final int REMOVED = 4;
+    //
+    private final long tickNanos;
+    private final long startTime;
+    private final Entry[][] wheel = new Entry[LEVELS][WHEEL_SIZE];
+    private final ArrayDeque<Entry> ready = new ArrayDeque<>();
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> removed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private long currentTick; // all ticks up to and including this one have been expired
+    private int inWheel;
+    private volatile Thread parkedConsumer;
+    private volatile long wakeupTime;
+
+    /**
+     * Creates a new queue.
+     *
+     * @param tick the duration of a single tick of the wheel, which is the queue's resolution.
+     * @param unit {@code tick}'s time unit.
+     */
+    public TimingWheelDelayQueue(long tick, TimeUnit unit) {
+        this.tickNanos = unit.toNanos(tick);
+        if (tickNanos <= 0)
+            throw new IllegalArgumentException("tick: " + tick + " " + unit);
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * The base class of the elements of a {@link TimingWheelDelayQueue}.
+     */
+    public abstract static class Entry implements Delayed {
+        Entry prev;
+        Entry next;
+        long tick;
+        int level;
+        int slot;
+        int state;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        added.offer(e);
+        size.incrementAndGet();
+        if (parkedConsumer != null && System.nanoTime() + e.getDelay(NANOSECONDS) < wakeupTime)
+            LockSupport.unpark(parkedConsumer);
+        return true;
+    }
+
+    /**
+     * Removes an element that has been added to this queue, if it has not yet been returned by a {@code poll} or {@code take}.
+     * The element is unlinked from the wheel by the consumer.
+     *
+     * @return {@code true}
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null)
+            return false;
+        removed.offer((Entry) o);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        return pollExpired(System.nanoTime());
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, NANOSECONDS);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long left = unit.toNanos(timeout);
+        long now = System.nanoTime();
+        for (;;) {
+            final E e = pollExpired(now);
+            if (e != null || left <= 0)
+                return e;
+
+            final long next = nextExpiration();
+            final long park = next == Long.MAX_VALUE ? left : Math.min(left, next - now);
+            this.wakeupTime = park > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + park;
+            this.parkedConsumer = Thread.currentThread();
+            try {
+                // a producer adds before checking parkedConsumer, so either it sees us parked, or we see its element
+                if (added.isEmpty())
+                    LockSupport.parkNanos(this, park);
+            } finally {
+                this.parkedConsumer = null;
+            }
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            final long t = System.nanoTime();
+            left -= t - now;
+            now = t;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns, but does not remove, the element that would be returned by {@link #poll() poll}, i.e. the earliest expired element,
+     * or {@code null} if no element has expired. Unlike in a {@code DelayQueue}, unexpired elements are never returned.
+     * Must only be called by the consumer.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        processAdded();
+        processRemoved();
+        advance((System.nanoTime() - startTime) / tickNanos);
+
+        Entry e;
+        while ((e = ready.peek()) != null) {
+            if (e.state == READY)
+                return (E) e;
+            ready.poll();
+        }
+        return null;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the elements in the queue, in no particular order.
+     * Must only be called by the consumer. The iterator does not support {@code remove}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        processAdded();
+        processRemoved();
+
+        final List<E> elements = new ArrayList<>(size.get());
+        for (Entry e : ready) {
+            if (e.state == READY)
+                elements.add((E) e);
+        }
+        for (Entry[] level : wheel) {
+            for (Entry head : level) {
+                for (Entry e = head; e != null; e = e.next)
+                    elements.add((E) e);
+            }
+        }
+        return Collections.unmodifiableList(elements).iterator();
+    }
+
+    @SuppressWarnings("unchecked")
+    private E pollExpired(long now) {
+        processAdded();
+        processRemoved();
+        advance((now - startTime) / tickNanos);
+
+        Entry e;
+        while ((e = ready.poll()) != null) {
+            if (e.state == READY) {
+                e.state = DONE;
+                size.decrementAndGet();
+                e.getDelay(NANOSECONDS); // as in a DelayQueue, lets the element note its lateness
+                return (E) e;
+            }
+        }
+        return null;
+    }
+
+    private void processAdded() {
+        Entry e;
+        while ((e = added.poll()) != null) {
+            if (e.state == REMOVED)
+                continue;
+            final long delay = e.getDelay(NANOSECONDS);
+            final long deadline = System.nanoTime() + delay - startTime; // read after getDelay so it's never early
+            e.tick = deadline <= 0 ? 0 : (deadline + tickNanos - 1) / tickNanos;
+            insert(e);
+        }
+    }
+
+    private void processRemoved() {
+        Entry e;
+        while ((e = removed.poll()) != null) {
+            switch (e.state) {
+                case IN_WHEEL:
+                    unlink(e);
+                // fall through
+                case PENDING:
+                case READY:
+                    e.state = REMOVED;
+                    size.decrementAndGet();
+                    break;
+                default:
+            }
+        }
+    }
+
+    private void insert(Entry e) {
+        final long delta = e.tick - currentTick;
+        if (delta <= 0) {
+            e.state = READY;
+            ready.add(e);
+            return;
+        }
+        final long tick = delta <= MAX_TICKS ? e.tick : currentTick + MAX_TICKS; // re-inserted when its slot cascades
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (WHEEL_BITS * (level + 1)))
+            level++;
+        final int slot = (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+
+        final Entry head = wheel[level][slot];
+        e.level = level;
+        e.slot = slot;
+        e.prev = null;
+        e.next = head;
+        if (head != null)
+            head.prev = e;
+        wheel[level][slot] = e;
+        e.state = IN_WHEEL;
+        inWheel++;
+    }
+
+    private void unlink(Entry e) {
+        if (e.prev != null)
+            e.prev.next = e.next;
+        else
+            wheel[e.level][e.slot] = e.next;
+        if (e.next != null)
+            e.next.prev = e.prev;
+        e.prev = null;
+        e.next = null;
+        inWheel--;
+    }
+
+    private void advance(long nowTick) {
+        while (currentTick < nowTick && inWheel > 0) {
+            final long tick = ++currentTick;
+            if ((tick & WHEEL_MASK) == 0) {
+                // move the entries of each higher level slot whose time has come down the levels, top-down
+                int level = 1;
+                while (level < LEVELS - 1 && (tick & ((1L << (WHEEL_BITS * (level + 1))) - 1)) == 0)
+                    level++;
+                for (; level > 0; level--)
+                    cascade(level, (int) (tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            }
+            expire((int) tick & WHEEL_MASK);
+        }
+        if (currentTick < nowTick)
+            currentTick = nowTick; // nothing in the wheel
+    }
+
+    private void cascade(int level, int slot) {
+        Entry e = wheel[level][slot];
+        wheel[level][slot] = null;
+        while (e != null) {
+            final Entry next = e.next;
+            e.prev = null;
+            e.next = null;
+            inWheel--;
+            insert(e);
+            e = next;
+        }
+    }
+
+    private void expire(int slot) {
+        Entry e = wheel[0][slot];
+        wheel[0][slot] = null;
+        while (e != null) {
+            final Entry next = e.next;
+            e.prev = null;
+            e.next = null;
+            inWheel--;
+            e.state = READY;
+            ready.add(e);
+            e = next;
+        }
+    }
+
+    /**
+     * Returns the earliest time anything in the wheel may expire or cascade.
+     */
+    private long nextExpiration() {
+        if (inWheel == 0)
+            return Long.MAX_VALUE;
+        long tick = currentTick + 1;
+        while ((tick & WHEEL_MASK) != 0 && wheel[0][(int) tick & WHEEL_MASK] == null)
+            tick++;
+        return startTime + tick * tickNanos;
+    }
+
+    //////////// Boring //////////////////////////
+    @Override
+    public void put(E e) {
+        add(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) {
+        return offer(e);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int count = 0;
+        E e;
+        while (count < maxElements && (e = poll()) != null) {
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+}
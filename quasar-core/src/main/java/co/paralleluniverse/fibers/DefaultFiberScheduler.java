@@ -14,7 +14,12 @@
 package co.paralleluniverse.fibers;
 
 import co.paralleluniverse.common.monitoring.MonitorType;
+import co.paralleluniverse.common.util.SystemProperties;
+import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The default {@link FiberScheduler} used to schedule fibers that do not specify a particular scheduler.
@@ -27,6 +32,16 @@ import java.lang.Thread.UncaughtExceptionHandler;
  * May be {@code "JMX"} (the defualt), {@code "METRICS"}, or {@code "NONE"}.</li>
  * <li>{@code "co.paralleluniverse.fibers.DefaultFiberPool.detailedFiberInfo"} - whether the fibers monitor collects detailed information about running fibers.
  * May be {@code "true"} or {@code "false"} (the default)</li>
+ * <li>{@code "co.paralleluniverse.fibers.DefaultFiberPool.stackPoolCapacity"} - the number of terminated fibers' stacks each of the scheduler's threads
+ * keeps for reuse (see {@link FiberForkJoinScheduler#setStackPoolCapacity(int) setStackPoolCapacity}). By default, {@code 0} (stack pooling is disabled).</li>
+ * <li>{@code "co.paralleluniverse.fibers.DefaultFiberPool.affinity"} - whether the default scheduler prefers to resume fibers on the thread they last ran on
+ * (see {@link FiberAffinityScheduler}). May be {@code "true"} or {@code "false"} (the default)</li>
+ * <li>{@code "co.paralleluniverse.fibers.DefaultFiberPool.lightweightLocals"} - whether fibers in the default scheduler only switch the values of registered
+ * {@code ThreadLocal}s rather than all of them (see {@link FiberScheduler#setSwitchAllThreadLocals(boolean) setSwitchAllThreadLocals}).
+ * May be {@code "true"} or {@code "false"} (the default)</li>
+ * <li>{@code "co.paralleluniverse.fibers.DefaultFiberPool.hibernationThreshold"} - if set, enables hibernation of
+ * {@link Fiber#setHibernatable(boolean) hibernatable} fibers parked longer than the given number of milliseconds
+ * (see {@link FiberScheduler#enableHibernation(long, TimeUnit, java.io.File) enableHibernation}). By default, hibernation is disabled.</li>
  * <ul>
  *
  * @author pron
@@ -37,6 +52,10 @@ public class DefaultFiberScheduler {
     private static final String PROPERTY_THREAD_FACTORY = "co.paralleluniverse.fibers.DefaultFiberPool.threadFactory";
     private static final String PROPERTY_MONITOR_TYPE = "co.paralleluniverse.fibers.DefaultFiberPool.monitor";
     private static final String PROPERTY_DETAILED_FIBER_INFO = "co.paralleluniverse.fibers.DefaultFiberPool.detailedFiberInfo";
+    private static final String PROPERTY_STACK_POOL_CAPACITY = "co.paralleluniverse.fibers.DefaultFiberPool.stackPoolCapacity";
+    private static final String PROPERTY_AFFINITY = "co.paralleluniverse.fibers.DefaultFiberPool.affinity";
+    private static final String PROPERTY_LIGHTWEIGHT_LOCALS = "co.paralleluniverse.fibers.DefaultFiberPool.lightweightLocals";
+    private static final String PROPERTY_HIBERNATION_THRESHOLD = "co.paralleluniverse.fibers.DefaultFiberPool.hibernationThreshold";
     private static final int MAX_CAP = 0x7fff;  // max #workers - 1
     private static final FiberScheduler instance;
 
@@ -48,6 +67,8 @@ public class DefaultFiberScheduler {
         // ForkJoinPool.ForkJoinWorkerThreadFactory fac = new NamingForkJoinWorkerFactory(name);
         MonitorType monitorType = MonitorType.JMX;
         boolean detailedFiberInfo = false;
+        int stackPoolCapacity = 0;
+        long hibernationThreshold = 0;
 
         // get overrides
         try {
@@ -60,6 +81,12 @@ public class DefaultFiberScheduler {
                 handler = ((UncaughtExceptionHandler) ClassLoader.getSystemClassLoader().loadClass(hp).newInstance());
             if (pp != null)
                 par = Integer.parseInt(pp);
+            String spc = System.getProperty(PROPERTY_STACK_POOL_CAPACITY);
+            if (spc != null)
+                stackPoolCapacity = Integer.parseInt(spc);
+            String ht = System.getProperty(PROPERTY_HIBERNATION_THRESHOLD);
+            if (ht != null)
+                hibernationThreshold = Long.parseLong(ht);
         } catch (Exception ignore) {
         }
 
@@ -76,8 +103,24 @@ public class DefaultFiberScheduler {
         if (dfis != null)
             detailedFiberInfo = Boolean.valueOf(dfis);
 
+        final boolean affinity = SystemProperties.isEmptyOrTrue(PROPERTY_AFFINITY);
+
         // build instance
-        instance = new FiberForkJoinScheduler(name, par, handler, monitorType, detailedFiberInfo);
+        final FiberForkJoinScheduler scheduler = affinity
+                ? new FiberAffinityScheduler(name, par, handler, monitorType, detailedFiberInfo)
+                : new FiberForkJoinScheduler(name, par, handler, monitorType, detailedFiberInfo);
+        if (stackPoolCapacity > 0)
+            scheduler.setStackPoolCapacity(stackPoolCapacity);
+        if (SystemProperties.isEmptyOrTrue(PROPERTY_LIGHTWEIGHT_LOCALS))
+            scheduler.setSwitchAllThreadLocals(false);
+        if (hibernationThreshold > 0) {
+            try {
+                scheduler.enableHibernation(hibernationThreshold, TimeUnit.MILLISECONDS, null);
+            } catch (IOException e) {
+                Logger.getLogger(DefaultFiberScheduler.class.getName()).log(Level.WARNING, "Cannot enable fiber hibernation", e);
+            }
+        }
+        instance = scheduler;
     }
 
     /**
@@ -84,8 +84,9 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
     public static final int DEFAULT_STACK_SIZE = 32;
     private static final Object SERIALIZER_BLOCKER = new Object();
     private static final boolean MAINTAIN_ACCESS_CONTROL_CONTEXT = (System.getSecurityManager() != null);
-//    private static final boolean PREEMPTION = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.enablePreemption");
-//    private static final int PREEMPTION_CREDITS = 3000;
+    private static final long TIME_SLICE = TimeUnit.MILLISECONDS.toNanos(Long.getLong("co.paralleluniverse.fibers.timeSlice", 10));
+    private static final long UNTIMED = Long.MIN_VALUE;
+    private static final Object NULL_VALUE = NullValue.INSTANCE; // a switched ThreadLocal explicitly set to null
     private static final long serialVersionUID = 2783452871536981L;
     protected static final FlightRecorder flightRecorder = Debug.isDebug() ? Debug.getGlobalFlightRecorder() : null;
 
@@ -138,10 +139,13 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
     private volatile boolean interrupted;
     private long run;
     private transient boolean noPreempt;
-    // private int preemptionCredits;
+    private transient long runStart; // when the current run was first checked for preemption, or UNTIMED
+    private transient boolean preempted; // whether the current run has ended in preemption
     private transient Thread runningThread;
     private final SuspendableCallable<V> target;
     private byte priority;
+    private String accountingTag;
+    transient FiberAccounting.Group accountingGroup; // cached by FiberAccounting
     
     private boolean noLocals = false;
     private transient ClassLoader contextClassLoader;
@@ -150,6 +154,15 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
     // class. Also, they're swapped for Object[] during serialisation, as ThreadLocalMap is not a serialisable type.
     private Object fiberLocals;
     private Object inheritableFiberLocals;
+    private Object[] threadLocalValues; // values of the scheduler's fiber ThreadLocals, when not switching the entire maps
+    private transient ThreadLocal<?>[] switchedThreadLocals; // the ThreadLocals switched when last installed; null if the entire maps were
+    private Object[] fiberLocalSlots; // FiberLocal values, by FiberLocal index
+    private transient volatile boolean hibernatable;
+    transient volatile int hibernation; // FiberHibernator state
+    transient volatile int hibernationQueued;
+    transient volatile long hibernationParkedRun; // the run in which the fiber has parked; negative while running
+    transient long hibernationParkTime;
+    transient FiberHibernator.Record hibernationRecord;
 
     private long sleepStart;
     private transient Future<Void> timeoutTask;
@@ -294,13 +307,32 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
         return this;
     }
 
+    /**
+     * Sets the tag by which the CPU time consumed by this fiber is accounted, when {@link FiberScheduler#setFiberAccounting(boolean) fiber accounting}
+     * is enabled. Fibers with the same tag are accounted as a single {@link FiberGroupInfo group}; fibers without a tag are grouped by
+     * their name, less any trailing digits and separators.
+     *
+     * @param tag the accounting tag
+     * @return {@code this}
+     */
+    public final Fiber<V> setAccountingTag(String tag) {
+        if (state != State.NEW)
+            throw new IllegalStateException("Fiber accounting tag cannot be changed once it has started");
+        this.accountingTag = tag;
+        return this;
+    }
+
+    public final String getAccountingTag() {
+        return accountingTag;
+    }
+
     /**
      * Sets the priority of this fiber.
      *
      *
      * The fiber priority's semantics - or even if it is ignored completely -
      * is entirely up to the fiber's scheduler.
-     * The default fiber scheduler completely ignores fiber priority.
+     * The default fiber scheduler completely ignores fiber priority; {@link FiberPriorityScheduler} honors it.
      *
      * @param newPriority priority to set this fiber to
      *
@@ -361,6 +393,28 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
         return noLocals;
     }
 
+    /**
+     * Sets whether this fiber may be hibernated when it stays parked for a while, if hibernation is
+     * {@link FiberScheduler#enableHibernation(long, TimeUnit, java.io.File) enabled} in its scheduler.
+     * <p>
+     * Hibernation moves the contents of the fiber's stack out of the heap and into a spill file, and brings them back when the fiber is resumed.
+     * The contents are serialized, so, when the fiber resumes, its local variables refer to <i>copies</i> of the objects they referred to
+     * when it hibernated, except for strands, threads and {@code ThreadLocal}s, which retain their identity.
+     * Only fibers whose suspended frames don't reference objects shared with other strands (other than strands and thread-locals)
+     * should be made hibernatable, like a fiber that waits in {@link #park() park} for another strand to {@link #unpark() unpark} it.
+     *
+     * @param value whether this fiber may be hibernated
+     * @return {@code this}
+     */
+    public Fiber<V> setHibernatable(boolean value) {
+        this.hibernatable = value;
+        return this;
+    }
+
+    public boolean isHibernatable() {
+        return hibernatable;
+    }
+
     //<editor-fold defaultstate="collapsed" desc="Constructors">
     /////////// Constructors ///////////////////////////////////
     /**
@@ -739,25 +793,51 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
 
     private void parkAndUnpark1(Fiber other, Object blocker, long timeout, TimeUnit unit) throws SuspendExecution {
         record(1, "Fiber", "parkAndUnpark", "Parking %s and unparking %s blocker: %s", this, other, blocker);
-        if (!other.exec(blocker, timeout, unit))
+        final boolean handedOff = handOff(other, blocker);
+        if (!handedOff && !other.exec(blocker, timeout, unit))
             other.unpark(blocker);
-        park1(blocker, null, -1, null);
+        if (!park1(blocker, null, -1, null) && handedOff)
+            scheduler.releaseHandOff(); // our permit was available, so we keep running and other mustn't wait for us
     }
 
     private void yieldAndUnpark1(Fiber other, Object blocker, long timeout, TimeUnit unit) throws SuspendExecution {
         record(1, "Fiber", "yieldAndUnpark", "Yielding %s and unparking %s blocker: %s", this, other, blocker);
-        if (!other.exec(blocker, timeout, unit)) {
+        if (handOff(other, blocker))
+            yield1();
+        else if (!other.exec(blocker, timeout, unit)) {
             other.unpark(blocker);
             yield1();
         }
     }
 
+    /**
+     * Unparks {@code other} and, if the scheduler allows, has the current thread run it next, once this fiber parks or yields,
+     * instead of submitting it to the scheduler (where it may be stolen by another thread or queued behind other fibers).
+     * If this fiber doesn't actually park (because its permit is available), {@code other} is submitted as usual
+     * (see {@link FiberScheduler#releaseHandOff() releaseHandOff}).
+     *
+     * @return {@code false} if a direct hand-off isn't possible, in which case {@code other} has not been unparked.
+     */
+    private boolean handOff(Fiber other, Object unblocker) {
+        if (other.scheduler != scheduler || !scheduler.canHandOff(this))
+            return false;
+        final FiberTask<?> t = other.unparkNoSubmit(unblocker);
+        if (t != null)
+            scheduler.handOff(t);
+        return true;
+    }
+
     void preempt() throws SuspendExecution {
         if (isRecordingLevel(2))
             record(2, "Fiber", "preempt", "Preempting %s at %s", this, Arrays.toString(getStackTrace()));
+        this.preempted = true;
         task.yield();
     }
 
+    boolean isPreempted() {
+        return preempted;
+    }
+
     boolean exec() {
         if (result != RESET && future().isDone()) // RESET only in overhead benchamrk
             return true;
@@ -766,7 +846,12 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
 
         cancelTimeoutTask();
 
+        final FiberHibernator hibernator = scheduler != null ? scheduler.getHibernator() : null;
+        if (hibernator != null && (hibernatable || hibernationParkedRun != 0))
+            hibernator.beforeExec(this); // before the stack is touched
+
         final FibersMonitor monitor = getMonitor();
+        final long execStart = scheduler != null && scheduler.isFiberAccounting() ? System.nanoTime() : 0L;
         if (Debug.isDebug())
             record(1, "Fiber", "exec", "running %s %s %s", state, this, run);
         // if (monitor != null && state == State.STARTED)
@@ -778,7 +863,8 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
         // as of now we're no longer running in the enclosing thread, but in the fiber itself.
 
         run++;
-        // preemptionCredits = PREEMPTION_CREDITS;
+        runStart = UNTIMED; // the clock is only read by preemptible methods
+        preempted = false;
         runningThread = currentThread;
         state = State.RUNNING; // TODO: ??? orderedSetState(State.RUNNING);
 
@@ -791,6 +877,7 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
                 state = State.TERMINATED;
                 record(1, "Fiber", "exec", "finished %s %s res: %s", state, this, this.result);
                 monitorFiberTerminated(monitor);
+                releaseStack();
 
                 onCompletion();
                 setResult(res);
@@ -802,11 +889,13 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
         } catch (SuspendExecution ex) {
             assert ex == SuspendExecution.PARK || ex == SuspendExecution.YIELD;
             //stack.dump();
+            shrinkStack(monitor);
             stack.resumeStack();
             runningThread = null;
             orderedSetState(timeoutTask != null ? State.TIMED_WAITING : State.WAITING);
 
             final ParkAction ppa = postPark;
+            final long parkedRun = run; // once parked, the fiber may run again (and increment run) on another thread
             clearRunSettings();
 
             restoreThreadData(currentThread, old);
@@ -828,6 +917,9 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
                 }
             }
 
+            if (hibernator != null && hibernatable && ex == SuspendExecution.PARK && ppa == null)
+                hibernator.afterPark(this, parkedRun);
+
 //            if (monitor != null)
 //                monitor.fiberSuspended();
             return false;
@@ -856,14 +948,18 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
                 state = State.TERMINATED;
                 task.setState(0); // Some error conditions -- when the fiber isn't instrumented well -- may leave it in an inconsistent state (PARKING)
                 monitorFiberTerminated(monitor);
+                releaseStack();
                 setException(t);
             }
         } finally {
             if (!restored)
                 restoreThreadData(currentThread, old);
 
+            if (execStart != 0L && monitor != null)
+                monitor.fiberRan(this, System.nanoTime() - execStart);
+
             if (scheduler instanceof FiberForkJoinScheduler)
-                ((FiberForkJoinScheduler) scheduler).tryOnIdle();
+                ((FiberForkJoinScheduler) scheduler).afterExec();
         }
     }
 
@@ -955,6 +1051,27 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
             monitor.fiberTerminated(this);
     }
 
+    private void shrinkStack(FibersMonitor monitor) {
+        final int parks;
+        if (scheduler == null || (parks = scheduler.getStackShrinkParks()) == 0)
+            return;
+        final long reclaimed = stack.shrinkIfUnderused(parks, scheduler.getStackShrinkLowWatermark(), scheduler.getStackShrinkHighWatermark());
+        if (reclaimed > 0 && monitor != null)
+            monitor.stackShrunk(reclaimed);
+    }
+
+    StackPool getStackPool() {
+        return scheduler != null ? scheduler.getStackPool() : null;
+    }
+
+    private void releaseStack() {
+        if (!stack.isAllocated()) // the fiber has never called a suspendable method
+            return;
+        final StackPool pool = getStackPool();
+        if (pool != null)
+            stack.release(pool);
+    }
+
     private void cancelTimeoutTask() {
         if (timeoutTask != null) {
             timeoutTask.cancel(false);
@@ -1006,6 +1123,14 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
         if (noLocals || scheduler == null) // in tests
             return;
 
+        if (install)
+            this.switchedThreadLocals = scheduler.getSwitchedThreadLocals(); // so we restore whatever we've installed
+        final ThreadLocal<?>[] tls = switchedThreadLocals;
+        if (tls != null) {
+            switchThreadLocalValues(currentThread, tls);
+            return;
+        }
+
         Object tmpThreadLocals = ThreadAccess.getThreadLocals(currentThread);
         Object tmpInheritableThreadLocals = ThreadAccess.getInheritableThreadLocals(currentThread);
 
@@ -1021,6 +1146,54 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
         this.inheritableFiberLocals = tmpInheritableThreadLocals;
     }
 
+    /**
+     * Swaps the values of the given thread locals in the current thread with those kept by this fiber.
+     * A {@code null} element means the value is not set, and {@link #NULL_VALUE} that it is set to {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    private void switchThreadLocalValues(Thread currentThread, ThreadLocal<?>[] tls) {
+        if (tls.length == 0)
+            return;
+        Object[] values = threadLocalValues;
+        if (values == null || values.length < tls.length)
+            this.threadLocalValues = values = (values == null ? new Object[tls.length] : Arrays.copyOf(values, tls.length));
+        for (int i = 0; i < tls.length; i++) {
+            final ThreadLocal<Object> tl = (ThreadLocal<Object>) tls[i];
+            final Object other = values[i];
+            // not tl.get(), which would run initialValue in the wrong strand; NULL_VALUE, returned if not set, and null trade places
+            final Object value = ThreadAccess.getThreadLocalValue(currentThread, tl, NULL_VALUE);
+            values[i] = value == null ? NULL_VALUE : (value == NULL_VALUE ? null : value);
+            if (other == null)
+                tl.remove();
+            else
+                tl.set(other != NULL_VALUE ? other : null);
+        }
+    }
+
+    private enum NullValue {
+        INSTANCE // an enum, so that it keeps its identity when the fiber is serialized
+    }
+
+    /**
+     * Returns this fiber's value of the {@link FiberLocal} with the given index, or {@code null} if not set.
+     */
+    Object getFiberLocal(int index) {
+        final Object[] slots = fiberLocalSlots;
+        return slots != null && index < slots.length ? slots[index] : null;
+    }
+
+    void setFiberLocal(int index, Object value) {
+        Object[] slots = fiberLocalSlots;
+        if (slots == null || index >= slots.length) {
+            if (value == null)
+                return;
+            this.fiberLocalSlots = slots = (slots == null
+                    ? new Object[Math.max(index + 1, 4)]
+                    : Arrays.copyOf(slots, Math.max(index + 1, slots.length << 1)));
+        }
+        slots[index] = value;
+    }
+
     private void installFiberContextClassLoader(Thread currentThread) {
         final ClassLoader origContextClassLoader = ThreadAccess.getContextClassLoader(currentThread);
         ThreadAccess.setContextClassLoader(currentThread, contextClassLoader);
@@ -1152,26 +1325,24 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
     final void preemptionPoint(int type) throws SuspendExecution {
         if (noPreempt)
             return;
+        if (runStart == UNTIMED) {
+            runStart = System.nanoTime();
+            return;
+        }
         if (shouldPreempt(type))
             preempt();
     }
 
+    /**
+     * Called periodically at the preemption points of methods instrumented as preemptible (see {@code QuasarInstrumentor.addPreemptible}).
+     * Not called at the first preemption point of a run, which starts the run's clock.
+     * The default implementation returns {@code true} once the fiber's current run has exceeded the time slice, set by the
+     * {@code co.paralleluniverse.fibers.timeSlice} system property (in milliseconds; 10 by default).
+     *
+     * @param type 0 - back-branch; 1 - call
+     */
     protected boolean shouldPreempt(int type) {
-        // 0 - backbranch
-        // 1 - call
-//        if (PREEMPTION) {
-//            assert type == 1;
-//            preemptionCredits -= 3;
-//            if (preemptionCredits < 0) {
-//                final long now = System.nanoTime();
-//                if (runStart == 0)
-//                    runStart = now;
-//                else if (TimeUnit.NANOSECONDS.toMicros(now - runStart) > TIME_SLICE_MICRO)
-//                    return true;
-//                preemptionCredits = 1000;
-//            }
-//        }
-        return false;
+        return System.nanoTime() - runStart > TIME_SLICE;
     }
 
     protected void onCompletion() {
@@ -1357,6 +1528,16 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable, Futur
         return task.unpark(unblocker);
     }
 
+    /**
+     * Unparks this fiber without submitting it to its scheduler; used by {@link FiberScheduler#unparkAll(java.util.Collection, Object) unparkAll}.
+     *
+     * @return the fiber's task if it must now be submitted; {@code null} otherwise.
+     */
+    final FiberTask<V> unparkNoSubmit(Object unblocker) {
+        record(1, "Fiber", "unparkNoSubmit", "Unpark %s by %s", this, unblocker);
+        return task.unparkNoSubmit(unblocker) ? task : null;
+    }
+
     @Override
     @Suspendable
     public final void join() throws ExecutionException, InterruptedException {
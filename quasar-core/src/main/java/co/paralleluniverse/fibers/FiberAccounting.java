@@ -0,0 +1,104 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.monitoring.Counter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Accumulates the time fibers spend running, by {@link FiberGroupInfo group}. Used by the monitors that report the top CPU consumers.
+ * <p>
+ * A fiber's group is looked up once and cached in the fiber, so recording a run costs two counter updates.
+ * The number of groups is bounded; once the bound is reached, fibers of new groups are accounted to a single {@link #OTHER} group.
+ *
+ * @author pron
+ */
+final class FiberAccounting {
+    static final String OTHER = "<other>";
+    private static final int MAX_GROUPS = 1024;
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+
+    void record(Fiber<?> fiber, long nanos) {
+        Group group = fiber.accountingGroup;
+        if (group == null || group.accounting != this)
+            fiber.accountingGroup = group = group(groupName(fiber));
+        group.cpuTime.add(nanos);
+        group.runs.inc();
+    }
+
+    /**
+     * Returns the {@code n} groups that have consumed the most CPU time, in descending order.
+     */
+    FiberGroupInfo[] top(int n) {
+        final List<FiberGroupInfo> infos = new ArrayList<>(groups.size());
+        for (Group g : groups.values())
+            infos.add(new FiberGroupInfo(g.name, g.cpuTime.get(), g.runs.get()));
+        Collections.sort(infos, new Comparator<FiberGroupInfo>() {
+            @Override
+            public int compare(FiberGroupInfo o1, FiberGroupInfo o2) {
+                return Long.compare(o2.getCpuTime(), o1.getCpuTime());
+            }
+        });
+        return infos.subList(0, Math.min(Math.max(n, 0), infos.size())).toArray(new FiberGroupInfo[0]);
+    }
+
+    private Group group(String name) {
+        Group group = groups.get(name);
+        if (group == null) {
+            if (groups.size() >= MAX_GROUPS)
+                name = OTHER;
+            final Group g = new Group(this, name);
+            group = groups.putIfAbsent(name, g);
+            if (group == null)
+                group = g;
+        }
+        return group;
+    }
+
+    static String groupName(Fiber<?> fiber) {
+        final String tag = fiber.getAccountingTag();
+        return tag != null ? tag : namePrefix(fiber.getName());
+    }
+
+    /**
+     * The name, less any trailing digits and separators.
+     */
+    static String namePrefix(String name) {
+        int end = name.length();
+        while (end > 0 && isSuffixChar(name.charAt(end - 1)))
+            end--;
+        return end > 0 ? name.substring(0, end) : name;
+    }
+
+    private static boolean isSuffixChar(char c) {
+        return Character.isDigit(c) || c == '-' || c == '_' || c == '#' || c == '.' || c == ' ';
+    }
+
+    static final class Group {
+        final FiberAccounting accounting;
+        final String name;
+        final Counter cpuTime = new Counter();
+        final Counter runs = new Counter();
+
+        Group(FiberAccounting accounting, String name) {
+            this.accounting = accounting;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.util.CheckedCallable;
+import co.paralleluniverse.strands.Strand;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An elastic thread pool, owned by a {@link FiberScheduler}, that runs thread-blocking operations on behalf of the scheduler's fibers,
+ * so that they don't block the scheduler's own threads.
+ * <p>
+ * A fiber calling {@link #run(CheckedCallable) run} parks until the operation, run by one of the pool's threads, completes.
+ * The pool starts a new thread whenever there are more waiting operations than idle threads (up to {@link #setMaxThreads(int) a maximum}),
+ * and a thread that has been idle for a minute terminates, so the pool grows with the number of concurrently blocked fibers, and shrinks
+ * back to nothing when they're done.
+ * <p>
+ * This is what {@link co.paralleluniverse.strands.Strand#blocking(CheckedCallable) Strand.blocking} uses, and, when the instrumentation
+ * offloads blocking calls, what calls to {@code Thread.join} in suspendable methods are offloaded to.
+ * The pool's queue length and the time operations wait in the queue are reported by the scheduler's {@link FibersMXBean MXBean}.
+ *
+ * @author pron
+ */
+public final class FiberBlockingPool {
+    private static final int DEFAULT_MAX_THREADS = Integer.getInteger("co.paralleluniverse.fibers.blockingPool.maxThreads", 256);
+    private static final long KEEP_ALIVE = TimeUnit.SECONDS.toNanos(60);
+    private final ThreadFactory threadFactory;
+    private final FibersMonitor monitor;
+    private final BlockingQueue<Task<?, ?>> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger threads = new AtomicInteger();
+    private final AtomicInteger idle = new AtomicInteger();
+    private volatile int maxThreads = DEFAULT_MAX_THREADS;
+
+    FiberBlockingPool(ThreadFactory threadFactory, FibersMonitor monitor) {
+        this.threadFactory = threadFactory;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Sets the maximum number of threads in the pool (256 by default, or the value of the
+     * {@code co.paralleluniverse.fibers.blockingPool.maxThreads} system property).
+     * Once all are busy, further operations wait in the pool's queue.
+     */
+    public void setMaxThreads(int maxThreads) {
+        if (maxThreads <= 0)
+            throw new IllegalArgumentException("maxThreads: " + maxThreads);
+        this.maxThreads = maxThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * The number of threads currently in the pool.
+     */
+    public int getThreadCount() {
+        return threads.get();
+    }
+
+    /**
+     * The number of operations waiting for a thread.
+     */
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * Runs a thread-blocking operation on one of the pool's threads, and blocks the current fiber until it completes.
+     * If called outside a fiber, the operation is run by the calling thread.
+     * <p>
+     * If the fiber is interrupted while waiting, the thread running the operation is interrupted, and this method throws an
+     * {@code InterruptedException} without waiting for the operation to complete.
+     *
+     * @param callable the operation
+     * @return the operation's result
+     * @throws E if the operation has thrown an exception
+     */
+    @SuppressWarnings("unchecked")
+    public <V, E extends Exception> V run(CheckedCallable<V, E> callable) throws E, SuspendExecution, InterruptedException {
+        final Fiber<?> fiber = Fiber.currentFiber();
+        if (fiber == null)
+            return callable.call();
+
+        final Task<V, E> task = new Task<>(fiber, callable);
+        execute(task); // an unpark before we park just makes the park return at once
+        while (task.state != Task.DONE) {
+            Fiber.park(task);
+            if (Fiber.interrupted()) {
+                task.cancel();
+                throw new InterruptedException();
+            }
+        }
+        if (task.exception != null) {
+            if (task.exception instanceof RuntimeException)
+                throw (RuntimeException) task.exception;
+            if (task.exception instanceof Error)
+                throw (Error) task.exception;
+            throw (E) task.exception;
+        }
+        return task.result;
+    }
+
+    /**
+     * Replaces calls to {@link Thread#join() Thread.join} in suspendable methods when the instrumentation offloads blocking calls.
+     */
+    public static void join(Thread thread) throws SuspendExecution, InterruptedException {
+        join(thread, 0, 0);
+    }
+
+    /**
+     * Replaces calls to {@link Thread#join(long) Thread.join} in suspendable methods when the instrumentation offloads blocking calls.
+     */
+    public static void join(Thread thread, long millis) throws SuspendExecution, InterruptedException {
+        join(thread, millis, 0);
+    }
+
+    /**
+     * Replaces calls to {@link Thread#join(long, int) Thread.join} in suspendable methods when the instrumentation offloads blocking calls.
+     */
+    public static void join(final Thread thread, final long millis, final int nanos) throws SuspendExecution, InterruptedException {
+        Strand.blocking(new CheckedCallable<Void, InterruptedException>() {
+            @Override
+            public Void call() throws InterruptedException {
+                thread.join(millis, nanos);
+                return null;
+            }
+        });
+    }
+
+    private void execute(Task<?, ?> task) {
+        task.submitted = System.nanoTime();
+        queue.offer(task);
+        if (queue.size() > idle.get())
+            addThread();
+    }
+
+    private void addThread() {
+        if (!reserveThread())
+            return;
+        final Thread t = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        });
+        t.start();
+    }
+
+    private void work() {
+        final Thread current = Thread.currentThread();
+        for (;;) {
+            Task<?, ?> task;
+            idle.incrementAndGet();
+            try {
+                task = queue.poll(KEEP_ALIVE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                continue; // only tasks are interrupted, but play it safe
+            } finally {
+                idle.decrementAndGet();
+            }
+
+            if (task == null) {
+                threads.decrementAndGet();
+                // a task may have been queued after we've timed out but before the count went down
+                if (queue.isEmpty() || !reserveThread())
+                    return;
+                continue;
+            }
+
+            monitor.blockingTaskLatency(System.nanoTime() - task.submitted);
+            task.run(current);
+            Thread.interrupted(); // clear an interrupt that may have been meant for the task
+        }
+    }
+
+    private boolean reserveThread() {
+        for (;;) {
+            final int n = threads.get();
+            if (n >= maxThreads)
+                return false;
+            if (threads.compareAndSet(n, n + 1))
+                return true;
+        }
+    }
+
+    private static final class Task<V, E extends Exception> {
+        static final int NEW = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+        static final int CANCELLED = 3;
+        final Fiber<?> fiber;
+        final CheckedCallable<V, E> callable;
+        long submitted;
+        volatile int state;
+        Thread runner;
+        V result;
+        Throwable exception;
+
+        Task(Fiber<?> fiber, CheckedCallable<V, E> callable) {
+            this.fiber = fiber;
+            this.callable = callable;
+        }
+
+        void run(Thread current) {
+            synchronized (this) {
+                if (state != NEW)
+                    return; // cancelled
+                runner = current;
+                state = RUNNING;
+            }
+            try {
+                result = callable.call();
+            } catch (Throwable t) {
+                exception = t;
+            }
+            synchronized (this) {
+                runner = null;
+                if (state != RUNNING)
+                    return;
+                state = DONE;
+            }
+            fiber.unpark(this);
+        }
+
+        /**
+         * Called by the fiber when it stops waiting for the task.
+         */
+        synchronized void cancel() {
+            if (state == RUNNING)
+                runner.interrupt();
+            state = CANCELLED;
+        }
+
+        @Override
+        public String toString() {
+            return "BlockingTask@" + Integer.toHexString(System.identityHashCode(this)) + '(' + callable + ')';
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The CPU time consumed by a group of fibers, returned by {@link FibersMXBean#getTopFiberGroups(int)}.
+ * Fibers are grouped by their {@link Fiber#setAccountingTag(String) accounting tag}, or, if they don't have one, by their name,
+ * less any trailing digits and separators (so that {@code worker-1} and {@code worker-2} are grouped together as {@code worker}).
+ *
+ * @author pron
+ */
+public class FiberGroupInfo {
+    private final String name;
+    private final long cpuTime;
+    private final long runs;
+
+    @ConstructorProperties({"name", "cpuTime", "runs"})
+    public FiberGroupInfo(String name, long cpuTime, long runs) {
+        this.name = name;
+        this.cpuTime = cpuTime;
+        this.runs = runs;
+    }
+
+    /**
+     * The group's accounting tag or name prefix.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The total time, in nanoseconds, the group's fibers have been running on the scheduler's threads.
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * The number of times the group's fibers have been run (resumed) by the scheduler.
+     */
+    public long getRuns() {
+        return runs;
+    }
+
+    /**
+     * The average time, in nanoseconds, the group's fibers have run each time they were resumed before parking or terminating.
+     */
+    public long getAverageSlice() {
+        return runs != 0 ? cpuTime / runs : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "FiberGroupInfo{" + "name: " + name + " cpuTime: " + cpuTime + " runs: " + runs + '}';
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.io.serialization.kryo.KryoUtil;
+import co.paralleluniverse.io.serialization.kryo.ReplaceableObjectKryo;
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.Synchronization;
+import co.paralleluniverse.strands.channels.Port;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.MapReferenceResolver;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves the stacks of {@link Fiber#setHibernatable(boolean) hibernatable} fibers that have been parked for a while out of the heap,
+ * into a memory-mapped {@link SpillFile spill file}, and brings them back when the fibers are resumed.
+ * <p>
+ * A fiber's stack holds its suspended frames' local variables, and so, through them, most of the heap a parked fiber retains.
+ * When a hibernatable fiber parks, it is queued for a background thread, which, once the fiber has stayed parked longer than the
+ * threshold, serializes the stack's contents with Kryo, writes them to the spill file, and drops the stack's arrays.
+ * When the fiber next runs, {@link #beforeExec(Fiber) beforeExec} reads its stack back before resuming it.
+ * <p>
+ * Serialization copies the objects referenced by the stack, so a rehydrated fiber's locals refer to copies of those objects.
+ * That is only safe for objects referenced by the stack alone, so objects that may be referenced from elsewhere are kept on the heap,
+ * and referenced by the serialized stack, so they retain their identity. These are strands, threads, thread-locals, ports (like channels)
+ * and synchronization objects, and all objects reachable from the fiber's target (the {@code this} of its outermost frame) or from
+ * the object it is blocked on. A fiber from which too many objects are reachable that way isn't hibernated. Objects that the
+ * stack shares only with, say, static fields, are still copied.
+ * <p>
+ * A fiber's hibernation state changes from {@code AWAKE} to {@code HIBERNATING} only by the hibernator thread, which then makes sure the fiber
+ * is still parked, and from {@code HIBERNATED} to {@code AWAKE} only by the thread about to run the fiber. A fiber that is resumed while
+ * its stack is being written waits for the write to complete.
+ * <p>
+ * Once {@link #shutdown() shut down}, the hibernator stops hibernating fibers, and closes the spill file as soon as the fibers
+ * already hibernated have been rehydrated.
+ *
+ * @author pron
+ */
+final class FiberHibernator {
+    static final int AWAKE = 0;
+    static final int HIBERNATING = 1;
+    static final int HIBERNATED = 2;
+    private static final int REGION_SIZE = 16 * 1024 * 1024;
+    private static final long MIN_POLL_NANOS = 1000000; // how long the thread sleeps when idle, if the threshold is shorter
+    private static final AtomicIntegerFieldUpdater<Fiber> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(Fiber.class, "hibernation");
+    private static final AtomicIntegerFieldUpdater<Fiber> queuedUpdater = AtomicIntegerFieldUpdater.newUpdater(Fiber.class, "hibernationQueued");
+    private static final AtomicLongFieldUpdater<Fiber> parkedRunUpdater = AtomicLongFieldUpdater.newUpdater(Fiber.class, "hibernationParkedRun");
+    private static final int MAX_SHARED = 16 * 1024; // the most objects reachable from a fiber's target and blocker for it to be hibernated
+    private static final String PINS = "pins";
+    private static final ClassValue<Field[]> referenceFields = new ClassValue<Field[]>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            final List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields.toArray(new Field[fields.size()]);
+        }
+    };
+    private final long threshold;
+    private final SpillFile spill;
+    private final Queue<Fiber<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong hibernated = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean shutdown;
+    private volatile boolean stopped; // the thread has exited
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ThreadLocal<Codec> codec = new ThreadLocal<Codec>() {
+        @Override
+        protected Codec initialValue() {
+            return new Codec();
+        }
+    };
+
+    @SuppressWarnings("CallToThreadStartDuringObjectConstruction")
+    FiberHibernator(long thresholdNanos, File spillFile, ThreadFactory threadFactory) throws IOException {
+        this.threshold = thresholdNanos;
+        if (spillFile == null) {
+            spillFile = File.createTempFile("quasar-fibers-", ".spill");
+            spillFile.deleteOnExit();
+        }
+        this.spill = new SpillFile(spillFile, REGION_SIZE);
+        this.thread = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        });
+        thread.start();
+    }
+
+    /**
+     * Stops hibernating fibers. The spill file is closed once all hibernated fibers have been rehydrated.
+     */
+    void shutdown() {
+        this.shutdown = true;
+        LockSupport.unpark(thread); // not interrupt, which would close the spill file's channel if it's mapping a region
+    }
+
+    File getSpillFile() {
+        return spill.getFile();
+    }
+
+    /**
+     * The number of fibers whose stacks are currently in the spill file.
+     */
+    long getHibernatedCount() {
+        return hibernated.get();
+    }
+
+    long getSpillFileSize() {
+        return spill.size();
+    }
+
+    long getSpillFileUsedBytes() {
+        return spill.usedBytes();
+    }
+
+    /**
+     * Called before a hibernatable fiber runs, and before its stack is accessed. Rehydrates the fiber if it is hibernated.
+     */
+    void beforeExec(Fiber<?> f) {
+        f.hibernationParkedRun = -(f.getRun() + 1); // marks the fiber as running; read by the hibernator after it sets HIBERNATING
+        for (;;) {
+            final int s = f.hibernation;
+            if (s == AWAKE)
+                return;
+            if (s == HIBERNATING)
+                Thread.yield(); // the hibernator is finishing with the fiber; it won't be long
+            else {
+                rehydrate(f);
+                f.hibernation = AWAKE;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called once a hibernatable fiber has completely parked.
+     *
+     * @param run the run in which the fiber has parked. Must be read before the fiber has completed parking, as once it has,
+     *            the fiber may already be running again on another thread.
+     */
+    void afterPark(Fiber<?> f, long run) {
+        if (shutdown)
+            return;
+        f.hibernationParkTime = System.nanoTime();
+        // fails if the fiber has been resumed in the meantime
+        if (parkedRunUpdater.compareAndSet(f, -run, run) && queuedUpdater.compareAndSet(f, 0, 1))
+            queue.add(f);
+    }
+
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void work() {
+        try {
+            while (!shutdown) {
+                final Fiber<?> f = queue.poll();
+                if (f == null) {
+                    LockSupport.parkNanos(this, Math.max(threshold, MIN_POLL_NANOS));
+                    continue;
+                }
+                f.hibernationQueued = 0;
+                final long run = f.hibernationParkedRun; // read after clearing queued, so if the fiber parks again, either we see it or it re-queues itself
+                if (run <= 0 || !f.isHibernatable() || f.hibernation != AWAKE)
+                    continue;
+                final long wait = f.hibernationParkTime + threshold - System.nanoTime();
+                if (wait > 0) {
+                    if (queuedUpdater.compareAndSet(f, 0, 1))
+                        queue.add(f);
+                    LockSupport.parkNanos(this, wait);
+                    continue;
+                }
+                hibernate(f, run);
+            }
+        } catch (Throwable e) {
+            System.err.println("FiberHibernator thread terminated!");
+            e.printStackTrace();
+        } finally {
+            queue.clear();
+            stopped = true;
+            closeIfUnused();
+        }
+    }
+
+    /**
+     * Closes the spill file if the hibernator has stopped and no fiber is hibernated. Called by the hibernator thread when it exits,
+     * and by a thread rehydrating a fiber, so whichever comes last sees both conditions.
+     */
+    private void closeIfUnused() {
+        if (stopped && hibernated.get() == 0 && closed.compareAndSet(false, true)) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void hibernate(Fiber<?> f, long run) {
+        if (!stateUpdater.compareAndSet(f, AWAKE, HIBERNATING))
+            return;
+        boolean done = false;
+        try {
+            if (f.hibernationParkedRun != run) // the fiber has been resumed
+                return;
+            done = store(f);
+        } catch (Throwable t) {
+            f.setHibernatable(false); // don't try again
+            f.record(1, "FiberHibernator", "hibernate", "Failed hibernating %s: %s", f, t);
+        } finally {
+            f.hibernation = done ? HIBERNATED : AWAKE;
+        }
+    }
+
+    private boolean store(Fiber<?> f) throws IOException, IllegalAccessException {
+        final Stack stack = f.stack;
+        final long[] longs = stack.getDataLong();
+        final Object[] objects = stack.getDataObject();
+        if (longs == null)
+            return false;
+        final int usedLongs = usedLength(longs);
+        final int usedObjects = usedLength(objects);
+
+        final Codec c = codec.get();
+        final Object[] pins;
+        final Object[] shared;
+        final int[] sharedIds;
+        final int references;
+        final Output out = c.output;
+        try {
+            c.kryo.reset();
+            collectShared(c, f.getTarget(), f.getBlocker());
+            references = c.shared.size();
+            for (Object o : c.shared)
+                c.references.addWrittenObject(o); // reserves the first reference ids, so the stack refers to these objects by id
+            c.references.reserved = references;
+            c.kryo.getContext().put(PINS, c.pins);
+            out.clear();
+            out.writeVarInt(longs.length, true);
+            out.writeVarInt(objects.length, true);
+            out.writeVarInt(usedLongs, true);
+            for (int i = 0; i < usedLongs; i++)
+                out.writeLong(longs[i]);
+            c.kryo.writeObject(out, Arrays.copyOf(objects, usedObjects));
+            out.flush();
+
+            pins = c.pins.isEmpty() ? null : c.pins.toArray();
+            // only the shared objects the stack actually refers to are remembered
+            sharedIds = new int[c.references.used.cardinality()];
+            shared = new Object[sharedIds.length];
+            for (int i = 0, id = c.references.used.nextSetBit(0); id >= 0; i++, id = c.references.used.nextSetBit(id + 1)) {
+                sharedIds[i] = id;
+                shared[i] = c.shared.get(id);
+            }
+        } finally {
+            c.clear();
+        }
+
+        final int length = out.position();
+        final long position = spill.write(out.getBuffer(), length);
+        if (position < 0)
+            return false;
+
+        f.hibernationRecord = new Record(position, length, pins, references, sharedIds, shared);
+        stack.setData(null, null);
+        hibernated.incrementAndGet();
+        return true;
+    }
+
+    private void rehydrate(Fiber<?> f) {
+        final Record r = f.hibernationRecord;
+        f.hibernationRecord = null;
+        final byte[] buf = spill.read(r.position, r.length);
+        spill.free(r.position, r.length);
+        if (hibernated.decrementAndGet() == 0)
+            closeIfUnused();
+
+        final Codec c = codec.get();
+        final Input in = new Input(buf);
+        final long[] longs = new long[in.readVarInt(true)];
+        final Object[] objects = new Object[in.readVarInt(true)];
+        final int usedLongs = in.readVarInt(true);
+        for (int i = 0; i < usedLongs; i++)
+            longs[i] = in.readLong();
+        try {
+            c.kryo.reset();
+            for (int i = 0; i < r.references; i++)
+                c.references.nextReadId(Object.class);
+            for (int i = 0; i < r.sharedIds.length; i++) {
+                c.references.setReadObject(r.sharedIds[i], r.shared[i]);
+                c.kept.put(r.shared[i], Boolean.TRUE);
+            }
+            c.kryo.getContext().put(PINS, r.pins);
+            final Object[] used = c.kryo.readObject(in, Object[].class);
+            System.arraycopy(used, 0, objects, 0, used.length);
+        } finally {
+            c.clear();
+        }
+
+        f.stack.setData(longs, objects);
+    }
+
+    /**
+     * Collects the objects reachable from the given roots, which may be referenced by other strands, and so must keep their identity.
+     * Objects that are kept on the heap by type are collected, but not traversed.
+     */
+    private static void collectShared(Codec c, Object... roots) throws IllegalAccessException {
+        final ArrayDeque<Object> pending = c.pending;
+        for (Object root : roots) {
+            if (root != null)
+                pending.add(root);
+        }
+        Object o;
+        while ((o = pending.poll()) != null) {
+            if (c.kept.put(o, Boolean.TRUE) != null)
+                continue;
+            if (c.kept.size() > MAX_SHARED)
+                throw new IllegalStateException("More than " + MAX_SHARED + " objects are reachable from the fiber's target and blocker");
+            c.shared.add(o);
+            final Class<?> type = o.getClass();
+            if (isPinned(type) || o instanceof Class || o instanceof ClassLoader)
+                continue;
+            if (type.isArray()) {
+                if (!type.getComponentType().isPrimitive()) {
+                    for (Object e : (Object[]) o) {
+                        if (e != null)
+                            pending.add(e);
+                    }
+                }
+            } else {
+                for (Field field : referenceFields.get(type)) {
+                    final Object v = field.get(o);
+                    if (v != null)
+                        pending.add(v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether objects of the given type are always kept on the heap rather than serialized.
+     */
+    private static boolean isPinned(Class<?> type) {
+        return Strand.class.isAssignableFrom(type) || Thread.class.isAssignableFrom(type) || ThreadLocal.class.isAssignableFrom(type)
+                || Port.class.isAssignableFrom(type) || Synchronization.class.isAssignableFrom(type);
+    }
+
+    private static int usedLength(long[] a) {
+        int n = a.length;
+        while (n > 0 && a[n - 1] == 0)
+            n--;
+        return n;
+    }
+
+    private static int usedLength(Object[] a) {
+        int n = a.length;
+        while (n > 0 && a[n - 1] == null)
+            n--;
+        return n;
+    }
+
+    /**
+     * Where a hibernated fiber's stack is.
+     */
+    static final class Record {
+        final long position;
+        final int length;
+        final Object[] pins; // objects referenced by the stack that are kept on the heap by type
+        final int references; // the number of reference ids reserved for shared objects
+        final int[] sharedIds; // the reference ids of the shared objects referenced by the stack
+        final Object[] shared; // the shared objects referenced by the stack, which are kept on the heap
+
+        Record(long position, int length, Object[] pins, int references, int[] sharedIds, Object[] shared) {
+            this.position = position;
+            this.length = length;
+            this.pins = pins;
+            this.references = references;
+            this.sharedIds = sharedIds;
+            this.shared = shared;
+        }
+    }
+
+    private static final class Codec {
+        final Map<Object, Boolean> kept = new IdentityHashMap<>(); // the shared objects
+        final List<Object> shared = new ArrayList<>(); // the shared objects, by reference id
+        final ArrayDeque<Object> pending = new ArrayDeque<>();
+        final SharedReferenceResolver references = new SharedReferenceResolver();
+        final Kryo kryo = KryoUtil.configure(new StackKryo(kept));
+        final Output output = new Output(4096, -1);
+        final List<Object> pins = new ArrayList<>();
+
+        Codec() {
+            kryo.setReferenceResolver(references);
+            final PinSerializer pin = new PinSerializer();
+            kryo.addDefaultSerializer(Strand.class, pin);
+            kryo.addDefaultSerializer(Thread.class, pin);
+            kryo.addDefaultSerializer(ThreadLocal.class, pin);
+            kryo.addDefaultSerializer(Port.class, pin);
+            kryo.addDefaultSerializer(Synchronization.class, pin);
+        }
+
+        /**
+         * Drops the references to the fiber's objects, which would otherwise be retained by the thread.
+         */
+        void clear() {
+            kryo.reset();
+            kryo.getContext().remove(PINS);
+            kept.clear();
+            shared.clear();
+            pending.clear();
+            pins.clear();
+            references.reserved = 0;
+            references.used.clear();
+        }
+    }
+
+    /**
+     * A Kryo that doesn't replace objects kept on the heap with their {@code writeReplace}, as it would, say, a channel.
+     */
+    private static final class StackKryo extends ReplaceableObjectKryo {
+        private final Map<Object, Boolean> kept;
+
+        StackKryo(Map<Object, Boolean> kept) {
+            this.kept = kept;
+        }
+
+        @Override
+        protected boolean isReplaceable(Object object) {
+            return !isPinned(object.getClass()) && !kept.containsKey(object);
+        }
+    }
+
+    /**
+     * Tracks which of the reference ids reserved for shared objects are written.
+     */
+    private static final class SharedReferenceResolver extends MapReferenceResolver {
+        int reserved;
+        final BitSet used = new BitSet();
+
+        @Override
+        public int getWrittenId(Object object) {
+            final int id = super.getWrittenId(object);
+            if (id >= 0 && id < reserved)
+                used.set(id);
+            return id;
+        }
+    }
+
+    /**
+     * Writes a reference to an object kept on the heap rather than the object.
+     */
+    private static final class PinSerializer extends Serializer<Object> {
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(Kryo kryo, Output output, Object object) {
+            final List<Object> pins = (List<Object>) kryo.getContext().get(PINS);
+            output.writeVarInt(pins.size(), true);
+            pins.add(object);
+        }
+
+        @Override
+        public Object read(Kryo kryo, Input input, Class<Object> type) {
+            final Object[] pins = (Object[]) kryo.getContext().get(PINS);
+            return pins[input.readVarInt(true)];
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A variable that has a separate value for each fiber, much like a {@link ThreadLocal}, but stored directly in the fiber.
+ * <p>
+ * Unlike a {@code ThreadLocal}, which, when used in fibers, requires the thread-local maps of the fiber and its thread to be swapped
+ * every time the fiber is resumed or parked, a {@code FiberLocal} costs nothing when a fiber is scheduled: its values are kept in an array
+ * in the fiber, indexed by the {@code FiberLocal}. Together with {@link FiberScheduler#setSwitchAllThreadLocals(boolean) setSwitchAllThreadLocals(false)},
+ * this makes switching fibers cheaper.
+ * <p>
+ * When accessed outside of a fiber, a {@code FiberLocal} behaves like a {@code ThreadLocal}.
+ * As each instance is assigned an index for life, {@code FiberLocal}s should be long-lived, normally {@code static}, objects.
+ *
+ * @author pron
+ */
+public class FiberLocal<T> {
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+    private final int index = nextIndex.getAndIncrement();
+    private final ThreadLocal<T> threadLocal = new ThreadLocal<T>() {
+        @Override
+        protected T initialValue() {
+            return FiberLocal.this.initialValue();
+        }
+    };
+
+    /**
+     * Computes the initial value for the current strand.
+     * Returns {@code null} by default. In a fiber, this method is called again if the current value is {@code null}.
+     *
+     * @return the initial value
+     */
+    protected T initialValue() {
+        return null;
+    }
+
+    /**
+     * Returns the current strand's value of this {@code FiberLocal}.
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        final Fiber<?> fiber = Fiber.currentFiber();
+        if (fiber == null)
+            return threadLocal.get();
+        T value = (T) fiber.getFiberLocal(index);
+        if (value == null) {
+            value = initialValue();
+            fiber.setFiberLocal(index, value);
+        }
+        return value;
+    }
+
+    /**
+     * Sets the current strand's value of this {@code FiberLocal}.
+     */
+    public void set(T value) {
+        final Fiber<?> fiber = Fiber.currentFiber();
+        if (fiber == null)
+            threadLocal.set(value);
+        else
+            fiber.setFiberLocal(index, value);
+    }
+
+    /**
+     * Removes the current strand's value of this {@code FiberLocal}.
+     * The next call to {@link #get()} would return the initial value returned by a fresh call to {@link #initialValue() initialValue}.
+     */
+    public void remove() {
+        final Fiber<?> fiber = Fiber.currentFiber();
+        if (fiber == null)
+            threadLocal.remove();
+        else
+            fiber.setFiberLocal(index, null);
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.monitoring.MonitorType;
+import co.paralleluniverse.strands.Strand;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fiber scheduler that honors {@link Fiber#setPriority(int) fiber priority}.
+ * <p>
+ * Fiber priorities are grouped into a small number of bands. Each of the scheduler's threads has a queue per band, and always runs
+ * the fiber at the head of its highest priority non-empty queue, or, when all its queues are empty, steals one from another thread,
+ * again taking the highest priority one available. A fiber's band is determined by its priority at the time it is submitted,
+ * so a fiber's priority can be changed while it's running or parked.
+ * <p>
+ * To keep low priority fibers from starving, every time a thread runs a fiber from a higher band than some non-empty band, the latter
+ * band is charged a skip. Once a band has been skipped {@code starvationLimit} times, its head fiber is run next regardless of priority.
+ * So, when all bands are busy, each of them is guaranteed at least one run for every {@code starvationLimit} runs of its thread.
+ * <p>
+ * When the scheduler is monitored, the number of waiting fibers in each band, and the average latency from a fiber's submission to it
+ * starting to run, for each band, are reported by the {@link FibersMXBean fibers monitor}.
+ *
+ * @author pron
+ */
+public class FiberPriorityScheduler extends FiberExecutorScheduler {
+    static final int MAX_BANDS = Strand.MAX_PRIORITY - Strand.MIN_PRIORITY + 1;
+    private static final int DEFAULT_BANDS = 3;
+    private static final int DEFAULT_STARVATION_LIMIT = 32;
+    private final int bands;
+    private final int starvationLimit;
+    private final UncaughtExceptionHandler exceptionHandler;
+    private final Worker[] workers;
+    private final AtomicInteger sleepers = new AtomicInteger();
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final boolean monitored;
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a new fiber scheduler.
+     *
+     * @param name             the scheuler's name. This name is used in naming the scheduler's threads.
+     * @param parallelism      the number of threads in the scheduler
+     * @param bands            the number of priority bands; between {@code 1} and {@code 10}.
+     * @param starvationLimit  the number of times a non-empty band can be passed over in favor of higher priority bands before it is
+     *                         given a turn.
+     * @param exceptionHandler an {@link UncaughtExceptionHandler UncaughtExceptionHandler} to be used for exceptions thrown in fibers that aren't caught.
+     * @param monitorType      the {@link MonitorType} type to use for the scheduler.
+     * @param detailedInfo     whether detailed information about the fibers is collected by the fibers monitor.
+     */
+    public FiberPriorityScheduler(String name, int parallelism, int bands, int starvationLimit, UncaughtExceptionHandler exceptionHandler, MonitorType monitorType, boolean detailedInfo) {
+        super(name, null, monitorType, detailedInfo);
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism: " + parallelism);
+        if (bands < 1 || bands > MAX_BANDS)
+            throw new IllegalArgumentException("bands: " + bands);
+        if (starvationLimit < 1)
+            throw new IllegalArgumentException("starvationLimit: " + starvationLimit);
+        this.bands = bands;
+        this.starvationLimit = starvationLimit;
+        this.exceptionHandler = exceptionHandler;
+        this.monitored = getMonitor() != NOOP_FIBERS_MONITOR;
+        this.workers = new Worker[parallelism];
+        for (int i = 0; i < parallelism; i++)
+            workers[i] = new Worker(name + "-" + i, i);
+        for (Worker w : workers)
+            w.start();
+    }
+
+    /**
+     * Creates a new fiber scheduler with the default number of priority bands and starvation limit.
+     *
+     * @param name         the scheuler's name. This name is used in naming the scheduler's threads.
+     * @param parallelism  the number of threads in the scheduler
+     * @param monitorType  the {@link MonitorType} type to use for the scheduler.
+     * @param detailedInfo whether detailed information about the fibers is collected by the fibers monitor.
+     */
+    public FiberPriorityScheduler(String name, int parallelism, MonitorType monitorType, boolean detailedInfo) {
+        this(name, parallelism, DEFAULT_BANDS, DEFAULT_STARVATION_LIMIT, null, monitorType, detailedInfo);
+    }
+
+    /**
+     * Creates a new fiber scheduler with the default number of priority bands and starvation limit, and no monitor.
+     *
+     * @param name        the scheuler's name. This name is used in naming the scheduler's threads.
+     * @param parallelism the number of threads in the scheduler
+     */
+    public FiberPriorityScheduler(String name, int parallelism) {
+        this(name, parallelism, null, false);
+    }
+
+    /**
+     * Stops the scheduler's threads once they finish running their current fibers. Fibers that have not yet run are abandoned.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        this.shutdown = true;
+        for (Worker w : workers)
+            LockSupport.unpark(w);
+    }
+
+    public int getParallelism() {
+        return workers.length;
+    }
+
+    /**
+     * Returns the band fibers of the given priority are scheduled in; {@code 0} is the highest priority band.
+     */
+    int band(int priority) {
+        return (Strand.MAX_PRIORITY - priority) * bands / MAX_BANDS;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        final int band;
+        if (command instanceof PriorityFiberTask) {
+            final PriorityFiberTask<?> task = (PriorityFiberTask<?>) command;
+            band = band(task.getFiber().getPriority());
+            if (monitored)
+                task.submitTime = System.nanoTime();
+        } else
+            band = band(Strand.NORM_PRIORITY);
+
+        final Thread currentThread = Thread.currentThread();
+        final Worker worker = isOwnWorker(currentThread)
+                ? (Worker) currentThread
+                : workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+        worker.queues[band].offer(command);
+        signal(worker);
+    }
+
+    @Override
+    <V> FiberTask<V> newFiberTask(Fiber<V> fiber) {
+        return new PriorityFiberTask<V>(fiber, this);
+    }
+
+    @Override
+    protected boolean isCurrentThreadInScheduler() {
+        return isOwnWorker(Thread.currentThread());
+    }
+
+    private boolean isOwnWorker(Thread thread) {
+        return thread instanceof Worker && ((Worker) thread).getScheduler() == this;
+    }
+
+    @Override
+    protected int getQueueLength() {
+        int length = 0;
+        for (int n : getPriorityBandQueueLengths())
+            length += n;
+        return length;
+    }
+
+    @Override
+    int[] getPriorityBandQueueLengths() {
+        final int[] lengths = new int[bands];
+        for (Worker w : workers) {
+            for (int i = 0; i < bands; i++)
+                lengths[i] += w.queues[i].size();
+        }
+        return lengths;
+    }
+
+    private void signal(Worker target) {
+        if (target.sleeping)
+            LockSupport.unpark(target);
+        else if (sleepers.get() > 0) {
+            // let an idle thread steal the new fiber
+            for (Worker w : workers) {
+                if (w.sleeping) {
+                    LockSupport.unpark(w);
+                    break;
+                }
+            }
+        }
+    }
+
+    private Runnable steal(Worker thief) {
+        final int n = workers.length;
+        final int start = thief.index;
+        for (int b = 0; b < bands; b++) {
+            for (int i = 1; i < n; i++) {
+                final Runnable task = workers[(start + i) % n].queues[b].poll();
+                if (task != null) {
+                    thief.onRun(task, b);
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean hasWork() {
+        for (Worker w : workers) {
+            if (!w.isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    private class Worker extends Thread {
+        final int index;
+        final Queue<Runnable>[] queues;
+        private final int[] skips;
+        volatile boolean sleeping;
+
+        @SuppressWarnings("unchecked")
+        Worker(String name, int index) {
+            super(name);
+            setDaemon(true);
+            this.index = index;
+            this.queues = new Queue[bands];
+            for (int i = 0; i < bands; i++)
+                queues[i] = new ConcurrentLinkedQueue<Runnable>();
+            this.skips = new int[bands];
+        }
+
+        FiberPriorityScheduler getScheduler() {
+            return FiberPriorityScheduler.this;
+        }
+
+        boolean isEmpty() {
+            for (Queue<Runnable> q : queues) {
+                if (!q.isEmpty())
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (!shutdown) {
+                Runnable task = poll();
+                if (task == null)
+                    task = steal(this);
+                if (task == null) {
+                    idle();
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    if (exceptionHandler != null)
+                        exceptionHandler.uncaughtException(this, t);
+                    else
+                        getUncaughtExceptionHandler().uncaughtException(this, t);
+                }
+            }
+        }
+
+        private Runnable poll() {
+            // a band that has waited long enough goes first, lowest priority first
+            for (int b = bands - 1; b > 0; b--) {
+                if (skips[b] >= starvationLimit) {
+                    final Runnable task = queues[b].poll();
+                    skips[b] = 0;
+                    if (task != null) {
+                        onRun(task, b);
+                        return task;
+                    }
+                }
+            }
+            for (int b = 0; b < bands; b++) {
+                final Runnable task = queues[b].poll();
+                if (task != null) {
+                    for (int l = b + 1; l < bands; l++) {
+                        if (!queues[l].isEmpty())
+                            skips[l]++;
+                    }
+                    onRun(task, b);
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        void onRun(Runnable task, int band) {
+            if (monitored && task instanceof PriorityFiberTask)
+                getMonitor().priorityBandLatency(band, System.nanoTime() - ((PriorityFiberTask<?>) task).submitTime);
+        }
+
+        private void idle() {
+            sleeping = true;
+            sleepers.incrementAndGet();
+            try {
+                // a submitter enqueues before checking `sleeping`, so either it sees us sleeping, or we see its fiber
+                if (!shutdown && !hasWork())
+                    LockSupport.park(this);
+            } finally {
+                sleepers.decrementAndGet();
+                sleeping = false;
+            }
+        }
+    }
+
+    static final class PriorityFiberTask<V> extends RunnableFiberTask<V> {
+        long submitTime;
+
+        PriorityFiberTask(Fiber<V> fiber, FiberPriorityScheduler scheduler) {
+            super(fiber, scheduler);
+        }
+    }
+}
@@ -14,10 +14,18 @@
 package co.paralleluniverse.fibers;
 
 import co.paralleluniverse.common.monitoring.MonitorType;
+import co.paralleluniverse.common.util.SystemProperties;
 import co.paralleluniverse.strands.Strand;
 import co.paralleluniverse.strands.StrandFactory;
 import co.paralleluniverse.strands.SuspendableCallable;
 import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
@@ -34,6 +42,14 @@ public abstract class FiberScheduler implements FiberFactory, StrandFactory {
     private final String name;
     private final FibersMonitor fibersMonitor;
     final ConcurrentMap<SchedulerLocal, SchedulerLocal.Entry<?>> schedLocals = new MapMaker().weakKeys().makeMap();
+    private volatile int stackShrinkParks;
+    private volatile float stackShrinkLowWatermark;
+    private volatile float stackShrinkHighWatermark;
+    private volatile boolean switchAllThreadLocals = true;
+    private volatile ThreadLocal<?>[] fiberThreadLocals = new ThreadLocal<?>[0];
+    private volatile FiberHibernator hibernator;
+    private volatile FiberBlockingPool blockingPool;
+    private volatile boolean fiberAccounting = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.accounting");
 
     FiberScheduler(String name, MonitorType monitorType, boolean detailedInfo) {
         this.name = name;
@@ -63,6 +79,237 @@ public abstract class FiberScheduler implements FiberFactory, StrandFactory {
         return fibersMonitor;
     }
 
+    /**
+     * Enables shrinking of the stacks of fibers scheduled by this scheduler, once they are no longer used to capacity.
+     * A fiber's stack only grows, so a single deep call can pin a large stack for the rest of a long-lived fiber's life.
+     * With shrinking enabled, a stack that, for {@code parks} consecutive parks, has been used to less than {@code lowWatermark}
+     * of its capacity when its fiber parked, is shrunk so that the most used during those parks takes up {@code highWatermark} of
+     * the new capacity. Stacks are never shrunk below their initial size.
+     * Stack shrinking is disabled by default.
+     *
+     * @param parks         the number of consecutive under-used parks after which a stack is shrunk; {@code 0} disables shrinking.
+     * @param lowWatermark  the fraction of a stack's capacity below which a park is considered under-used
+     * @param highWatermark the fraction of the shrunk stack's capacity taken up by the most used during the under-used parks.
+     *                      Must be greater than {@code lowWatermark} and no greater than {@code 1}.
+     */
+    public void setStackShrinkPolicy(int parks, float lowWatermark, float highWatermark) {
+        if (parks < 0)
+            throw new IllegalArgumentException("parks: " + parks);
+        if (parks > 0 && !(lowWatermark > 0 && lowWatermark < highWatermark && highWatermark <= 1))
+            throw new IllegalArgumentException("Illegal watermarks: low " + lowWatermark + " high " + highWatermark);
+        this.stackShrinkLowWatermark = lowWatermark;
+        this.stackShrinkHighWatermark = highWatermark;
+        this.stackShrinkParks = parks;
+    }
+
+    int getStackShrinkParks() {
+        return stackShrinkParks;
+    }
+
+    float getStackShrinkLowWatermark() {
+        return stackShrinkLowWatermark;
+    }
+
+    float getStackShrinkHighWatermark() {
+        return stackShrinkHighWatermark;
+    }
+
+    /**
+     * Sets whether fibers scheduled by this scheduler have their own values for all {@link ThreadLocal}s (the default).
+     * <p>
+     * To give each fiber its own thread-locals, the thread-local maps of the fiber and the thread running it are swapped whenever the
+     * fiber is resumed or parked. When this is set to {@code false}, the maps are no longer swapped, and fibers see the thread-local values
+     * of whatever thread happens to run them, except for the {@code ThreadLocal}s registered with {@link #addFiberThreadLocal(ThreadLocal) addFiberThreadLocal},
+     * whose values alone are switched. Code that needs fiber-local state should then use {@link FiberLocal} (or a registered {@code ThreadLocal}).
+     * <p>
+     * A change takes effect the next time each fiber is resumed.
+     *
+     * @param value {@code false} to only switch the values of registered {@code ThreadLocal}s
+     */
+    public void setSwitchAllThreadLocals(boolean value) {
+        this.switchAllThreadLocals = value;
+    }
+
+    public boolean isSwitchAllThreadLocals() {
+        return switchAllThreadLocals;
+    }
+
+    /**
+     * Registers a {@link ThreadLocal} whose value is local to each fiber even when {@link #setSwitchAllThreadLocals(boolean) switchAllThreadLocals}
+     * is {@code false}. Each registered {@code ThreadLocal} adds a little to the cost of resuming and parking a fiber.
+     *
+     * @param threadLocal the {@code ThreadLocal}
+     */
+    public synchronized void addFiberThreadLocal(ThreadLocal<?> threadLocal) {
+        final ThreadLocal<?>[] tls = fiberThreadLocals;
+        for (ThreadLocal<?> tl : tls) {
+            if (tl == threadLocal)
+                return;
+        }
+        final ThreadLocal<?>[] newTls = Arrays.copyOf(tls, tls.length + 1);
+        newTls[tls.length] = threadLocal;
+        this.fiberThreadLocals = newTls; // indices are stable, as fibers keep their values by index
+    }
+
+    /**
+     * Returns the {@code ThreadLocal}s whose values should be switched when a fiber is resumed or parked,
+     * or {@code null} if the entire thread-local maps should be switched.
+     */
+    ThreadLocal<?>[] getSwitchedThreadLocals() {
+        return switchAllThreadLocals ? null : fiberThreadLocals;
+    }
+
+    /**
+     * Sets whether the time each of the scheduler's fibers runs is reported to the scheduler's monitor, which accumulates it by
+     * {@link FiberGroupInfo fiber group} so that the groups consuming the most CPU time can be found with
+     * {@link FibersMXBean#getTopFiberGroups(int) getTopFiberGroups}.
+     * Accounting adds two calls to {@code System.nanoTime} to each run of a fiber, and is disabled by default,
+     * unless the {@code co.paralleluniverse.fibers.accounting} system property is set.
+     *
+     * @param value whether fiber accounting is enabled
+     */
+    public void setFiberAccounting(boolean value) {
+        this.fiberAccounting = value;
+    }
+
+    public boolean isFiberAccounting() {
+        return fiberAccounting;
+    }
+
+    /**
+     * Enables hibernation of {@link Fiber#setHibernatable(boolean) hibernatable} fibers scheduled by this scheduler.
+     * Once such a fiber has been parked for longer than the given threshold, the contents of its stack are written to a memory-mapped
+     * spill file and dropped from the heap. They are read back when the fiber is resumed.
+     * The number of hibernated fibers and the size of the spill file are reported by the scheduler's {@link FibersMXBean MXBean}.
+     * Hibernation can be enabled at most once.
+     *
+     * @param threshold how long a fiber must be parked before it is hibernated
+     * @param unit      {@code threshold}'s time unit
+     * @param spillFile the spill file; if {@code null}, a temporary file is created and deleted when the JVM exits.
+     * @throws IOException if the spill file cannot be created
+     * @see #disableHibernation()
+     */
+    public synchronized void enableHibernation(long threshold, TimeUnit unit, File spillFile) throws IOException {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold: " + threshold);
+        if (hibernator != null)
+            throw new IllegalStateException("Hibernation already enabled");
+        this.hibernator = new FiberHibernator(unit.toNanos(threshold), spillFile,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fiber-hibernator-" + name).build());
+    }
+
+    /**
+     * Stops hibernating fibers, and stops the hibernation thread. Fibers that are already hibernated are rehydrated as usual when resumed,
+     * and the spill file is closed and deleted once all of them have been.
+     * Hibernation cannot be re-enabled.
+     */
+    public synchronized void disableHibernation() {
+        if (hibernator != null)
+            hibernator.shutdown();
+    }
+
+    /**
+     * Shuts down the scheduler, and releases the resources it holds, such as its threads and the hibernation spill file.
+     * Fibers should not be scheduled after the scheduler has been shut down.
+     */
+    public void shutdown() {
+        disableHibernation();
+    }
+
+    FiberHibernator getHibernator() {
+        return hibernator;
+    }
+
+    /**
+     * Returns the scheduler's {@link FiberBlockingPool blocking pool}, which runs thread-blocking operations on behalf of its fibers.
+     * The pool is created the first time it's used, and has no threads while no operations are running.
+     *
+     * @see co.paralleluniverse.strands.Strand#blocking(co.paralleluniverse.common.util.CheckedCallable)
+     */
+    public FiberBlockingPool getBlockingPool() {
+        FiberBlockingPool pool = blockingPool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = blockingPool;
+                if (pool == null)
+                    this.blockingPool = pool = new FiberBlockingPool(
+                            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fiber-blocking-" + name + "-%d").build(), fibersMonitor);
+            }
+        }
+        return pool;
+    }
+
+    FiberBlockingPool getBlockingPoolIfStarted() {
+        return blockingPool;
+    }
+
+    /**
+     * Unparks all of the given fibers.
+     * Equivalent to calling {@link Fiber#unpark() unpark} on each, but the fibers that need to be resumed are handed to the
+     * scheduler together, which, depending on the scheduler, may be cheaper than submitting each separately.
+     *
+     * @param fibers the fibers to unpark
+     * @see #unparkAll(Collection, Object)
+     */
+    public void unparkAll(Collection<? extends Fiber> fibers) {
+        unparkAll(fibers, null);
+    }
+
+    /**
+     * Unparks all of the given fibers.
+     * Equivalent to calling {@link Fiber#unpark(Object) unpark} on each, but the fibers that need to be resumed are handed to the
+     * scheduler together, which, depending on the scheduler, may be cheaper than submitting each separately.
+     * Fibers scheduled by a different scheduler are unparked individually.
+     *
+     * @param fibers    the fibers to unpark
+     * @param unblocker the synchronization object responsible for the unpark
+     */
+    public void unparkAll(Collection<? extends Fiber> fibers, Object unblocker) {
+        final List<FiberTask<?>> tasks = new ArrayList<>(fibers.size());
+        for (Fiber<?> fiber : fibers) {
+            if (fiber.getScheduler() != this) {
+                fiber.unpark(unblocker);
+                continue;
+            }
+            final FiberTask<?> task = fiber.unparkNoSubmit(unblocker);
+            if (task != null)
+                tasks.add(task);
+        }
+        if (!tasks.isEmpty())
+            submitAll(tasks);
+    }
+
+    /**
+     * Whether the current thread can run a fiber unparked by the given fiber directly, once the given fiber parks or yields.
+     * If so, the unparked fiber's task is passed to {@link #handOff(FiberTask) handOff} rather than submitted.
+     */
+    boolean canHandOff(Fiber<?> current) {
+        return false;
+    }
+
+    /**
+     * Has the current thread run the given task, which belongs to a fiber that has just been unparked, as soon as the current fiber
+     * parks or yields. Only called after {@link #canHandOff(Fiber) canHandOff} has returned {@code true}.
+     * By default, the task is simply submitted.
+     */
+    void handOff(FiberTask<?> task) {
+        task.submit();
+    }
+
+    /**
+     * Submits the task handed off by the current fiber, if any, as the current fiber hasn't parked after all.
+     */
+    void releaseHandOff() {
+    }
+
+    /**
+     * Submits the tasks of unparked fibers.
+     */
+    void submitAll(List<FiberTask<?>> tasks) {
+        for (FiberTask<?> task : tasks)
+            task.submit();
+    }
+
     @Override
     public <T> Fiber<T> newFiber(SuspendableCallable<T> target) {
         return new Fiber<T>(this, target);
@@ -81,6 +328,13 @@ public abstract class FiberScheduler implements FiberFactory, StrandFactory {
 
     abstract int getTimedQueueLength();
 
+    /**
+     * Returns the number of tasks waiting in each priority band, or {@code null} if this scheduler ignores fiber priority.
+     */
+    int[] getPriorityBandQueueLengths() {
+        return null;
+    }
+
     protected abstract boolean isCurrentThreadInScheduler();
 
     void setCurrentFiber(Fiber fiber, Thread currentThread) {
@@ -92,6 +346,14 @@ public abstract class FiberScheduler implements FiberFactory, StrandFactory {
     abstract Object getCurrentTarget(Thread currentThread);
 
     abstract <V> FiberTask<V> newFiberTask(Fiber<V> fiber);
+
+    /**
+     * Returns the {@link StackPool} of the current thread, or {@code null} if stack pooling is disabled
+     * or the current thread isn't one of this scheduler's threads.
+     */
+    StackPool getStackPool() {
+        return null;
+    }
     
     public abstract Executor getExecutor();
 }
@@ -0,0 +1,255 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SimpleConditionSynchronizer;
+import co.paralleluniverse.strands.SuspendableCallable;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import co.paralleluniverse.strands.SuspendableUtils;
+import co.paralleluniverse.strands.Timeout;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A group of child fibers that are joined, cancelled or timed out as a unit.
+ * <p>
+ * Children are started with {@link #fork(SuspendableCallable) fork}. {@link #join() join} blocks until all children have terminated,
+ * parking once rather than once per child. The first child to fail cancels all of its siblings, and {@code join} then throws its exception,
+ * without waiting for the cancelled siblings to terminate. If {@link #join(long, TimeUnit) join} times out, the remaining children are
+ * cancelled as well, so no work is left running for a caller that has given up on the results.
+ * <p>
+ * A scope may be used in a try-with-resources block, which cancels any children still running when the block exits:
+ * <pre>{@code
+ * try (FiberScope scope = new FiberScope()) {
+ *     Fiber<String> a = scope.fork(callA);
+ *     Fiber<String> b = scope.fork(callB);
+ *     scope.join(100, TimeUnit.MILLISECONDS);
+ *     return a.get() + b.get();
+ * }
+ * }</pre>
+ *
+ * @author pron
+ */
+public class FiberScope implements AutoCloseable {
+    private final FiberScheduler scheduler;
+    private final SimpleConditionSynchronizer sync = new SimpleConditionSynchronizer(this);
+    private final Set<Fiber<?>> children = Collections.newSetFromMap(new ConcurrentHashMap<Fiber<?>, Boolean>());
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new scope whose children are scheduled by the given scheduler.
+     *
+     * @param scheduler the {@link FiberScheduler} scheduling the children
+     */
+    public FiberScope(FiberScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Creates a new scope whose children are scheduled by the {@link DefaultFiberScheduler default scheduler}.
+     */
+    public FiberScope() {
+        this(DefaultFiberScheduler.getInstance());
+    }
+
+    /**
+     * Starts a child fiber running the given target.
+     *
+     * @param target the child's target
+     * @return the started child
+     * @throws IllegalStateException if the scope has been cancelled
+     */
+    public <V> Fiber<V> fork(SuspendableCallable<V> target) {
+        if (cancelled)
+            throw new IllegalStateException("Scope has been cancelled");
+        final Child<V> child = new Child<>(target);
+        final Fiber<V> fiber = new Fiber<>(scheduler, child);
+        child.fiber = fiber;
+        running.incrementAndGet();
+        children.add(fiber);
+        fiber.start();
+        if (cancelled) // raced with cancel
+            fiber.cancel(true);
+        return fiber;
+    }
+
+    /**
+     * Starts a child fiber running the given target.
+     *
+     * @param target the child's target
+     * @return the started child
+     * @throws IllegalStateException if the scope has been cancelled
+     */
+    public Fiber<Void> fork(SuspendableRunnable target) {
+        return fork(SuspendableUtils.runnableToCallable(target));
+    }
+
+    /**
+     * Waits for all children to terminate.
+     *
+     * @throws ExecutionException    if a child has failed; the cause is the child's exception
+     * @throws CancellationException if the scope has been cancelled
+     * @throws InterruptedException
+     */
+    @Suspendable
+    public void join() throws ExecutionException, InterruptedException {
+        try {
+            if (!isDone()) {
+                final Object token = sync.register();
+                try {
+                    for (int i = 0; !isDone(); i++)
+                        sync.await(i);
+                } finally {
+                    sync.unregister(token);
+                }
+            }
+        } catch (SuspendExecution e) {
+            throw new AssertionError(e);
+        }
+        checkDone();
+    }
+
+    /**
+     * Waits for all children to terminate, but no longer than the given timeout.
+     * If the timeout expires, all children still running are cancelled.
+     *
+     * @param timeout the maximum duration to wait
+     * @param unit    {@code timeout}'s time unit
+     * @throws TimeoutException      if the timeout expired before all children have terminated
+     * @throws ExecutionException    if a child has failed; the cause is the child's exception
+     * @throws CancellationException if the scope has been cancelled
+     * @throws InterruptedException
+     */
+    @Suspendable
+    public void join(long timeout, TimeUnit unit) throws ExecutionException, InterruptedException, TimeoutException {
+        try {
+            if (!isDone()) {
+                final Object token = sync.register();
+                try {
+                    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+                    long left = unit.toNanos(timeout);
+                    for (int i = 0; !isDone(); i++) {
+                        if (left <= 0) {
+                            cancel();
+                            throw new TimeoutException();
+                        }
+                        sync.awaitNanos(i, left);
+                        left = deadline - System.nanoTime();
+                    }
+                } finally {
+                    sync.unregister(token);
+                }
+            }
+        } catch (SuspendExecution e) {
+            throw new AssertionError(e);
+        }
+        checkDone();
+    }
+
+    /**
+     * Waits for all children to terminate, but no longer than the given timeout.
+     *
+     * @see #join(long, TimeUnit)
+     */
+    @Suspendable
+    public void join(Timeout timeout) throws ExecutionException, InterruptedException, TimeoutException {
+        join(timeout.nanosLeft(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cancels all children still running, and any waiting {@code join}.
+     */
+    public void cancel() {
+        this.cancelled = true;
+        for (Fiber<?> fiber : children)
+            fiber.cancel(true);
+        sync.signalAll();
+    }
+
+    /**
+     * Cancels all children still running.
+     */
+    @Override
+    public void close() {
+        if (running.get() > 0)
+            cancel();
+    }
+
+    /**
+     * Whether the scope has been cancelled, either explicitly, by a failing child, or by a timeout.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * The number of children that have not yet terminated.
+     */
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    private boolean isDone() {
+        return running.get() == 0 || cancelled;
+    }
+
+    private void checkDone() throws ExecutionException {
+        final Throwable t = failure.get();
+        if (t != null)
+            throw new ExecutionException(t);
+        if (cancelled)
+            throw new CancellationException();
+    }
+
+    private void childFailed(Throwable t) {
+        if (!cancelled && failure.compareAndSet(null, t))
+            cancel();
+    }
+
+    private void childTerminated(Fiber<?> fiber) {
+        children.remove(fiber);
+        if (running.decrementAndGet() == 0)
+            sync.signalAll();
+    }
+
+    private final class Child<V> implements SuspendableCallable<V> {
+        private final SuspendableCallable<V> target;
+        Fiber<V> fiber;
+
+        Child(SuspendableCallable<V> target) {
+            this.target = target;
+        }
+
+        @Override
+        public V run() throws SuspendExecution, InterruptedException {
+            try {
+                return target.run();
+            } catch (Throwable t) {
+                childFailed(t);
+                throw t;
+            } finally {
+                childTerminated(fiber);
+            }
+        }
+    }
+}
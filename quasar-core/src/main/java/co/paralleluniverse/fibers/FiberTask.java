@@ -61,6 +61,13 @@ interface FiberTask<V> extends Future<V>, FiberSchedulerTask {
 
     boolean tryUnpark(Object unblocker);
 
+    /**
+     * Unparks the task, but leaves submitting it to the caller.
+     *
+     * @return {@code true} if the task has been unparked and must now be submitted
+     */
+    boolean unparkNoSubmit(Object unblocker);
+
     Object getBlocker();
 
     Object getUnparker();
@@ -21,7 +21,9 @@
 package co.paralleluniverse.fibers;
 
 import co.paralleluniverse.common.util.SystemProperties;
+import co.paralleluniverse.common.util.TimerSlack;
 import co.paralleluniverse.concurrent.util.SingleConsumerNonblockingProducerDelayQueue;
+import co.paralleluniverse.concurrent.util.TimingWheelDelayQueue;
 import co.paralleluniverse.strands.Strand;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -30,6 +32,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -40,10 +44,16 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class FiberTimedScheduler {
     private static final boolean USE_LOCKFREE_DELAY_QUEUE = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.useLockFreeDelayQueue");
+    private static final boolean USE_TIMING_WHEEL = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.useTimingWheel");
+    /**
+     * The resolution of the timing wheel, if used
+     */
+    private static final long TIMING_WHEEL_TICK = NANOSECONDS.convert(1, MILLISECONDS);
     private static final boolean DETECT_RUNAWAY_FIBERS = SystemProperties.isNotFalse("co.paralleluniverse.fibers.detectRunawayFibers");
 
     /**
@@ -71,6 +81,10 @@ public class FiberTimedScheduler {
     private final FiberScheduler scheduler;
     private final FibersMonitor monitor;
     private Map<Thread, FiberInfo> fibersInfo = new IdentityHashMap<Thread, FiberInfo>();
+    private static final AtomicReferenceFieldUpdater<TimerBucket, TimerEntry> bucketHeadUpdater
+            = AtomicReferenceFieldUpdater.newUpdater(TimerBucket.class, TimerEntry.class, "head");
+    private volatile long slack;
+    private final ConcurrentMap<Long, TimerBucket> buckets = new ConcurrentHashMap<>();
 
     @SuppressWarnings("CallToThreadStartDuringObjectConstruction")
     public FiberTimedScheduler(FiberScheduler scheduler, ThreadFactory threadFactory, FibersMonitor monitor) {
@@ -81,7 +95,12 @@ public class FiberTimedScheduler {
                 work();
             }
         });
-        this.workQueue = USE_LOCKFREE_DELAY_QUEUE ? new SingleConsumerNonblockingProducerDelayQueue<ScheduledFutureTask>() : new co.paralleluniverse.concurrent.util.DelayQueue<ScheduledFutureTask>();
+        if (USE_TIMING_WHEEL)
+            this.workQueue = new TimingWheelDelayQueue<ScheduledFutureTask>(TIMING_WHEEL_TICK, NANOSECONDS);
+        else if (USE_LOCKFREE_DELAY_QUEUE)
+            this.workQueue = new SingleConsumerNonblockingProducerDelayQueue<ScheduledFutureTask>();
+        else
+            this.workQueue = new co.paralleluniverse.concurrent.util.DelayQueue<ScheduledFutureTask>();
 
         this.monitor = monitor;
 
@@ -107,11 +126,54 @@ public class FiberTimedScheduler {
         if (fiber == null || unit == null)
             throw new NullPointerException();
         assert fiber.getScheduler() == scheduler;
+        final long slack = this.slack;
+        if (slack > 0)
+            return scheduleCoalesced(fiber, blocker, TimerSlack.align(triggerTime(delay, unit), now(), slack));
         ScheduledFutureTask t = new ScheduledFutureTask(fiber, blocker, triggerTime(delay, unit));
         delayedExecute(t);
         return t;
     }
 
+    /**
+     * Sets the timer slack: the time by which a timeout may expire late.
+     * With a non-zero slack, expiration times are rounded up to a multiple of the slack (those already aligned to one, as by a
+     * {@link co.paralleluniverse.strands.Timeout Timeout} with the same slack, stay there; see {@link TimerSlack#align(long, long, long) TimerSlack.align}),
+     * and all timeouts that expire at the same time share a single entry in the timer queue, and have their fibers resumed together.
+     *
+     * @param slack the slack; {@code 0} for no slack.
+     * @param unit  {@code slack}'s time unit
+     */
+    public void setSlack(long slack, TimeUnit unit) {
+        if (slack < 0)
+            throw new IllegalArgumentException("slack: " + slack);
+        this.slack = unit.toNanos(slack);
+    }
+
+    public long getSlack(TimeUnit unit) {
+        return unit.convert(slack, NANOSECONDS);
+    }
+
+    private Future<Void> scheduleCoalesced(Fiber<?> fiber, Object blocker, long time) {
+        final Long key = time;
+        final TimerEntry e = new TimerEntry(fiber, blocker);
+        for (;;) {
+            TimerBucket b = buckets.get(key);
+            if (b == null) {
+                b = new TimerBucket(time);
+                final TimerBucket prev = buckets.putIfAbsent(key, b);
+                if (prev == null) {
+                    b.add(e);
+                    delayedExecute(b);
+                    return e;
+                }
+                b = prev;
+            }
+            if (b.add(e))
+                return e;
+            buckets.remove(key, b); // b has already fired
+        }
+    }
+
     @SuppressWarnings("CallToPrintStackTrace")
     private void work() {
         try {
@@ -178,6 +240,10 @@ public class FiberTimedScheduler {
 
     private void run(ScheduledFutureTask task) {
         try {
+            if (task instanceof TimerBucket) {
+                ((TimerBucket) task).fire();
+                return;
+            }
             final Fiber fiber = task.fiber;
             fiber.unpark(task.blocker);
         } catch (Exception e) {
@@ -192,7 +258,7 @@ public class FiberTimedScheduler {
         return System.nanoTime();
     }
 
-    private class ScheduledFutureTask implements Delayed, Future<Void> {
+    private class ScheduledFutureTask extends TimingWheelDelayQueue.Entry implements Future<Void> {
         final Fiber<?> fiber;
         final Object blocker;
         /**
@@ -233,6 +299,98 @@ public class FiberTimedScheduler {
                 return 0;
         }
 
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            this.cancelled = true;
+            if (USE_TIMING_WHEEL)
+                workQueue.remove(this); // O(1); other queues keep the task until it expires
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return "Timeout(" + blocker + ')';
+        }
+    }
+
+    /**
+     * A single entry in the timer queue for all timeouts that expire at the same time when there's timer slack.
+     */
+    private final class TimerBucket extends ScheduledFutureTask {
+        volatile TimerEntry head; // not private: updated by bucketHeadUpdater from the enclosing class
+
+        TimerBucket(long time) {
+            super(null, null, time);
+        }
+
+        boolean add(TimerEntry e) {
+            for (;;) {
+                final TimerEntry h = head;
+                if (h == TimerEntry.FIRED)
+                    return false;
+                e.next = h;
+                if (bucketHeadUpdater.compareAndSet(this, h, e))
+                    return true;
+            }
+        }
+
+        void fire() {
+            TimerEntry e = bucketHeadUpdater.getAndSet(this, TimerEntry.FIRED);
+            buckets.remove(time, this);
+
+            final List<FiberTask<?>> tasks = new ArrayList<>();
+            for (; e != null; e = e.next) {
+                if (e.isCancelled())
+                    continue;
+                final FiberTask<?> task = e.fiber.unparkNoSubmit(e.blocker);
+                if (task != null)
+                    tasks.add(task);
+            }
+            if (!tasks.isEmpty())
+                scheduler.submitAll(tasks); // a single submission for the whole batch, when the scheduler supports it
+        }
+
+        @Override
+        public String toString() {
+            return "TimerBucket(" + time + ')';
+        }
+    }
+
+    /**
+     * A single timeout in a {@link TimerBucket}.
+     */
+    private static final class TimerEntry implements Future<Void> {
+        static final TimerEntry FIRED = new TimerEntry(null, null);
+        final Fiber<?> fiber;
+        final Object blocker;
+        TimerEntry next;
+        private volatile boolean cancelled;
+
+        TimerEntry(Fiber<?> fiber, Object blocker) {
+            this.fiber = fiber;
+            this.blocker = blocker;
+        }
+
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
             this.cancelled = true;
@@ -55,6 +55,85 @@ public interface FibersMXBean {
      */
     long getMeanTimedWakeupLatency();
 
+    /**
+     * The number of fibers created with a recycled stack, taken from the scheduler's stack pool.
+     * Always 0 if stack pooling is not enabled for the scheduler.
+     */
+    long getStackPoolHits();
+
+    /**
+     * The number of fibers created on a scheduler thread with stack pooling enabled, that had to allocate a new stack.
+     */
+    long getStackPoolMisses();
+
+    /**
+     * The total number of bytes reclaimed by shrinking the stacks of fibers that are no longer used to capacity.
+     * Always 0 if stack shrinking is not enabled for the scheduler.
+     *
+     * @see FiberScheduler#setStackShrinkPolicy(int, float, float)
+     */
+    long getStackShrinkReclaimedBytes();
+
+    /**
+     * The number of fibers waiting to run in each of the scheduler's priority bands, from the highest priority band to the lowest.
+     * {@code null} if the scheduler does not schedule fibers by priority.
+     *
+     * @see FiberPriorityScheduler
+     */
+    int[] getPriorityBandQueueLengths();
+
+    /**
+     * The average latency, in nanoseconds, between the time fibers in each of the scheduler's priority bands have been submitted
+     * and the time they've started running in the last 5 seconds, from the highest priority band to the lowest.
+     * {@code null} if the scheduler does not schedule fibers by priority.
+     *
+     * @see FiberPriorityScheduler
+     */
+    long[] getMeanPriorityBandLatencies();
+
+    /**
+     * The number of thread-blocking operations waiting for a thread in the scheduler's {@link FiberBlockingPool blocking pool}.
+     */
+    int getBlockingPoolQueueLength();
+
+    /**
+     * The number of threads in the scheduler's {@link FiberBlockingPool blocking pool}.
+     */
+    int getBlockingPoolThreads();
+
+    /**
+     * The average time, in nanoseconds, that thread-blocking operations submitted to the scheduler's {@link FiberBlockingPool blocking pool}
+     * have waited for a thread in the last 5 seconds.
+     */
+    long getMeanBlockingTaskLatency();
+
+    /**
+     * Returns the {@code n} groups of fibers that have consumed the most CPU time, in descending order.
+     * Always empty unless {@link FiberScheduler#setFiberAccounting(boolean) fiber accounting} is enabled for the scheduler.
+     *
+     * @param n the maximum number of groups to return
+     * @see Fiber#setAccountingTag(String)
+     */
+    FiberGroupInfo[] getTopFiberGroups(int n);
+
+    /**
+     * The number of fibers whose stacks are currently hibernated in the spill file.
+     * Always 0 if hibernation is not enabled for the scheduler.
+     *
+     * @see FiberScheduler#enableHibernation(long, java.util.concurrent.TimeUnit, java.io.File)
+     */
+    long getHibernatedFibers();
+
+    /**
+     * The size, in bytes, of the hibernation spill file.
+     */
+    long getSpillFileSize();
+
+    /**
+     * The number of bytes in the hibernation spill file taken up by the stacks of hibernated fibers.
+     */
+    long getSpillFileUsedBytes();
+
     /**
      * The IDs of all fibers in the scheduler. {@code null} if the scheduler has been constructed with {@code detailedInfo} equal to {@code false}.
      */
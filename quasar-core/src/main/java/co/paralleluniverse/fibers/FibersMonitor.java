@@ -32,6 +32,24 @@ public interface FibersMonitor {
     void spuriousWakeup();
     
     void timedParkLatency(long ns);
+
+    void stackPoolHit();
+
+    void stackPoolMiss();
+
+    void stackShrunk(long reclaimedBytes);
+
+    void priorityBandLatency(int band, long ns);
+
+    void blockingTaskLatency(long ns);
+
+    /**
+     * Called after each run of a fiber, if {@link FiberScheduler#setFiberAccounting(boolean) fiber accounting} is enabled.
+     *
+     * @param fiber the fiber
+     * @param ns    how long the fiber has run before parking or terminating
+     */
+    void fiberRan(Fiber fiber, long ns);
     
     void unregister();
     
@@ -50,6 +50,16 @@ class JMXFibersMonitor extends StandardEmitterMBean implements FibersMonitor, No
     private final Counter spuriousWakeupsCounter = new Counter();
     private final Counter timedWakeupsCounter = new Counter();
     private final Counter timedParkLatencyCounter = new Counter();
+    private final Counter stackPoolHits = new Counter();
+    private final Counter stackPoolMisses = new Counter();
+    private final Counter stackShrinkReclaimedBytes = new Counter();
+    private final Counter[] priorityBandCount = newCounters(FiberPriorityScheduler.MAX_BANDS);
+    private final Counter[] priorityBandLatency = newCounters(FiberPriorityScheduler.MAX_BANDS);
+    private long[] meanPriorityBandLatencies;
+    private final Counter blockingTaskCount = new Counter();
+    private final Counter blockingTaskLatency = new Counter();
+    private long meanBlockingTaskLatency;
+    private final FiberAccounting accounting = new FiberAccounting();
     private long spuriousWakeups;
     private long meanTimedWakeupLatency;
     private Map<Fiber, StackTraceElement[]> problemFibers;
@@ -139,6 +149,21 @@ class JMXFibersMonitor extends StandardEmitterMBean implements FibersMonitor, No
 
         meanTimedWakeupLatency = tw != 0L ? tpl / tw : 0L;
 
+        final int[] bands = scheduler.getPriorityBandQueueLengths();
+        if (bands != null) {
+            final long[] latencies = new long[bands.length];
+            for (int i = 0; i < bands.length; i++) {
+                final long n = priorityBandCount[i].getAndReset();
+                final long l = priorityBandLatency[i].getAndReset();
+                latencies[i] = n != 0L ? l / n : 0L;
+            }
+            meanPriorityBandLatencies = latencies;
+        }
+
+        final long bn = blockingTaskCount.getAndReset();
+        final long bl = blockingTaskLatency.getAndReset();
+        meanBlockingTaskLatency = bn != 0L ? bl / bn : 0L;
+
         lastCollectTime = nanoTime();
     }
 
@@ -146,6 +171,13 @@ class JMXFibersMonitor extends StandardEmitterMBean implements FibersMonitor, No
         return System.nanoTime();
     }
 
+    private static Counter[] newCounters(int n) {
+        final Counter[] counters = new Counter[n];
+        for (int i = 0; i < n; i++)
+            counters[i] = new Counter();
+        return counters;
+    }
+
     @Override
     public void fiberStarted(Fiber fiber) {
         activeCount.inc();
@@ -184,6 +216,38 @@ class JMXFibersMonitor extends StandardEmitterMBean implements FibersMonitor, No
         timedParkLatencyCounter.add(ns);
     }
 
+    @Override
+    public void stackPoolHit() {
+        stackPoolHits.inc();
+    }
+
+    @Override
+    public void stackPoolMiss() {
+        stackPoolMisses.inc();
+    }
+
+    @Override
+    public void stackShrunk(long reclaimedBytes) {
+        stackShrinkReclaimedBytes.add(reclaimedBytes);
+    }
+
+    @Override
+    public void priorityBandLatency(int band, long ns) {
+        priorityBandCount[band].inc();
+        priorityBandLatency[band].add(ns);
+    }
+
+    @Override
+    public void blockingTaskLatency(long ns) {
+        blockingTaskCount.inc();
+        blockingTaskLatency.add(ns);
+    }
+
+    @Override
+    public void fiberRan(Fiber fiber, long ns) {
+        accounting.record(fiber, ns);
+    }
+
     @Override
     public void setRunawayFibers(Collection<Fiber> fs) {
         if (fs == null || fs.isEmpty())
@@ -253,6 +317,71 @@ class JMXFibersMonitor extends StandardEmitterMBean implements FibersMonitor, No
         return meanTimedWakeupLatency;
     }
 
+    @Override
+    public long getStackPoolHits() {
+        return stackPoolHits.get();
+    }
+
+    @Override
+    public long getStackPoolMisses() {
+        return stackPoolMisses.get();
+    }
+
+    @Override
+    public long getStackShrinkReclaimedBytes() {
+        return stackShrinkReclaimedBytes.get();
+    }
+
+    @Override
+    public int[] getPriorityBandQueueLengths() {
+        return scheduler.getPriorityBandQueueLengths();
+    }
+
+    @Override
+    public long[] getMeanPriorityBandLatencies() {
+        return meanPriorityBandLatencies;
+    }
+
+    @Override
+    public int getBlockingPoolQueueLength() {
+        final FiberBlockingPool pool = scheduler.getBlockingPoolIfStarted();
+        return pool != null ? pool.getQueueLength() : 0;
+    }
+
+    @Override
+    public int getBlockingPoolThreads() {
+        final FiberBlockingPool pool = scheduler.getBlockingPoolIfStarted();
+        return pool != null ? pool.getThreadCount() : 0;
+    }
+
+    @Override
+    public long getMeanBlockingTaskLatency() {
+        return meanBlockingTaskLatency;
+    }
+
+    @Override
+    public FiberGroupInfo[] getTopFiberGroups(int n) {
+        return accounting.top(n);
+    }
+
+    @Override
+    public long getHibernatedFibers() {
+        final FiberHibernator hibernator = scheduler.getHibernator();
+        return hibernator != null ? hibernator.getHibernatedCount() : 0;
+    }
+
+    @Override
+    public long getSpillFileSize() {
+        final FiberHibernator hibernator = scheduler.getHibernator();
+        return hibernator != null ? hibernator.getSpillFileSize() : 0;
+    }
+
+    @Override
+    public long getSpillFileUsedBytes() {
+        final FiberHibernator hibernator = scheduler.getHibernator();
+        return hibernator != null ? hibernator.getSpillFileUsedBytes() : 0;
+    }
+
     @Override
     public long[] getAllFiberIds() {
         if (details == null)
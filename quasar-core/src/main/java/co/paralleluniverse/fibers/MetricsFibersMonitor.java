@@ -22,6 +22,7 @@ import com.codahale.metrics.Meter;
 import static com.codahale.metrics.MetricRegistry.name;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -29,19 +30,35 @@ import java.util.Map;
  * @author pron
  */
 class MetricsFibersMonitor implements FibersMonitor {
+    private static final int TOP_FIBER_GROUPS = 10;
     private final Counter activeCount;
     //private final Counter runnableCount;
     private final Counter waitingCount;
     private final Meter spuriousWakeups;
     private final Histogram timedParkLatency;
+    private final Counter stackPoolHits;
+    private final Counter stackPoolMisses;
+    private final Counter stackShrinkReclaimedBytes;
+    private final Histogram blockingTaskLatency;
+    private final FiberAccounting accounting = new FiberAccounting();
+    private final String name;
+    private final FiberScheduler scheduler;
+    private final Histogram[] priorityBandLatency = new Histogram[FiberPriorityScheduler.MAX_BANDS];
+    private Gauge<int[]> priorityBandQueueLengths;
     private final Gauge<Map<String, String>> runawayFibers;
     private Map<Fiber, StackTraceElement[]> problemFibers;
 
     public MetricsFibersMonitor(String name, FiberScheduler scheduler) {
+        this.name = name;
+        this.scheduler = scheduler;
         this.activeCount = Metrics.counter(metric(name, "numActiveFibers"));
         this.waitingCount = Metrics.counter(metric(name, "numWaitingFibers"));
         this.spuriousWakeups = Metrics.meter(metric(name, "spuriousWakeups"));
         this.timedParkLatency = Metrics.histogram(metric(name, "timedParkLatency"));
+        this.stackPoolHits = Metrics.counter(metric(name, "stackPoolHits"));
+        this.stackPoolMisses = Metrics.counter(metric(name, "stackPoolMisses"));
+        this.stackShrinkReclaimedBytes = Metrics.counter(metric(name, "stackShrinkReclaimedBytes"));
+        this.blockingTaskLatency = Metrics.histogram(metric(name, "blockingTaskLatency"));
         this.runawayFibers = new Gauge<Map<String, String>>() {
             @Override
             public Map<String, String> getValue() {
@@ -54,6 +71,43 @@ class MetricsFibersMonitor implements FibersMonitor {
             }
         };
         Metrics.register("runawayFibers", runawayFibers);
+        Metrics.register(metric(name, "blockingPoolQueueLength"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                final FiberBlockingPool pool = scheduler.getBlockingPoolIfStarted();
+                return pool != null ? pool.getQueueLength() : 0;
+            }
+        });
+        Metrics.register(metric(name, "blockingPoolThreads"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                final FiberBlockingPool pool = scheduler.getBlockingPoolIfStarted();
+                return pool != null ? pool.getThreadCount() : 0;
+            }
+        });
+        Metrics.register(metric(name, "topFiberGroupsCpuTime"), new Gauge<Map<String, Long>>() {
+            @Override
+            public Map<String, Long> getValue() {
+                final Map<String, Long> map = new LinkedHashMap<>();
+                for (FiberGroupInfo g : accounting.top(TOP_FIBER_GROUPS))
+                    map.put(g.getName(), g.getCpuTime());
+                return map;
+            }
+        });
+        Metrics.register(metric(name, "hibernatedFibers"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                final FiberHibernator hibernator = scheduler.getHibernator();
+                return hibernator != null ? hibernator.getHibernatedCount() : 0L;
+            }
+        });
+        Metrics.register(metric(name, "spillFileSize"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                final FiberHibernator hibernator = scheduler.getHibernator();
+                return hibernator != null ? hibernator.getSpillFileSize() : 0L;
+            }
+        });
     }
 
     protected final String metric(String poolName, String name) {
@@ -97,6 +151,53 @@ class MetricsFibersMonitor implements FibersMonitor {
         timedParkLatency.update(ns);
     }
 
+    @Override
+    public void stackPoolHit() {
+        stackPoolHits.inc();
+    }
+
+    @Override
+    public void stackPoolMiss() {
+        stackPoolMisses.inc();
+    }
+
+    @Override
+    public void stackShrunk(long reclaimedBytes) {
+        stackShrinkReclaimedBytes.inc(reclaimedBytes);
+    }
+
+    @Override
+    public void priorityBandLatency(int band, long ns) {
+        Histogram h = priorityBandLatency[band];
+        if (h == null) // the registry returns the same histogram for racing calls
+            priorityBandLatency[band] = h = Metrics.histogram(metric(name, "priorityBand" + band + "Latency"));
+        h.update(ns);
+        if (priorityBandQueueLengths == null)
+            registerPriorityBandQueueLengths();
+    }
+
+    @Override
+    public void blockingTaskLatency(long ns) {
+        blockingTaskLatency.update(ns);
+    }
+
+    @Override
+    public void fiberRan(Fiber fiber, long ns) {
+        accounting.record(fiber, ns);
+    }
+
+    private synchronized void registerPriorityBandQueueLengths() {
+        if (priorityBandQueueLengths != null)
+            return;
+        this.priorityBandQueueLengths = new Gauge<int[]>() {
+            @Override
+            public int[] getValue() {
+                return scheduler.getPriorityBandQueueLengths();
+            }
+        };
+        Metrics.register(metric(name, "priorityBandQueueLengths"), priorityBandQueueLengths);
+    }
+
     @Override
     public void setRunawayFibers(Collection<Fiber> fs) {
         if (fs == null || fs.isEmpty())
@@ -47,6 +47,30 @@ public class NoopFibersMonitor implements FibersMonitor {
     public void timedParkLatency(long ns) {
     }
 
+    @Override
+    public void stackPoolHit() {
+    }
+
+    @Override
+    public void stackPoolMiss() {
+    }
+
+    @Override
+    public void stackShrunk(long reclaimedBytes) {
+    }
+
+    @Override
+    public void priorityBandLatency(int band, long ns) {
+    }
+
+    @Override
+    public void blockingTaskLatency(long ns) {
+    }
+
+    @Override
+    public void fiberRan(Fiber fiber, long ns) {
+    }
+
     @Override
     public void setRunawayFibers(Collection<Fiber> fs) {
     } 
@@ -235,8 +235,23 @@ class RunnableFiberTask<V> implements Runnable, FiberTask {
 
     @Override
     public boolean unpark(Object unblocker) {
+        final int _state = unpark0(unblocker);
+        if (_state == PARKED)
+            submit();
+        return _state == PARKED || _state == PARKING; // Actually woken up the fiber
+    }
+
+    @Override
+    public boolean unparkNoSubmit(Object unblocker) {
+        return unpark0(unblocker) == PARKED;
+    }
+
+    /**
+     * @return the state the task has been unparked from, or {@code LEASED} if the unpark had no effect.
+     */
+    private int unpark0(Object unblocker) {
         if (fiber.isDone())
-            return false;
+            return LEASED;
 
         int newState;
         int _state;
@@ -248,7 +263,7 @@ class RunnableFiberTask<V> implements Runnable, FiberTask {
                     break;
                 case PARKED:
                     if (parkExclusive & unblocker != blocker & unblocker != EMERGENCY_UNBLOCKER)
-                        return false;
+                        return LEASED;
                     newState = RUNNABLE;
                     break;
                 case PARKING:
@@ -257,7 +272,7 @@ class RunnableFiberTask<V> implements Runnable, FiberTask {
                 case LEASED:
                     if (Debug.isDebug())
                         record("unpark", "current: %s - %s. return.", this, _state);
-                    return false;
+                    return LEASED;
                 default:
                     throw new AssertionError("Unknown task state: " + _state);
             }
@@ -270,11 +285,9 @@ class RunnableFiberTask<V> implements Runnable, FiberTask {
             this.unparker = unblocker;
             if (CAPTURE_UNPARK_STACK)
                 this.unparkStackTrace = Thread.currentThread().getStackTrace();
-            if (_state != PARKING)
-                submit();
         }
 
-        return _state == PARKED || _state == PARKING; // Actually woken up the fiber
+        return _state;
     }
 
     @Override
@@ -0,0 +1,329 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.util.TimerSlack;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wakes fibers from timed parks using a timer queue per scheduler thread, rather than a single timer thread.
+ * <p>
+ * Each scheduler thread owns a shard: the timeouts scheduled by fibers running on it go into its shard, and the thread fires its
+ * shard's due timeouts between running fibers (see {@link #poll(Shard) poll}), so timer throughput scales with the number of threads.
+ * A thread that is idle (or is stuck running a single fiber) can't fire its timeouts, so a fallback thread fires the due timeouts of
+ * any shard whose owner has not polled it recently.
+ * <p>
+ * A cancelled timeout is left in its shard's queue, as removing it would take time linear in the queue's size, and is discarded when
+ * it reaches the head of the queue. Once a shard holds more cancelled timeouts than live ones, the cancelled ones are purged.
+ *
+ * @author pron
+ */
+final class ShardedFiberTimer {
+    /**
+     * How long a shard's owner may go without polling it before it is considered idle
+     */
+    private static final long IDLE_THRESHOLD = NANOSECONDS.convert(1, MILLISECONDS);
+    /**
+     * The number of cancelled timeouts a shard may hold before they're purged, as long as they're outnumbered by live ones
+     */
+    static final int PURGE_THRESHOLD = 64;
+    private final Shard[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final FibersMonitor monitor;
+    private final Thread fallback;
+    private volatile boolean fallbackParked;
+    private volatile long fallbackWakeup;
+    private volatile long slack;
+    private volatile boolean shutdown;
+
+    @SuppressWarnings("CallToThreadStartDuringObjectConstruction")
+    ShardedFiberTimer(int shards, ThreadFactory threadFactory, FibersMonitor monitor) {
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++)
+            this.shards[i] = new Shard();
+        this.monitor = monitor;
+        this.fallback = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                fallback();
+            }
+        });
+        fallback.start();
+    }
+
+    /**
+     * Stops the fallback thread. Timeouts of idle threads are no longer fired.
+     */
+    void shutdown() {
+        this.shutdown = true;
+        LockSupport.unpark(fallback);
+    }
+
+    /**
+     * Assigns a shard to a new scheduler thread.
+     */
+    Shard nextShard() {
+        return shards[(nextShard.getAndIncrement() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * The shard used for fibers scheduling timeouts from outside the scheduler's threads.
+     */
+    Shard shardFor(Fiber<?> fiber) {
+        return shards[(int) ((fiber.getId() & Long.MAX_VALUE) % shards.length)];
+    }
+
+    /**
+     * Sets the timer slack; see {@link FiberTimedScheduler#setSlack(long, TimeUnit) FiberTimedScheduler.setSlack}.
+     * Timeouts in a shard that expire at the same time are fired together.
+     */
+    void setSlack(long slack, TimeUnit unit) {
+        if (slack < 0)
+            throw new IllegalArgumentException("slack: " + slack);
+        this.slack = unit.toNanos(slack);
+    }
+
+    long getSlack(TimeUnit unit) {
+        return unit.convert(slack, NANOSECONDS);
+    }
+
+    Future<Void> schedule(Shard shard, Fiber<?> fiber, Object blocker, long delay, TimeUnit unit) {
+        final long slack = this.slack;
+        final long now = System.nanoTime();
+        long time = now + unit.toNanos(delay < 0 ? 0 : delay);
+        if (slack > 0)
+            time = TimerSlack.align(time, now, slack);
+        final Timeout t = new Timeout(shard, fiber, blocker, time);
+        shard.lock.lock();
+        try {
+            shard.queue.add(t);
+            if (time < shard.nextDeadline)
+                shard.nextDeadline = time;
+        } finally {
+            shard.lock.unlock();
+        }
+        if (fallbackParked && time < fallbackWakeup)
+            LockSupport.unpark(fallback);
+        return t;
+    }
+
+    /**
+     * Fires the shard's due timeouts. Called by the shard's owner between fibers.
+     */
+    void poll(Shard shard) {
+        final long now = System.nanoTime();
+        Shard.lastPolledUpdater.lazySet(shard, now);
+        if (shard.nextDeadline <= now && shard.lock.tryLock()) { // if the lock is taken, someone else is firing the timeouts
+            try {
+                fire(shard, now);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    int getQueueLength() {
+        int length = 0;
+        for (Shard s : shards)
+            length += s.queue.size();
+        return length;
+    }
+
+    private void fire(Shard shard, long now) {
+        final PriorityQueue<Timeout> queue = shard.queue;
+        Timeout t;
+        while ((t = queue.peek()) != null && (t.state == Timeout.CANCELLED || t.time <= now)) {
+            queue.poll();
+            if (!Timeout.stateUpdater.compareAndSet(t, Timeout.PENDING, Timeout.FIRED))
+                shard.cancelled.decrementAndGet();
+            else {
+                if (monitor != null)
+                    monitor.timedParkLatency(now - t.time);
+                try {
+                    t.fiber.unpark(t.blocker); // only submits the fiber, so it's fine to do while holding the lock
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        shard.nextDeadline = t != null ? t.time : Long.MAX_VALUE;
+    }
+
+    /**
+     * Called when a timeout in the shard is cancelled.
+     */
+    private static void cancelled(Shard shard) {
+        final int cancelled = shard.cancelled.incrementAndGet();
+        if (cancelled > PURGE_THRESHOLD && cancelled > shard.queue.size() / 2 && shard.lock.tryLock()) { // the size is read racily; it's only a heuristic
+            try {
+                purge(shard);
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+    }
+
+    private static void purge(Shard shard) {
+        final List<Timeout> live = new ArrayList<>(shard.queue.size());
+        int removed = 0;
+        for (Timeout t : shard.queue) {
+            if (t.state == Timeout.CANCELLED)
+                removed++;
+            else
+                live.add(t);
+        }
+        shard.queue.clear();
+        shard.queue.addAll(live);
+        shard.cancelled.addAndGet(-removed);
+        final Timeout head = shard.queue.peek();
+        shard.nextDeadline = head != null ? head.time : Long.MAX_VALUE;
+    }
+
+    @SuppressWarnings("CallToPrintStackTrace")
+    private void fallback() {
+        try {
+            while (!shutdown) {
+                final long now = System.nanoTime();
+                for (Shard shard : shards) {
+                    if (fallbackDeadline(shard, now) <= now) {
+                        shard.lock.lock();
+                        try {
+                            fire(shard, now);
+                        } finally {
+                            shard.lock.unlock();
+                        }
+                    }
+                }
+
+                final long wakeup = fallbackWakeup(now);
+                this.fallbackWakeup = wakeup;
+                this.fallbackParked = true;
+                try {
+                    // a scheduler sets the deadline before checking fallbackParked, so either it sees us parked or we see its deadline
+                    if (fallbackWakeup(now) >= wakeup) {
+                        if (shutdown)
+                            break;
+                        if (wakeup == Long.MAX_VALUE)
+                            LockSupport.park(this);
+                        else
+                            LockSupport.parkNanos(this, wakeup - System.nanoTime());
+                    }
+                } finally {
+                    this.fallbackParked = false;
+                }
+            }
+        } catch (Throwable e) {
+            System.err.println("ShardedFiberTimer fallback thread terminated!");
+            e.printStackTrace();
+        }
+    }
+
+    private long fallbackWakeup(long now) {
+        long wakeup = Long.MAX_VALUE;
+        for (Shard shard : shards)
+            wakeup = Math.min(wakeup, fallbackDeadline(shard, now));
+        return wakeup;
+    }
+
+    /**
+     * The time at which the fallback thread should fire the shard's next timeout.
+     * An active owner is given some slack to fire it itself.
+     */
+    private static long fallbackDeadline(Shard shard, long now) {
+        final long deadline = shard.nextDeadline;
+        if (deadline == Long.MAX_VALUE)
+            return Long.MAX_VALUE;
+        return now - shard.lastPolled < IDLE_THRESHOLD ? deadline + IDLE_THRESHOLD : deadline;
+    }
+
+    static final class Shard {
+        static final AtomicLongFieldUpdater<Shard> lastPolledUpdater = AtomicLongFieldUpdater.newUpdater(Shard.class, "lastPolled");
+        final ReentrantLock lock = new ReentrantLock();
+        final PriorityQueue<Timeout> queue = new PriorityQueue<>();
+        final AtomicInteger cancelled = new AtomicInteger(); // cancelled timeouts still in the queue
+        volatile long nextDeadline = Long.MAX_VALUE;
+        volatile long lastPolled = System.nanoTime() - IDLE_THRESHOLD; // idle until polled
+    }
+
+    private static final class Timeout implements Future<Void>, Comparable<Timeout> {
+        static final int PENDING = 0;
+        static final int FIRED = 1;
+        static final int CANCELLED = 2;
+        static final AtomicIntegerFieldUpdater<Timeout> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+        final Shard shard;
+        final Fiber<?> fiber;
+        final Object blocker;
+        final long time;
+        volatile int state;
+
+        Timeout(Shard shard, Fiber<?> fiber, Object blocker, long time) {
+            this.shard = shard;
+            this.fiber = fiber;
+            this.blocker = blocker;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Timeout o) {
+            return Long.compare(time, o.time);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!stateUpdater.compareAndSet(this, PENDING, CANCELLED))
+                return false;
+            cancelled(shard);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            return state != PENDING;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return "Timeout(" + blocker + ')';
+        }
+    }
+}
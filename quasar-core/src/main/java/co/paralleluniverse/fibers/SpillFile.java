@@ -0,0 +1,190 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A memory-mapped file holding the serialized stacks of hibernated fibers.
+ * <p>
+ * The file is divided into fixed-size regions, each mapped separately. Records are appended to the current region by a single writer,
+ * and may be read and freed by any thread. A region is recycled once it is full and all of its records have been freed,
+ * so the file only grows when the live records don't fit in the existing regions.
+ *
+ * @author pron
+ */
+final class SpillFile {
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int regionSize;
+    private volatile Region[] regions = new Region[0];
+    private final Queue<Region> freeRegions = new ConcurrentLinkedQueue<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private Region current; // accessed by the writer only
+
+    SpillFile(File file, int regionSize) throws IOException {
+        this.file = file;
+        this.regionSize = regionSize;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends a record. Must only be called by a single thread.
+     *
+     * @return the record's position, or {@code -1} if the record is larger than a region.
+     */
+    long write(byte[] buf, int length) throws IOException {
+        if (length > regionSize)
+            return -1;
+        if (current == null || current.top + length > regionSize)
+            nextRegion();
+        final Region r = current;
+        final ByteBuffer b = r.buffer.duplicate();
+        b.position(r.top);
+        b.put(buf, 0, length);
+        r.live.incrementAndGet();
+        usedBytes.addAndGet(length);
+        final long position = (long) r.index * regionSize + r.top;
+        r.top += length;
+        return position;
+    }
+
+    /**
+     * Reads a record.
+     */
+    byte[] read(long position, int length) {
+        final Region r = regions[(int) (position / regionSize)];
+        final ByteBuffer b = r.buffer.duplicate();
+        b.position((int) (position % regionSize));
+        final byte[] buf = new byte[length];
+        b.get(buf);
+        return buf;
+    }
+
+    /**
+     * Frees a record. Its space is reused once all the other records in its region have been freed.
+     */
+    void free(long position, int length) {
+        final Region r = regions[(int) (position / regionSize)];
+        usedBytes.addAndGet(-length);
+        if (r.live.decrementAndGet() == 0 && r.sealed)
+            recycle(r);
+    }
+
+    /**
+     * The size of the file.
+     */
+    long size() {
+        return (long) regions.length * regionSize;
+    }
+
+    /**
+     * The number of bytes taken up by live records.
+     */
+    long usedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Unmaps the regions and deletes the file. Must only be called once no records are live.
+     */
+    void close() throws IOException {
+        final Region[] rs = regions;
+        this.regions = new Region[0];
+        freeRegions.clear();
+        current = null;
+        for (Region r : rs)
+            unmap(r.buffer);
+        channel.close();
+        raf.close();
+        file.delete();
+    }
+
+    /**
+     * Releases a mapping without waiting for the buffer to be collected. There's no public API for that, so if the buffer's cleaner
+     * can't be reached, the mapping is left to the GC.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                final Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (Exception e) {
+        }
+    }
+
+    private void nextRegion() throws IOException {
+        final Region prev = current;
+        if (prev != null) {
+            prev.sealed = true;
+            if (prev.live.get() == 0) // a reader frees a record before checking sealed, so either it sees us seal the region, or we see its free
+                recycle(prev);
+        }
+        Region r = freeRegions.poll();
+        if (r == null) {
+            final Region[] rs = regions;
+            r = new Region(rs.length, channel.map(FileChannel.MapMode.READ_WRITE, (long) rs.length * regionSize, regionSize));
+            final Region[] newRs = Arrays.copyOf(rs, rs.length + 1);
+            newRs[rs.length] = r;
+            this.regions = newRs;
+        } else {
+            r.top = 0;
+            r.recycled.set(false);
+            r.sealed = false;
+        }
+        this.current = r;
+    }
+
+    private void recycle(Region r) {
+        if (r.recycled.compareAndSet(false, true)) // both the writer and a reader may try
+            freeRegions.add(r);
+    }
+
+    private static final class Region {
+        final int index;
+        final MappedByteBuffer buffer;
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicBoolean recycled = new AtomicBoolean();
+        volatile boolean sealed;
+        int top;
+
+        Region(int index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+}
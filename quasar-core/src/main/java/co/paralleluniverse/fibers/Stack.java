@@ -13,6 +13,7 @@
  */
 package co.paralleluniverse.fibers;
 
+import co.paralleluniverse.common.util.UtilUnsafe;
 import java.io.Serializable;
 import java.util.Arrays;
 
@@ -26,31 +27,65 @@ import java.util.Arrays;
  */
 public final class Stack implements Serializable {
     /*
-     * sp points to the first slot to contain data.
-     * The _previous_ FRAME_RECORD_SIZE slots contain the frame record.
+     * sp points to the first slot in dataLong to contain primitive data, and spObj to the first slot in dataObject
+     * to contain references. The two arrays grow independently, so a frame takes up exactly as many slots in each
+     * as it needs.
+     * The _previous_ FRAME_RECORD_SIZE slots of dataLong contain the frame record.
      * The frame record currently occupies a single long:
      *   - entry (PC)         : 14 bits
      *   - num slots          : 16 bits
      *   - prev method slots  : 16 bits
+     *   - num object slots   : 16 bits
+     *   - extended           : 1 bit
+     * A method's object region begins where its caller's ends, so unwinding a frame uses the caller's num object
+     * slots, found in the caller's frame record.
+     *
+     * Methods whose entries or slot counts don't fit in the record (only very large ones) use an extended frame,
+     * pushed with pushMethodExtended. Its record has the EXTENDED bit set and its other fields, except prev method
+     * slots, unused. Instead, the frame's first EXTENDED_FRAME_HEADER primitive slots hold the entry and the (total)
+     * num slots and num object slots, and its last primitive slot holds the num slots again, so that the callee can
+     * find it when the callee's prev method slots, which then can't hold it, is EXTENDED_SLOTS.
      */
     public static final int MAX_ENTRY = (1 << 14) - 1;
-    public static final int MAX_SLOTS = (1 << 16) - 1;
+    public static final int MAX_SLOTS = (1 << 16) - 2;
+    /**
+     * The number of primitive slots at the beginning of an extended frame that precede the method's own.
+     */
+    public static final int EXTENDED_FRAME_HEADER = 2;
+    private static final int EXTENDED_FRAME_OVERHEAD = EXTENDED_FRAME_HEADER + 1; // header and trailer
+    private static final int EXTENDED_SLOTS = (1 << 16) - 1;
+    private static final long EXTENDED = 1L << 1; // the record's field at offset 62, length 1 (offsets count from the most significant bit, as in setBits)
+    /**
+     * The number of loop back-branches a preemptible method runs between checks of the fiber's time slice.
+     */
+    static final int PREEMPTION_CHECK_INTERVAL = 1024;
     private static final int INITIAL_METHOD_STACK_DEPTH = 16;
     private static final int FRAME_RECORD_SIZE = 1;
-    private static final long serialVersionUID = 12786283751253L;
+    private static final long serialVersionUID = 12786283751254L;
+    private static final int REF_BYTES = UtilUnsafe.getUnsafe().arrayIndexScale(Object[].class);
+    private static final StackStatistics statistics = StackStatistics.fromSystemProperty(); // null unless enabled
     private final Fiber fiber;
+    private final int minLength;
     private int sp;
+    private int spObj;
     private transient boolean pushed;
+    private transient int underusedParks;
+    private transient int maxUnderusedLong;
+    private transient int maxUnderusedObject;
+    private transient int backBranches;
     private long[] dataLong;        // holds primitives on stack as well as each method's entry point and the stack pointer
     private Object[] dataObject;    // holds refs on stack
 
+    /*
+     * The data arrays are allocated lazily, by the first call to pushMethod, so that fibers that never call a
+     * suspendable method don't pay for them. Until then, all frame records are treated as clear.
+     */
     Stack(Fiber fiber, int stackSize) {
         if (stackSize <= 0)
             throw new IllegalArgumentException("stackSize");
 
         this.fiber = fiber;
-        this.dataLong = new long[stackSize + (FRAME_RECORD_SIZE * INITIAL_METHOD_STACK_DEPTH)];
-        this.dataObject = new Object[stackSize + (FRAME_RECORD_SIZE * INITIAL_METHOD_STACK_DEPTH)];
+        this.minLength = stackSize + (FRAME_RECORD_SIZE * INITIAL_METHOD_STACK_DEPTH);
 
         resumeStack();
     }
@@ -69,6 +104,47 @@ public final class Stack implements Serializable {
      */
     final void resumeStack() {
         sp = 0;
+        spObj = 0;
+    }
+
+    /**
+     * called by {@link StackPool} when handing pooled arrays to a new stack, and by {@link FiberHibernator}
+     */
+    void setData(long[] dataLong, Object[] dataObject) {
+        this.dataLong = dataLong;
+        this.dataObject = dataObject;
+    }
+
+    long[] getDataLong() {
+        return dataLong;
+    }
+
+    Object[] getDataObject() {
+        return dataObject;
+    }
+
+    boolean isAllocated() {
+        return dataLong != null;
+    }
+
+    private void allocate(int requiredLong, int requiredObject) {
+        final int longSize = Math.max(minLength, requiredLong);
+        final int objectSize = Math.max(minLength, requiredObject);
+        final StackPool pool = fiber.getStackPool();
+        if (pool == null || !pool.acquire(this, longSize, objectSize)) {
+            this.dataLong = new long[longSize];
+            this.dataObject = new Object[objectSize];
+        }
+    }
+
+    /**
+     * called when the fiber has terminated; returns the data arrays to the given pool and drops them.
+     */
+    void release(StackPool pool) {
+        pool.release(dataLong, dataObject);
+        this.dataLong = null;
+        this.dataObject = null;
+        resumeStack();
     }
 
     // for testing/benchmarking only
@@ -82,16 +158,27 @@ public final class Stack implements Serializable {
      * @return the entry point of this method
      */
     public final int nextMethodEntry() {
+        if (dataLong == null) { // nothing has been pushed yet
+            sp += FRAME_RECORD_SIZE;
+            if (fiber.isRecordingLevel(2))
+                fiber.record(2, "Stack", "nextMethodEntry", "%s %s %s", Thread.currentThread().getStackTrace()[2], 0, sp);
+            return 0;
+        }
+
         int idx = 0;
         int slots = 0;
         if (sp > 0) {
-            slots = getNumSlots(dataLong[sp - FRAME_RECORD_SIZE]);
+            final int callerIdx = sp - FRAME_RECORD_SIZE;
+            slots = numSlots(callerIdx);
             idx = sp + slots;
+            spObj += numObjSlots(callerIdx);
         }
         sp = idx + FRAME_RECORD_SIZE;
         long record = dataLong[idx];
-        int entry = getEntry(record);
-        dataLong[idx] = setPrevNumSlots(record, slots);
+        int entry = (record & EXTENDED) == 0 ? getEntry(record) : (int) dataLong[idx + FRAME_RECORD_SIZE];
+        dataLong[idx] = setPrevNumSlots(record, slots < EXTENDED_SLOTS ? slots : EXTENDED_SLOTS);
+        if (statistics != null && entry != 0)
+            statistics.resumed(depth(idx));
         if (fiber.isRecordingLevel(2))
             fiber.record(2, "Stack", "nextMethodEntry", "%s %s %s", Thread.currentThread().getStackTrace()[2], entry, sp /*Arrays.toString(fiber.getStackTrace())*/);
 
@@ -109,7 +196,12 @@ public final class Stack implements Serializable {
             return true;
 
         // not first, but nextMethodEntry returned 0: revert changes
-        sp -= FRAME_RECORD_SIZE + getPrevNumSlots(dataLong[sp - FRAME_RECORD_SIZE]);
+        if (dataLong == null) {
+            sp -= FRAME_RECORD_SIZE;
+            return false;
+        }
+        sp -= FRAME_RECORD_SIZE + prevNumSlots(sp - FRAME_RECORD_SIZE);
+        spObj -= numObjSlots(sp - FRAME_RECORD_SIZE);
 
         return false;
     }
@@ -121,46 +213,110 @@ public final class Stack implements Serializable {
      * @param numSlots   the number of required stack slots for storing the state of the current method
      */
     public final void pushMethod(int entry, int numSlots) {
+        pushMethod(entry, numSlots, numSlots);
+    }
+
+    /**
+     * Called before a method is called, by methods instrumented with compact frames.
+     *
+     * @param entry          the entry point in the current method for resume
+     * @param numSlots       the number of required primitive stack slots for storing the state of the current method
+     * @param numObjSlots    the number of required object stack slots for storing the state of the current method
+     */
+    public final void pushMethod(int entry, int numSlots, int numObjSlots) {
         pushed = true;
 
+        int nextMethodIdx = sp + numSlots;
+        int nextMethodSP = nextMethodIdx + FRAME_RECORD_SIZE;
+        int nextMethodSPObj = spObj + numObjSlots;
+        if (dataLong == null)
+            allocate(nextMethodSP, nextMethodSPObj);
+        else {
+            if (nextMethodSP > dataLong.length)
+                dataLong = Arrays.copyOf(dataLong, grownLength(dataLong.length, nextMethodSP));
+            if (nextMethodSPObj > dataObject.length)
+                dataObject = Arrays.copyOf(dataObject, grownLength(dataObject.length, nextMethodSPObj));
+        }
+
         int idx = sp - FRAME_RECORD_SIZE;
-        long record = dataLong[idx];
+        long record = dataLong[idx] & ~EXTENDED;
         record = setEntry(record, entry);
         record = setNumSlots(record, numSlots);
+        record = setNumObjSlots(record, numObjSlots);
         dataLong[idx] = record;
 
-        int nextMethodIdx = sp + numSlots;
-        int nextMethodSP = nextMethodIdx + FRAME_RECORD_SIZE;
-        if (nextMethodSP > dataObject.length)
-            growStack(nextMethodSP);
-
         // clear next method's frame record
         dataLong[nextMethodIdx] = 0L;
 //        for (int i = 0; i < FRAME_RECORD_SIZE; i++)
 //            dataLong[nextMethodIdx + i] = 0L;
 
+        if (statistics != null)
+            statistics.pushed();
         if (fiber.isRecordingLevel(2))
             fiber.record(2, "Stack", "pushMethod     ", "%s %d %d", Thread.currentThread().getStackTrace()[2], entry, sp /*Arrays.toString(fiber.getStackTrace())*/);
     }
 
+    /**
+     * Called before a method is called, by methods whose entries or slot counts exceed {@link #MAX_ENTRY} or {@link #MAX_SLOTS}.
+     * Such methods store their primitive slots at indices offset by {@link #EXTENDED_FRAME_HEADER}.
+     *
+     * @param entry          the entry point in the current method for resume
+     * @param numSlots       the number of required primitive stack slots for storing the state of the current method
+     * @param numObjSlots    the number of required object stack slots for storing the state of the current method
+     */
+    public final void pushMethodExtended(int entry, int numSlots, int numObjSlots) {
+        pushed = true;
+
+        final int slots = numSlots + EXTENDED_FRAME_OVERHEAD;
+        int nextMethodIdx = sp + slots;
+        int nextMethodSP = nextMethodIdx + FRAME_RECORD_SIZE;
+        int nextMethodSPObj = spObj + numObjSlots;
+        if (dataLong == null)
+            allocate(nextMethodSP, nextMethodSPObj);
+        else {
+            if (nextMethodSP > dataLong.length)
+                dataLong = Arrays.copyOf(dataLong, grownLength(dataLong.length, nextMethodSP));
+            if (nextMethodSPObj > dataObject.length)
+                dataObject = Arrays.copyOf(dataObject, grownLength(dataObject.length, nextMethodSPObj));
+        }
+
+        dataLong[sp - FRAME_RECORD_SIZE] |= EXTENDED;
+        dataLong[sp] = entry;
+        dataLong[sp + 1] = ((long) slots << 32) | (numObjSlots & 0xffffffffL);
+        dataLong[nextMethodIdx - 1] = slots;
+
+        // clear next method's frame record
+        dataLong[nextMethodIdx] = 0L;
+
+        if (statistics != null)
+            statistics.pushed();
+        if (fiber.isRecordingLevel(2))
+            fiber.record(2, "Stack", "pushMethodExt  ", "%s %d %d", Thread.currentThread().getStackTrace()[2], entry, sp);
+    }
+
     public final void popMethod(int slots) {
         pushed = false;
 
-        final int oldSP = sp;
-        final int idx = oldSP - FRAME_RECORD_SIZE;
-        final long record = dataLong[idx];
+        if (dataLong == null) { // nothing has been pushed, so the frame record is clear
+            sp -= FRAME_RECORD_SIZE;
+            return;
+        }
+
+        final int oldSPObj = spObj;
+        final int idx = sp - FRAME_RECORD_SIZE;
         // final int slots = getNumSlots(record);
-        final int newSP = idx - getPrevNumSlots(record);
+        final int newSP = idx - prevNumSlots(idx);
         
         // clear frame record (probably unnecessary)
         dataLong[idx] = 0L;
 //        for (int i = 0; i < FRAME_RECORD_SIZE; i++)
 //            dataLong[idx + i] = 0L;
         // help GC
-        for (int i = oldSP; i < oldSP + slots && i < dataObject.length; i++)
+        for (int i = oldSPObj; i < oldSPObj + slots && i < dataObject.length; i++)
             dataObject[i] = null;
 
         sp = newSP;
+        spObj = newSP > 0 ? oldSPObj - numObjSlots(newSP - FRAME_RECORD_SIZE) : 0;
 
         if (fiber.isRecordingLevel(2))
             fiber.record(2, "Stack", "popMethod      ", "%s %d", Thread.currentThread().getStackTrace()[2], sp /*Arrays.toString(fiber.getStackTrace())*/);        
@@ -174,26 +330,106 @@ public final class Stack implements Serializable {
         fiber.preemptionPoint(type);
     }
 
-    private void growStack(int required) {
-        int newSize = dataObject.length;
+    /**
+     * Marks a loop back-branch in a preemptible method. Inserted by the instrumentation, which then replaces it with a call to
+     * {@link #isPreemptionCheckDue() isPreemptionCheckDue} followed, if it returns {@code true}, by a {@link #preemptionPoint(int) preemptionPoint}.
+     * Does nothing if left in place (i.e., if the method could not be instrumented).
+     */
+    public static void backBranch() {
+    }
+
+    /**
+     * Called by instrumented code at loop back-branches in preemptible methods.
+     *
+     * @return {@code true} once every {@link #PREEMPTION_CHECK_INTERVAL} calls, when the fiber's time slice should be checked.
+     */
+    public final boolean isPreemptionCheckDue() {
+        if (++backBranches < PREEMPTION_CHECK_INTERVAL)
+            return false;
+        backBranches = 0;
+        return true;
+    }
+
+    private static int grownLength(int length, int required) {
+        int newSize = length;
         do {
             newSize *= 2;
         } while (newSize < required);
+        return newSize;
+    }
 
-        dataLong = Arrays.copyOf(dataLong, newSize);
-        dataObject = Arrays.copyOf(dataObject, newSize);
+    /**
+     * Called when the fiber parks, before {@link #resumeStack() resumeStack}.
+     * Shrinks the data arrays if, for {@code parks} consecutive parks, the fiber has parked using less than
+     * {@code lowWatermark} of their length. The new length is such that the largest length used during those parks
+     * takes up {@code highWatermark} of it, but no less than the stack's initial length.
+     * The primitive and object arrays are measured, and shrunk, separately.
+     *
+     * @return the number of bytes reclaimed
+     */
+    long shrinkIfUnderused(int parks, float lowWatermark, float highWatermark) {
+        if (dataObject == null)
+            return 0;
+        final int longLength = dataLong.length;
+        final int objectLength = dataObject.length;
+        if (longLength <= minLength && objectLength <= minLength) // the common case: the stack has never grown
+            return 0;
+
+        // the saved frames take up to the deepest frame's slots, followed (in dataLong) by the next (cleared) frame record
+        final int usedLong = sp > 0 ? sp + numSlots(sp - FRAME_RECORD_SIZE) + FRAME_RECORD_SIZE : 0;
+        final int usedObject = sp > 0 ? spObj + numObjSlots(sp - FRAME_RECORD_SIZE) : 0;
+        if ((longLength > minLength && usedLong >= longLength * lowWatermark)
+                || (objectLength > minLength && usedObject >= objectLength * lowWatermark)) {
+            underusedParks = 0;
+            maxUnderusedLong = 0;
+            maxUnderusedObject = 0;
+            return 0;
+        }
+        if (usedLong > maxUnderusedLong)
+            maxUnderusedLong = usedLong;
+        if (usedObject > maxUnderusedObject)
+            maxUnderusedObject = usedObject;
+        if (++underusedParks < parks)
+            return 0;
+
+        final int newLongLength = Math.max(minLength, (int) Math.ceil(maxUnderusedLong / highWatermark));
+        final int newObjectLength = Math.max(minLength, (int) Math.ceil(maxUnderusedObject / highWatermark));
+        underusedParks = 0;
+        maxUnderusedLong = 0;
+        maxUnderusedObject = 0;
+
+        long reclaimed = 0;
+        if (newLongLength < longLength) {
+            dataLong = Arrays.copyOf(dataLong, newLongLength);
+            reclaimed += (long) (longLength - newLongLength) * 8;
+        }
+        if (newObjectLength < objectLength) {
+            dataObject = Arrays.copyOf(dataObject, newObjectLength);
+            reclaimed += (long) (objectLength - newObjectLength) * REF_BYTES;
+        }
+        if (reclaimed > 0 && fiber.isRecordingLevel(2))
+            fiber.record(2, "Stack", "shrinkIfUnderused", "%s/%s -> %s/%s", longLength, objectLength, dataLong.length, dataObject.length);
+        return reclaimed;
     }
 
     void dump() {
+        if (dataLong == null)
+            return;
         int m = 0;
         int k = 0;
+        int o = 0;
         while (k < sp - 1) {
-            final long record = dataLong[k++];
-            final int slots = getNumSlots(record);
+            final int idx = k++;
+            final int slots = numSlots(idx);
+            final int objSlots = numObjSlots(idx);
+            final boolean extended = (dataLong[idx] & EXTENDED) != 0;
+            final int entry = extended ? (int) dataLong[k] : getEntry(dataLong[idx]);
 
-            System.err.println("\tm=" + (m++) + " entry=" + getEntry(record) + " sp=" + k + " slots=" + slots + " prevSlots=" + getPrevNumSlots(record));
+            System.err.println("\tm=" + (m++) + " entry=" + entry + (extended ? " (extended)" : "") + " sp=" + k + " spObj=" + o + " slots=" + slots + " objSlots=" + objSlots + " prevSlots=" + prevNumSlots(idx));
             for (int i = 0; i < slots; i++, k++)
-                System.err.println("\t\tsp=" + k + " long=" + dataLong[k] + " obj=" + dataObject[k]);
+                System.err.println("\t\tsp=" + k + " long=" + dataLong[k]);
+            for (int i = 0; i < objSlots; i++, o++)
+                System.err.println("\t\tspObj=" + o + " obj=" + dataObject[o]);
         }
     }
 
@@ -224,7 +460,7 @@ public final class Stack implements Serializable {
     public static void push(Object value, Stack s, int idx) {
 //        if (s.fiber.isRecordingLevel(3))
 //            s.fiber.record(3, "Stack", "push", "%d (%d) %s", idx, s.sp + idx, value);
-        s.dataObject[s.sp + idx] = value;
+        s.dataObject[s.spObj + idx] = value;
     }
 
     public final int getInt(int idx) {
@@ -260,14 +496,38 @@ public final class Stack implements Serializable {
     }
 
     public final Object getObject(int idx) {
-        return dataObject[sp + idx];
-//        final Object value = dataObject[sp + idx];
+        return dataObject[spObj + idx];
+//        final Object value = dataObject[spObj + idx];
 //        if (fiber.isRecordingLevel(3))
 //            fiber.record(3, "Stack", "getObject", "%d (%d) %s", idx, sp + idx, value);
 //        return value;
     }
 
     ///////////////////////////////////////////////////////////////
+    // the slot counts of the frame whose record is at idx, extended or not
+    private int numSlots(int idx) {
+        final long record = dataLong[idx];
+        return (record & EXTENDED) == 0 ? getNumSlots(record) : (int) (dataLong[idx + FRAME_RECORD_SIZE + 1] >>> 32);
+    }
+
+    private int numObjSlots(int idx) {
+        final long record = dataLong[idx];
+        return (record & EXTENDED) == 0 ? getNumObjSlots(record) : (int) dataLong[idx + FRAME_RECORD_SIZE + 1];
+    }
+
+    private int prevNumSlots(int idx) {
+        final int prev = getPrevNumSlots(dataLong[idx]);
+        return prev != EXTENDED_SLOTS ? prev : (int) dataLong[idx - 1]; // the caller's trailer
+    }
+
+    // the number of frames up to and including the one whose record is at idx
+    private int depth(int idx) {
+        int depth = 1;
+        for (; idx > 0; idx -= prevNumSlots(idx) + FRAME_RECORD_SIZE)
+            depth++;
+        return depth;
+    }
+
     private static long setEntry(long record, int entry) {
         return setBits(record, 0, 14, entry);
     }
@@ -291,6 +551,14 @@ public final class Stack implements Serializable {
     private static int getPrevNumSlots(long record) {
         return (int) getUnsignedBits(record, 30, 16);
     }
+
+    private static long setNumObjSlots(long record, int numSlots) {
+        return setBits(record, 46, 16, numSlots);
+    }
+
+    private static int getNumObjSlots(long record) {
+        return (int) getUnsignedBits(record, 46, 16);
+    }
     ///////////////////////////////////////////////////////////////
     private static final long MASK_FULL = 0xffffffffffffffffL;
 
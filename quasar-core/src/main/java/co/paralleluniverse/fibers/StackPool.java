@@ -0,0 +1,83 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import java.util.Arrays;
+
+/**
+ * A bounded free list of the data arrays of terminated fibers' {@link Stack stacks}.
+ * Each instance is owned by a single scheduler worker thread, and is not thread-safe.
+ *
+ * @author pron
+ */
+final class StackPool {
+    /**
+     * Stacks that have grown beyond this length are not pooled, so that a single deep fiber doesn't pin a large array.
+     */
+    static final int MAX_POOLED_LENGTH = 1 << 10;
+    private final FibersMonitor monitor;
+    private final long[][] longs;
+    private final Object[][] objects;
+    private int size;
+
+    StackPool(int capacity, FibersMonitor monitor) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity: " + capacity);
+        this.monitor = monitor;
+        this.longs = new long[capacity][];
+        this.objects = new Object[capacity][];
+    }
+
+    /**
+     * Hands a pooled pair of data arrays to the given stack, if one of sufficient length is available.
+     *
+     * @param stack           the stack
+     * @param minLongLength   the minimal required length of the primitive array
+     * @param minObjectLength the minimal required length of the object array
+     * @return {@code true} if the stack has been given pooled arrays; {@code false} if it needs to allocate its own.
+     */
+    boolean acquire(Stack stack, int minLongLength, int minObjectLength) {
+        final int i = size - 1;
+        if (i >= 0 && longs[i].length >= minLongLength && objects[i].length >= minObjectLength) {
+            stack.setData(longs[i], objects[i]);
+            longs[i] = null;
+            objects[i] = null;
+            size = i;
+            if (monitor != null)
+                monitor.stackPoolHit();
+            return true;
+        }
+        if (monitor != null)
+            monitor.stackPoolMiss();
+        return false;
+    }
+
+    /**
+     * Returns the data arrays of a terminated fiber's stack to the pool.
+     * The arrays are cleared before they are pooled. If the pool is full, or the arrays are too large, they are dropped.
+     */
+    void release(long[] dataLong, Object[] dataObject) {
+        if (dataLong == null || size == longs.length || dataLong.length > MAX_POOLED_LENGTH || dataObject.length > MAX_POOLED_LENGTH)
+            return;
+        Arrays.fill(dataLong, 0L);
+        Arrays.fill(dataObject, null); // help GC
+        longs[size] = dataLong;
+        objects[size] = dataObject;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+}
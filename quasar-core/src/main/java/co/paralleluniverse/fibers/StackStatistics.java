@@ -0,0 +1,163 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.monitoring.Counter;
+import co.paralleluniverse.common.monitoring.SimpleMBean;
+import co.paralleluniverse.common.reflection.ASMUtil;
+import co.paralleluniverse.common.util.ExtendedStackTrace;
+import co.paralleluniverse.common.util.ExtendedStackTraceElement;
+import co.paralleluniverse.common.util.SystemProperties;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts, for each suspendable method, the frames it pushes and the times it's resumed, as reported by {@link Stack}.
+ * Enabled by the {@code co.paralleluniverse.fibers.stackStatistics} system property.
+ * <p>
+ * Methods are identified by walking the thread's stack, which is expensive, so this is meant for finding the hot suspendable
+ * paths of a program, not for running in production. They are named by their class, name and descriptor, so that overloads are
+ * counted separately, or, if the method can't be resolved, by their class, name and the line being executed.
+ *
+ * @author pron
+ */
+final class StackStatistics extends SimpleMBean implements StackStatisticsMXBean {
+    static final String PROPERTY = "co.paralleluniverse.fibers.stackStatistics";
+    private static final String OTHER = "<other>";
+    private static final int MAX_METHODS = 4096;
+    private static final String STACK_CLASS = Stack.class.getName();
+    private static final String STATISTICS_CLASS = StackStatistics.class.getName();
+    private static final String STACK_TRACE_CLASS = ExtendedStackTrace.class.getName(); // and its subclasses
+    private final ConcurrentMap<String, Method> methods = new ConcurrentHashMap<>();
+
+    StackStatistics() {
+        super("Fibers", "StackStatistics", null, null);
+    }
+
+    /**
+     * Returns the registered statistics MXBean if the {@code co.paralleluniverse.fibers.stackStatistics} system property is set, or {@code null} otherwise.
+     */
+    static StackStatistics fromSystemProperty() {
+        if (!SystemProperties.isEmptyOrTrue(PROPERTY))
+            return null;
+        final StackStatistics statistics = new StackStatistics();
+        statistics.registerMBean();
+        return statistics;
+    }
+
+    /**
+     * Called by {@link Stack} when the calling method restores its frame.
+     *
+     * @param depth the method's depth in the fiber stack
+     */
+    void resumed(int depth) {
+        final Method m = method(caller());
+        m.resumes.inc();
+        m.totalDepth.add(depth);
+        for (int max; depth > (max = m.maxDepth.get());) {
+            if (m.maxDepth.compareAndSet(max, depth))
+                break;
+        }
+    }
+
+    /**
+     * Called by {@link Stack} when the calling method pushes its frame.
+     */
+    void pushed() {
+        method(caller()).pushes.inc();
+    }
+
+    @Override
+    public SuspendableMethodInfo[] getTopResumedMethods(int n) {
+        final List<SuspendableMethodInfo> infos = infos();
+        return infos.subList(0, Math.min(Math.max(n, 0), infos.size())).toArray(new SuspendableMethodInfo[0]);
+    }
+
+    @Override
+    public void dump(String fileName) {
+        try (PrintStream out = new PrintStream(fileName)) {
+            out.println("method\tresumes\tpushes\tavgDepth\tmaxDepth");
+            for (SuspendableMethodInfo info : infos())
+                out.printf(Locale.ROOT, "%s\t%d\t%d\t%.1f\t%d%n", info.getName(), info.getResumes(), info.getPushes(), info.getAverageDepth(), info.getMaxDepth());
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void reset() {
+        methods.clear();
+    }
+
+    private List<SuspendableMethodInfo> infos() {
+        final List<SuspendableMethodInfo> infos = new ArrayList<>(methods.size());
+        for (Method m : methods.values())
+            infos.add(new SuspendableMethodInfo(m.name, m.resumes.get(), m.pushes.get(), m.totalDepth.get(), m.maxDepth.get()));
+        Collections.sort(infos, new Comparator<SuspendableMethodInfo>() {
+            @Override
+            public int compare(SuspendableMethodInfo o1, SuspendableMethodInfo o2) {
+                return Long.compare(o2.getResumes(), o1.getResumes());
+            }
+        });
+        return infos;
+    }
+
+    private Method method(String name) {
+        Method method = methods.get(name);
+        if (method == null) {
+            if (methods.size() >= MAX_METHODS)
+                name = OTHER;
+            final Method m = new Method(name);
+            method = methods.putIfAbsent(name, m);
+            if (method == null)
+                method = m;
+        }
+        return method;
+    }
+
+    /**
+     * The first method on the thread's stack that isn't {@link Stack}'s.
+     */
+    private static String caller() {
+        for (ExtendedStackTraceElement ste : ExtendedStackTrace.here()) {
+            final String className = ste.getClassName();
+            if (className.equals(STACK_CLASS) || className.equals(STATISTICS_CLASS) || className.startsWith(STACK_TRACE_CLASS))
+                continue;
+            final Member m = ste.getMethod();
+            return className + '.' + ste.getMethodName() + (m != null ? ASMUtil.getDescriptor(m) : ":" + ste.getLineNumber());
+        }
+        return OTHER;
+    }
+
+    private static final class Method {
+        final String name;
+        final Counter resumes = new Counter();
+        final Counter pushes = new Counter();
+        final Counter totalDepth = new Counter();
+        final AtomicInteger maxDepth = new AtomicInteger();
+
+        Method(String name) {
+            this.name = name;
+        }
+    }
+}
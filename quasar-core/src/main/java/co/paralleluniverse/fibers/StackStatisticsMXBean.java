@@ -0,0 +1,38 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+/**
+ * An MXBean that reports, for each suspendable method, how often fibers have resumed it, and how deep in the fiber stack.
+ * Registered only if the {@code co.paralleluniverse.fibers.stackStatistics} system property is set.
+ *
+ * @author pron
+ */
+public interface StackStatisticsMXBean {
+    /**
+     * Returns the {@code n} methods that have been resumed most often, in descending order.
+     *
+     * @param n the maximum number of methods to return
+     */
+    SuspendableMethodInfo[] getTopResumedMethods(int n);
+
+    /**
+     * Writes the statistics of all methods, most often resumed first, to a file.
+     *
+     * @param fileName the name of the file
+     */
+    void dump(String fileName);
+
+    void reset();
+}
@@ -0,0 +1,85 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * How often a suspendable method has pushed and resumed its frame, returned by {@link StackStatisticsMXBean#getTopResumedMethods(int)}.
+ *
+ * @author pron
+ */
+public class SuspendableMethodInfo {
+    private final String name;
+    private final long resumes;
+    private final long pushes;
+    private final long totalDepth;
+    private final int maxDepth;
+
+    @ConstructorProperties({"name", "resumes", "pushes", "totalDepth", "maxDepth"})
+    public SuspendableMethodInfo(String name, long resumes, long pushes, long totalDepth, int maxDepth) {
+        this.name = name;
+        this.resumes = resumes;
+        this.pushes = pushes;
+        this.totalDepth = totalDepth;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * The method's class, name and descriptor, e.g. {@code com.example.Foo.bar(I)V}.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The number of times the method's frame has been restored when a fiber was resumed.
+     */
+    public long getResumes() {
+        return resumes;
+    }
+
+    /**
+     * The number of times the method has pushed its frame before calling a suspendable method.
+     */
+    public long getPushes() {
+        return pushes;
+    }
+
+    /**
+     * The sum of the method's depths in the fiber stack at each of its {@link #getResumes() resumes}.
+     */
+    public long getTotalDepth() {
+        return totalDepth;
+    }
+
+    /**
+     * The method's greatest depth in the fiber stack when resumed.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * The method's average depth in the fiber stack when resumed, which is the number of frames restored, on average, to resume it.
+     */
+    public double getAverageDepth() {
+        return resumes != 0 ? (double) totalDepth / resumes : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return "SuspendableMethodInfo{" + "name: " + name + " resumes: " + resumes + " pushes: " + pushes + " maxDepth: " + maxDepth + '}';
+    }
+}
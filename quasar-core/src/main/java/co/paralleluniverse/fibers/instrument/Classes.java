@@ -33,6 +33,9 @@ public final class Classes {
         new BlockingMethod("java/lang/Thread", "sleep", "(J)V", "(JI)V"),
         new BlockingMethod("java/lang/Thread", "join", "()V", "(J)V", "(JI)V"),
         new BlockingMethod("java/lang/Object", "wait", "()V", "(J)V", "(JI)V"),};
+    // indices into BLOCKING_METHODS
+    static final int BLOCKING_SLEEP = 0;
+    static final int BLOCKING_JOIN = 1;
 
     private static final Set<String> yieldMethods = new HashSet<>(Arrays.asList(new String[]{
         "park", "yield", "parkAndUnpark", "yieldAndUnpark", "parkAndSerialize"
@@ -42,6 +45,7 @@ public final class Classes {
     static final String STACK_NAME       = /*Stack.class.getName()*/ "co.paralleluniverse.fibers.Stack".replace('.', '/');
     static final String FIBER_CLASS_NAME = /*Fiber.class.getName()*/ "co.paralleluniverse.fibers.Fiber".replace('.', '/');
     static final String STRAND_NAME      = /*Strand.class.getName()*/"co.paralleluniverse.strands.Strand".replace('.', '/');
+    static final String BLOCKING_POOL_NAME = /*FiberBlockingPool.class.getName()*/"co.paralleluniverse.fibers.FiberBlockingPool".replace('.', '/');
 
     static final String THROWABLE_NAME         = Throwable.class.getName().replace('.', '/');
     static final String EXCEPTION_NAME         = Exception.class.getName().replace('.', '/');
@@ -57,11 +61,19 @@ public final class Classes {
     static final String DONT_INSTRUMENT_DESC = Type.getDescriptor(DontInstrument.class);
     static final String INSTRUMENTED_DESC = Type.getDescriptor(Instrumented.class);
     static final String LAMBDA_METHOD_PREFIX = "lambda$";
+    static final String BACK_BRANCH_MARKER_NAME = "backBranch";
 
     static boolean isYieldMethod(String className, String methodName) {
         return FIBER_CLASS_NAME.equals(className) && yieldMethods.contains(methodName);
     }
 
+    /**
+     * Whether the call is to the marker inserted at loop back-branches of preemptible methods ({@code Stack.backBranch}).
+     */
+    static boolean isBackBranchMarker(String className, String methodName) {
+        return STACK_NAME.equals(className) && BACK_BRANCH_MARKER_NAME.equals(methodName);
+    }
+
     /**
      * @noinspection UnusedParameters
      */
@@ -46,11 +46,15 @@ import static co.paralleluniverse.fibers.instrument.QuasarInstrumentor.ASMAPI;
 import co.paralleluniverse.fibers.instrument.MethodDatabase.ClassEntry;
 import co.paralleluniverse.fibers.instrument.MethodDatabase.SuspendableType;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
 import org.objectweb.asm.commons.JSRInlinerAdapter;
 import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.MethodNode;
@@ -74,6 +78,7 @@ class InstrumentClass extends ClassVisitor {
     private ClassEntry classEntry;
     private boolean alreadyInstrumented;
     private ArrayList<MethodNode> methods;
+    private final Set<String> finalFields = new HashSet<>();
 
     private RuntimeException exception;
 
@@ -138,6 +143,13 @@ class InstrumentClass extends ClassVisitor {
         return super.visitAnnotation(desc, visible);
     }
 
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        if ((access & Opcodes.ACC_FINAL) != 0)
+            finalFields.add(name);
+        return super.visitField(access, name, desc, signature, value);
+    }
+
     @Override
     public MethodVisitor visitMethod(final int access, final String name, final String desc, final String signature, final String[] exceptions) {
         SuspendableType markedSuspendable = null;
@@ -248,12 +260,19 @@ class InstrumentClass extends ClassVisitor {
                     classEntry.setInstrumented(true);
                 }
 
+                final InstrumentationStatistics statistics = db.getStatistics();
                 for (MethodNode mn : methods) {
                     final MethodVisitor outMV = makeOutMV(mn);
                     try {
-                        InstrumentMethod im = new InstrumentMethod(db, sourceName, className, mn);
+                        final int codeSizeBefore = statistics != null ? codeSize(mn) : 0;
+                        InstrumentMethod im = new InstrumentMethod(db, sourceName, className, finalFields, mn);
                         db.log(LogLevel.DEBUG, "About to instrument method %s#%s%s", className, mn.name, mn.desc);
-                        im.accept(outMV, hasAnnotation(mn));
+                        if (statistics != null) {
+                            final CodeSizeEvaluator codeSize = new CodeSizeEvaluator(outMV);
+                            im.accept(codeSize, hasAnnotation(mn));
+                            statistics.record(className, mn.name, mn.desc, im.isFrameless(), im.getNumCallSites(), im.getNumSavedSlots(), codeSizeBefore, codeSize.getMaxSize());
+                        } else
+                            im.accept(outMV, hasAnnotation(mn));
                     } catch (UnableToInstrumentException e) {
                         db.log(LogLevel.WARNING, "UnableToInstrumentException encountered when instrumenting %s#%s%s: %s", 
                                 className, mn.name, mn.desc, e.getMessage());
@@ -298,6 +317,12 @@ class InstrumentClass extends ClassVisitor {
         return super.visitMethod(mn.access, mn.name, mn.desc, mn.signature, toStringArray(mn.exceptions));
     }
 
+    private static int codeSize(MethodNode mn) {
+        final CodeSizeEvaluator codeSize = new CodeSizeEvaluator(null);
+        mn.accept(codeSize);
+        return codeSize.getMaxSize();
+    }
+
     private static boolean isSynchronized(int access) {
         return (access & Opcodes.ACC_SYNCHRONIZED) != 0;
     }
@@ -41,7 +41,7 @@
  */
 package co.paralleluniverse.fibers.instrument;
 
-// import co.paralleluniverse.common.util.SystemProperties;
+import co.paralleluniverse.common.util.SystemProperties;
 import co.paralleluniverse.fibers.Instrumented;
 import co.paralleluniverse.fibers.Stack;
 import static co.paralleluniverse.fibers.instrument.Classes.INSTRUMENTED_DESC;
@@ -54,13 +54,20 @@ import static co.paralleluniverse.fibers.instrument.Classes.STACK_NAME;
 import static co.paralleluniverse.fibers.instrument.Classes.UNDECLARED_THROWABLE_NAME;
 import static co.paralleluniverse.fibers.instrument.Classes.isAllowedToBlock;
 import static co.paralleluniverse.fibers.instrument.Classes.blockingCallIdx;
+import static co.paralleluniverse.fibers.instrument.Classes.BLOCKING_SLEEP;
+import static co.paralleluniverse.fibers.instrument.Classes.BLOCKING_JOIN;
+import static co.paralleluniverse.fibers.instrument.Classes.BLOCKING_POOL_NAME;
+import static co.paralleluniverse.fibers.instrument.Classes.STRAND_NAME;
 import static co.paralleluniverse.fibers.instrument.Classes.isYieldMethod;
+import static co.paralleluniverse.fibers.instrument.Classes.isBackBranchMarker;
+import static co.paralleluniverse.fibers.instrument.Classes.BACK_BRANCH_MARKER_NAME;
 import co.paralleluniverse.fibers.instrument.MethodDatabase.SuspendableType;
 import static co.paralleluniverse.fibers.instrument.MethodDatabase.isInvocationHandlerInvocation;
 import static co.paralleluniverse.fibers.instrument.MethodDatabase.isMethodHandleInvocation;
 import static co.paralleluniverse.fibers.instrument.MethodDatabase.isReflectInvocation;
 import static co.paralleluniverse.fibers.instrument.MethodDatabase.isSyntheticAccess;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -72,14 +79,17 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
 import org.objectweb.asm.tree.TryCatchBlockNode;
 import org.objectweb.asm.tree.analysis.Analyzer;
 import org.objectweb.asm.tree.analysis.AnalyzerException;
@@ -96,9 +106,10 @@ import org.objectweb.asm.tree.analysis.Value;
 class InstrumentMethod {
     private static final boolean optimizationDisabled = false; // SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.disableInstrumentationOptimization");
     private static final boolean HANDLE_PROXY_INVOCATIONS = true;
+    private static final boolean livenessAnalysisDisabled = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.disableLivenessAnalysis");
 
     // private final boolean verifyInstrumentation; //
-    // private static final int PREEMPTION_BACKBRANCH = 0;
+    private static final int PREEMPTION_BACKBRANCH = 0;
     // private static final int PREEMPTION_CALL = 1;
     private static final int NUM_LOCALS = 3; // = 3 + (verifyInstrumentation ? 1 : 0); // lvarStack, lvarResumed, lvarInvocationReturnValue
     private static final int ADD_OPERANDS = 6; // 4;
@@ -109,9 +120,11 @@ class InstrumentMethod {
 
     private final String sourceName;
     private final String className;
+    private final Set<String> finalFields; // the final fields declared by the class
 
     private final MethodNode mn;
     private final Frame[] frames;
+    private final BitSet[] liveLocals; // null if all locals are considered live
 
     private final int lvarStack; // ref to Stack
     private final int lvarResumed; // boolean indicating if we've been resumed
@@ -125,6 +138,8 @@ class InstrumentMethod {
 
     private int additionalLocals;
     private int maxRefSlots;
+    private boolean extendedFrames; // the method's entries or slots don't fit in a frame record
+    private boolean frameless; // the method's instrumentation has been skipped
 
     private boolean warnedAboutMonitors;
     private int warnedAboutBlocking;
@@ -137,15 +152,22 @@ class InstrumentMethod {
     private String[] suspCallsNames = new String[0];
     private int[] suspCallsBcis = null;
 
-    InstrumentMethod(MethodDatabase db, String sourceName, String className, MethodNode mn) throws AnalyzerException {
+    InstrumentMethod(MethodDatabase db, String sourceName, String className, Set<String> finalFields, MethodNode mn) throws AnalyzerException {
         this.db = db;
         this.sourceName = sourceName;
         this.className = className;
+        this.finalFields = finalFields;
         this.mn = mn;
 
+        if (db.isPreemptible(className) && mn.name.charAt(0) != '<')
+            insertBackBranchMarkers();
+        if (db.isOffloadBlocking() && !isAllowedToBlock(className, mn.name))
+            offloadBlockingCalls();
+
         try {
             Analyzer a = new TypeAnalyzer(db);
             this.frames = a.analyze(className, mn);
+            this.liveLocals = livenessAnalysisDisabled ? null : LivenessAnalyzer.analyze(mn);
             this.lvarStack = mn.maxLocals;
             this.lvarResumed = mn.maxLocals + 1;
             this.lvarInvocationReturnValue = mn.maxLocals + 2;
@@ -157,6 +179,75 @@ class InstrumentMethod {
         }
     }
 
+    /**
+     * Inserts a {@code Stack.backBranch} marker at the head of each loop, i.e., at the target of every backward jump, including
+     * those of {@code tableswitch} and {@code lookupswitch} instructions. The marker is treated as a call to a yield method,
+     * and is emitted as a preemption point.
+     */
+    private void insertBackBranchMarkers() {
+        if ((mn.access & Opcodes.ACC_SYNCHRONIZED) != 0)
+            return; // a fiber mustn't be preempted while holding a monitor
+        final InsnList insns = mn.instructions;
+        final Set<LabelNode> loopHeads = new HashSet<>();
+        for (int i = 0; i < insns.size(); i++) {
+            final AbstractInsnNode in = insns.get(i);
+            if (in.getOpcode() == Opcodes.MONITORENTER)
+                return;
+            if (in instanceof JumpInsnNode)
+                addLoopHead(loopHeads, ((JumpInsnNode) in).label, i);
+            else if (in instanceof TableSwitchInsnNode) {
+                addLoopHead(loopHeads, ((TableSwitchInsnNode) in).dflt, i);
+                for (LabelNode l : ((TableSwitchInsnNode) in).labels)
+                    addLoopHead(loopHeads, l, i);
+            } else if (in instanceof LookupSwitchInsnNode) {
+                addLoopHead(loopHeads, ((LookupSwitchInsnNode) in).dflt, i);
+                for (LabelNode l : ((LookupSwitchInsnNode) in).labels)
+                    addLoopHead(loopHeads, l, i);
+            }
+        }
+        for (LabelNode l : loopHeads) {
+            AbstractInsnNode at = l;
+            while (at.getNext() != null && at.getNext().getType() == AbstractInsnNode.LINE)
+                at = at.getNext();
+            insns.insert(at, new MethodInsnNode(Opcodes.INVOKESTATIC, STACK_NAME, BACK_BRANCH_MARKER_NAME, "()V", false));
+        }
+        if (!loopHeads.isEmpty())
+            db.log(LogLevel.DEBUG, "Inserted %d preemption points in method %s#%s%s", loopHeads.size(), className, mn.name, mn.desc);
+    }
+
+    private void addLoopHead(Set<LabelNode> loopHeads, LabelNode target, int jumpIndex) {
+        if (mn.instructions.indexOf(target) <= jumpIndex) // a backward jump
+            loopHeads.add(target);
+    }
+
+    /**
+     * Replaces the allowed blocking calls that can be made without blocking the fiber's thread with calls that don't:
+     * {@code Thread.sleep} with {@code Strand.sleep}, and {@code Thread.join} with {@code FiberBlockingPool.join}, which runs it on the
+     * scheduler's blocking pool. Both are suspendable, and are instrumented as such. {@code Object.wait} must be called by the thread
+     * holding the monitor, so it is left as it is.
+     */
+    private void offloadBlockingCalls() {
+        for (AbstractInsnNode in = mn.instructions.getFirst(); in != null; in = in.getNext()) {
+            if (in.getType() != AbstractInsnNode.METHOD_INSN)
+                continue;
+            final MethodInsnNode min = (MethodInsnNode) in;
+            final String call = min.owner + '#' + min.name + min.desc;
+            switch (blockingCallIdx(min)) {
+                case BLOCKING_SLEEP: // same descriptors
+                    min.owner = STRAND_NAME;
+                    break;
+                case BLOCKING_JOIN:
+                    min.setOpcode(Opcodes.INVOKESTATIC);
+                    min.owner = BLOCKING_POOL_NAME;
+                    min.desc = "(Ljava/lang/Thread;" + min.desc.substring(1);
+                    break;
+                default:
+                    continue;
+            }
+            db.log(LogLevel.INFO, "Method %s:%s#%s%s: replaced blocking call to %s with %s#%s%s", sourceName, className, mn.name, mn.desc, call, min.owner, min.name, min.desc);
+        }
+    }
+
     private void collectCallsites() {
         if (suspCallsBcis == null) {
             suspCallsBcis = new int[8];
@@ -225,6 +316,7 @@ class InstrumentMethod {
         boolean susp = true;
         if (type == AbstractInsnNode.METHOD_INSN) {
             if (!isSyntheticAccess(owner, name)
+                && !isBackBranchMarker(owner, name)
                 && !isReflectInvocation(owner, name)
                 && !isMethodHandleInvocation(owner, name)
                 && !isInvocationHandlerInvocation(owner, name)) {
@@ -260,7 +352,9 @@ class InstrumentMethod {
                     if (in.getType() == AbstractInsnNode.METHOD_INSN) {
                         final MethodInsnNode min = (MethodInsnNode) in;
                         int opcode = min.getOpcode();
-                        if (isSyntheticAccess(min.owner, min.name))
+                        if (isBackBranchMarker(min.owner, min.name))
+                            db.log(LogLevel.DEBUG, "Preemption point at instruction %d", i);
+                        else if (isSyntheticAccess(min.owner, min.name))
                             db.log(LogLevel.DEBUG, "Synthetic accessor method call at instruction %d is assumed suspendable", i);
                         else if (isReflectInvocation(min.owner, min.name))
                             db.log(LogLevel.DEBUG, "Reflective method call at instruction %d is assumed suspendable", i);
@@ -333,6 +427,7 @@ class InstrumentMethod {
 
         collectCallsites();
         final boolean skipInstrumentation = canInstrumentationBeSkipped(suspCallsBcis);
+        this.frameless = skipInstrumentation;
         emitInstrumentedAnn(db, mv, mn, sourceName, className, skipInstrumentation,
                 startSourceLine, endSourceLine, suspCallsSourceLines, suspCallsNames, null);
 
@@ -425,6 +520,13 @@ class InstrumentMethod {
 
         mv.visitTryCatchBlock(lMethodStart, lMethodEnd, lCatchAll, null);
 
+        if (startSourceLine != -1) {
+            // attribute the prologue to the method's first line, so that stack traces taken while resuming can tell overloads apart
+            final Label lPrologue = new Label();
+            mv.visitLabel(lPrologue);
+            mv.visitLineNumber(startSourceLine, lPrologue);
+        }
+
         mv.visitMethodInsn(Opcodes.INVOKESTATIC, STACK_NAME, "getStack", "()L" + STACK_NAME + ";", false);
         mv.visitInsn(Opcodes.DUP);
         mv.visitVarInsn(Opcodes.ASTORE, lvarStack);
@@ -465,7 +567,36 @@ class InstrumentMethod {
             // Emit instrumented call
             final AbstractInsnNode min = mn.instructions.get(fi.endInstruction);
             final String owner = getMethodOwner(min), name = getMethodName(min), desc = getMethodDesc(min);
-            if (isYieldMethod(owner, name)) { // special case - call to yield
+            if (isBackBranchMarker(owner, name)) { // preemption point - like a call to yield, but the state is stored only if we might yield
+                final Label lSkip = new Label();
+
+                // DUAL
+                mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
+                mv.visitJumpInsn(Opcodes.IFNULL, lSkip);
+
+                mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "isPreemptionCheckDue", "()Z", false);
+                mv.visitJumpInsn(Opcodes.IFEQ, lSkip);
+
+                emitStoreState(mv, i, fi, 0);
+                emitStoreResumed(mv, false); // we have not been resumed
+
+                emitPreemptionPoint(mv, PREEMPTION_BACKBRANCH); // may yield
+                mv.visitLabel(lMethodCalls[i - 1]);             // we resume AFTER the preemption point
+
+                final Label afterPostRestore = new Label();
+                mv.visitVarInsn(Opcodes.ILOAD, lvarResumed);
+                mv.visitJumpInsn(Opcodes.IFEQ, afterPostRestore);
+                emitPostRestore(mv);
+                mv.visitLabel(afterPostRestore);
+
+                emitRestoreState(mv, i, fi, 0);
+
+                mv.visitLabel(lSkip);
+                mv.visitInsn(Opcodes.NOP); // see #211 below
+
+                dumpCodeBlock(mv, i, 1 /* skip the marker */);
+            } else if (isYieldMethod(owner, name)) { // special case - call to yield
                 if (min.getOpcode() != Opcodes.INVOKESTATIC)
                     throw new UnableToInstrumentException("invalid call to suspending method.", className, mn.name, mn.desc);
 
@@ -578,6 +709,32 @@ class InstrumentMethod {
         }
         mv.visitMaxs(mn.maxStack + ADD_OPERANDS, mn.maxLocals + NUM_LOCALS + additionalLocals); // Needed by ASM analysis
         mv.visitEnd();
+
+        db.log(LogLevel.INFO, "Instrumented method %s:%s#%s%s: %d suspendable call sites, %d slots saved", sourceName, className, mn.name, mn.desc, getNumCallSites(), getNumSavedSlots());
+    }
+
+    /**
+     * Whether the method has been left uninstrumented, and so pushes no frame. Valid after {@link #accept(MethodVisitor, boolean) accept}.
+     */
+    boolean isFrameless() {
+        return frameless;
+    }
+
+    /**
+     * The number of suspendable calls in the method. Valid after {@link #accept(MethodVisitor, boolean) accept}.
+     */
+    int getNumCallSites() {
+        return suspCallsBcis != null ? suspCallsBcis.length : 0;
+    }
+
+    /**
+     * The total number of slots the method saves at all of its suspendable call sites. Valid after {@link #accept(MethodVisitor, boolean) accept}.
+     */
+    int getNumSavedSlots() {
+        int slots = 0;
+        for (int i = 1; i < numCodeBlocks; i++)
+            slots += codeBlocks[i].numPrimSlots + codeBlocks[i].numObjSlots;
+        return slots;
     }
 
     private boolean canInstrumentationBeSkipped(int[] susCallsIndexes) {
@@ -605,6 +762,8 @@ class InstrumentMethod {
         assert isSuspendableCall(db, susCall);
         if (isYieldMethod(getMethodOwner(susCall), getMethodName(susCall)))
             return false; // yield calls require instrumentation (to skip the call when resuming)
+        if (isBackBranchMarker(getMethodOwner(susCall), getMethodName(susCall)))
+            return false; // preemption points are emitted by the instrumentation
         if (isReflectInvocation(getMethodOwner(susCall), getMethodName(susCall)))
             return false; // Reflective calls require instrumentation to handle SuspendExecution wrapped in InvocationTargetException
         if (hasSuspendableTryCatchBlocksAround(susCallBci))
@@ -616,7 +775,7 @@ class InstrumentMethod {
 
             if (ins.getType() == AbstractInsnNode.METHOD_INSN || ins.getType() == AbstractInsnNode.INVOKE_DYNAMIC_INSN)
                 return false; // methods calls might have side effects
-            if (ins.getType() == AbstractInsnNode.FIELD_INSN)
+            if (ins.getType() == AbstractInsnNode.FIELD_INSN && !isFinalFieldRead((FieldInsnNode) ins))
                 return false; // side effects
             if (ins instanceof JumpInsnNode && mn.instructions.indexOf(((JumpInsnNode) ins).label) <= i)
                 return false; // back branches may be costly, so we'd rather capture state
@@ -638,6 +797,15 @@ class InstrumentMethod {
         return true;
     }
 
+    /**
+     * Whether the instruction reads a final field of this class, which, when the method is resumed, is read again with the same result.
+     */
+    private boolean isFinalFieldRead(FieldInsnNode ins) {
+        return db.isFramelessForwarders()
+               && (ins.getOpcode() == Opcodes.GETFIELD || ins.getOpcode() == Opcodes.GETSTATIC)
+               && ins.owner.equals(className) && finalFields.contains(ins.name);
+    }
+
     private boolean hasSuspendableTryCatchBlocksAround(int bci) {
         //noinspection unchecked
         for (final TryCatchBlockNode tcb : (List<TryCatchBlockNode>) mn.tryCatchBlocks) {
@@ -746,9 +914,14 @@ class InstrumentMethod {
             System.arraycopy(codeBlocks, 0, newArray, 0, codeBlocks.length);
             codeBlocks = newArray;
         }
-        FrameInfo fi = new FrameInfo(f, firstLocal, end, mn.instructions, db);
+        FrameInfo fi = new FrameInfo(f, firstLocal, end, liveLocals != null && f != null ? liveLocals[end] : null, mn.instructions, db);
         codeBlocks[numCodeBlocks] = fi;
         this.maxRefSlots = Math.max(maxRefSlots, fi.numObjSlots);
+        if (numCodeBlocks > Stack.MAX_ENTRY || fi.numSlots > Stack.MAX_SLOTS) {
+            if (!extendedFrames)
+                db.log(LogLevel.INFO, "Using extended frames for method %s:%s#%s%s", sourceName, className, mn.name, mn.desc);
+            this.extendedFrames = true;
+        }
         return fi;
     }
 
@@ -947,10 +1120,7 @@ class InstrumentMethod {
     }
 
     private void emitStoreState(MethodVisitor mv, int idx, FrameInfo fi, int numArgsToPreserve) {
-        if (idx > Stack.MAX_ENTRY)
-            throw new IllegalArgumentException("Entry index (PC) " + idx + " greater than maximum of " + Stack.MAX_ENTRY + " in " + className + "." + mn.name + mn.desc);
-        if (fi.numSlots > Stack.MAX_SLOTS)
-            throw new IllegalArgumentException("Number of slots required " + fi.numSlots + " greater than maximum of " + Stack.MAX_SLOTS + " in " + className + "." + mn.name + mn.desc);
+        final boolean compact = db.isCompactFrames();
 
         Frame f = frames[fi.endInstruction];
 
@@ -959,8 +1129,20 @@ class InstrumentMethod {
 
         mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
         emitConst(mv, idx);
-        emitConst(mv, fi.numSlots);
-        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "pushMethod", "(II)V", false);
+        if (extendedFrames) {
+            // only oversized methods pay for the extended frame's header and trailer
+            emitConst(mv, compact ? fi.numPrimSlots : fi.numSlots);
+            emitConst(mv, compact ? fi.numObjSlots : fi.numSlots);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "pushMethodExtended", "(III)V", false);
+        } else if (compact) {
+            // primitive and object slots are indexed separately, so each region is sized exactly
+            emitConst(mv, fi.numPrimSlots);
+            emitConst(mv, fi.numObjSlots);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "pushMethod", "(III)V", false);
+        } else {
+            emitConst(mv, fi.numSlots);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "pushMethod", "(II)V", false);
+        }
 
         // store operand stack
         for (int i = f.getStackSize(); i-- > 0;) {
@@ -980,7 +1162,7 @@ class InstrumentMethod {
         // store local vars
         for (int i = firstLocal; i < f.getLocals(); i++) {
             BasicValue v = (BasicValue) f.getLocal(i);
-            if (!isNullType(v)) {
+            if (!isNullType(v) && fi.isLive(i)) {
                 mv.visitVarInsn(v.getType().getOpcode(Opcodes.ILOAD), i);
                 int slotIdx = fi.localSlotIndices[i];
                 assert slotIdx >= 0 && slotIdx < fi.numSlots;
@@ -1008,6 +1190,8 @@ class InstrumentMethod {
         // restore local vars
         for (int i = firstLocal; i < f.getLocals(); i++) {
             BasicValue v = (BasicValue) f.getLocal(i);
+            if (!fi.isLive(i))
+                continue; // dead locals are left unassigned
             if (!isNullType(v)) {
                 int slotIdx = fi.localSlotIndices[i];
                 assert slotIdx >= 0 && slotIdx < fi.numSlots;
@@ -1041,7 +1225,6 @@ class InstrumentMethod {
         mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "postRestore", "()V", false);
     }
 
-    /*
     private void emitPreemptionPoint(MethodVisitor mv, int type) {
         mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
         switch (type) {
@@ -1062,7 +1245,7 @@ class InstrumentMethod {
         }
         mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "preemptionPoint", "(I)V", false);
     }
-     */
+
     private void emitStoreValue(MethodVisitor mv, BasicValue v, int lvarStack, int idx, @SuppressWarnings("UnusedParameters") int lvar) throws InternalError, IndexOutOfBoundsException {
         String desc;
 
@@ -1094,13 +1277,13 @@ class InstrumentMethod {
         mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
 //        if (v.getType().getSort() == Type.OBJECT || v.getType().getSort() == Type.ARRAY)
 //            println(mv, "STORE " + (lvar >= 0 ? ("VAR " + lvar + ": ") : "OPRND: "));
-        emitConst(mv, idx);
+        emitConst(mv, slot(v, idx));
         mv.visitMethodInsn(Opcodes.INVOKESTATIC, STACK_NAME, "push", desc, false);
     }
 
     private void emitRestoreValue(MethodVisitor mv, BasicValue v, int lvarStack, int idx, @SuppressWarnings("UnusedParameters") int lvar) {
         mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
-        emitConst(mv, idx);
+        emitConst(mv, slot(v, idx));
 
         switch (v.getType().getSort()) {
             case Type.OBJECT:
@@ -1144,6 +1327,13 @@ class InstrumentMethod {
         }
     }
 
+    /**
+     * The index passed to Stack for a value in the given slot; in extended frames, the primitive slots follow the frame's header.
+     */
+    private int slot(BasicValue v, int idx) {
+        return extendedFrames && !v.isReference() ? idx + Stack.EXTENDED_FRAME_HEADER : idx;
+    }
+
     private static boolean isNullType(BasicValue v) {
         return (v == BasicValue.UNINITIALIZED_VALUE)
                || (v.isReference() && v.getType().getInternalName().equals("null"));
@@ -1211,17 +1401,20 @@ class InstrumentMethod {
     }
 
     private static class FrameInfo {
-        static final FrameInfo FIRST = new FrameInfo(null, 0, 0, null, null);
+        static final FrameInfo FIRST = new FrameInfo(null, 0, 0, null, null, null);
         final int endInstruction;
         final int numSlots;
+        final int numPrimSlots;
         final int numObjSlots;
         final int[] localSlotIndices;
         final int[] stackSlotIndices;
+        final BitSet liveLocals; // null if all are live
         BlockLabelNode lBefore;
         BlockLabelNode lAfter;
 
-        FrameInfo(Frame f, int firstLocal, int endInstruction, InsnList insnList, MethodDatabase db) {
+        FrameInfo(Frame f, int firstLocal, int endInstruction, BitSet liveLocals, InsnList insnList, MethodDatabase db) {
             this.endInstruction = endInstruction;
+            this.liveLocals = liveLocals;
 
             int idxObj = 0;
             int idxPrim = 0;
@@ -1255,7 +1448,7 @@ class InstrumentMethod {
                 localSlotIndices = new int[f.getLocals()];
                 for (int i = firstLocal; i < f.getLocals(); i++) {
                     BasicValue v = (BasicValue) f.getLocal(i);
-                    if (!isNullType(v)) {
+                    if (!isNullType(v) && isLive(i)) {
                         if (v.isReference())
                             localSlotIndices[i] = idxObj++;
                         else
@@ -1269,9 +1462,17 @@ class InstrumentMethod {
             }
 
             numSlots = Math.max(idxPrim, idxObj);
+            numPrimSlots = idxPrim;
             numObjSlots = idxObj;
         }
 
+        /**
+         * Whether the local is read after the call, and so must be saved and restored.
+         */
+        boolean isLive(int local) {
+            return liveLocals == null || liveLocals.get(local);
+        }
+
         LabelNode createBeforeLabel() {
             if (lBefore == null)
                 lBefore = new BlockLabelNode(endInstruction);
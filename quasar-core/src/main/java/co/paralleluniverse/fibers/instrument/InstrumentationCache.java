@@ -0,0 +1,265 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.instrument.MethodDatabase.ClassEntry;
+import co.paralleluniverse.fibers.instrument.MethodDatabase.SuspendableType;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * An on-disk cache of instrumented classes, used by the {@link JavaAgent Java agent} to skip the analysis of classes it has instrumented
+ * in a previous run. Enabled by setting the {@code co.paralleluniverse.fibers.instrumentationCache} system property to the cache's directory.
+ * <p>
+ * An entry holds a class's instrumented bytes and its {@link MethodDatabase} entry, and is keyed by a hash of the original class bytes,
+ * the Quasar version, the instrumentation settings, and the class path (where the {@link SuspendableClassifier classifiers} find their
+ * configuration). How a class is instrumented also depends on the suspendability of the methods it calls, so an entry records the
+ * suspendability of each, as resolved when the class was instrumented, and is only used if they all resolve the same way through the
+ * current class loader. Entries that no longer match are simply never read; the directory may be deleted at any time.
+ * <p>
+ * Entries are written to a temporary file and then moved into place, so several JVMs may share the same directory.
+ *
+ * @author pron
+ */
+final class InstrumentationCache {
+    static final String PROPERTY = "co.paralleluniverse.fibers.instrumentationCache";
+    private static final int MAGIC = 0x51554943; // QUIC
+    private static final int FORMAT = 2;
+    private final Path dir;
+    private final QuasarInstrumentor instrumentor;
+    private final byte[] environment;
+
+    InstrumentationCache(Path dir, QuasarInstrumentor instrumentor) {
+        this.dir = dir;
+        this.instrumentor = instrumentor;
+        this.environment = environment();
+    }
+
+    /**
+     * Returns the cache configured by the {@code co.paralleluniverse.fibers.instrumentationCache} system property, or {@code null} if none is.
+     */
+    static InstrumentationCache fromSystemProperty(QuasarInstrumentor instrumentor) {
+        final String dir = System.getProperty(PROPERTY);
+        if (dir == null || dir.isEmpty())
+            return null;
+        return new InstrumentationCache(Paths.get(dir), instrumentor);
+    }
+
+    /**
+     * Instruments a class with the given instrumentor, unless the cache holds an up-to-date instrumentation of the class.
+     */
+    byte[] instrumentClass(ClassLoader loader, String className, byte[] classfile) throws IOException {
+        final MethodDatabase db = instrumentor.getMethodDatabase(loader);
+        final Entry hit = get(db, className, classfile);
+        if (hit != null) {
+            instrumentor.log(LogLevel.DEBUG, "Instrumentation cache hit: %s", className);
+            db.recordSuspendableMethods(className, hit.classEntry);
+            return hit.bytes;
+        }
+
+        final byte[] transformed;
+        final Map<String, SuspendableType> callees;
+        db.startRecordingLookups();
+        try {
+            transformed = instrumentor.instrumentClass(loader, className, classfile);
+        } finally {
+            callees = db.stopRecordingLookups();
+        }
+        final ClassEntry classEntry = db.getClassEntry(className);
+        if (transformed != null && classEntry != null)
+            put(className, classfile, transformed, classEntry, callees);
+        return transformed;
+    }
+
+    /**
+     * Returns the cached instrumentation of a class, or {@code null} if it isn't in the cache, or if the suspendability of any of the methods
+     * it calls, as resolved by the given database, has changed.
+     */
+    Entry get(MethodDatabase db, String className, byte[] classfile) {
+        final Path file = file(key(className, classfile));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT || !in.readUTF().equals(className))
+                return null;
+            final ClassEntry classEntry = ClassEntry.readFrom(in);
+            final int numCallees = in.readInt();
+            for (int i = 0; i < numCallees; i++) {
+                final String[] callee = in.readUTF().split(" ");
+                final int type = in.readByte();
+                final SuspendableType st = db.isMethodSuspendable(callee[0], callee[1], callee[2], Integer.parseInt(callee[3]));
+                if ((st != null ? st.ordinal() : -1) != type) {
+                    instrumentor.log(LogLevel.DEBUG, "Stale instrumentation cache entry for %s: %s#%s%s is now %s", className, callee[0], callee[1], callee[2], st);
+                    return null;
+                }
+            }
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new Entry(bytes, classEntry);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            instrumentor.log(LogLevel.WARNING, "Ignoring corrupt instrumentation cache entry %s for %s: %s", file, className, e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the instrumentation of a class to the cache.
+     *
+     * @param callees the suspendability of the methods called by the class, keyed by {@link MethodDatabase#lookupKey(String, String, String, int) lookupKey}
+     */
+    void put(String className, byte[] classfile, byte[] instrumented, ClassEntry classEntry, Map<String, SuspendableType> callees) {
+        final Path file = file(key(className, classfile));
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeUTF(className);
+                classEntry.writeTo(out);
+                final String self = className + ' '; // the class's own methods are determined by its bytes
+                int numCallees = 0;
+                for (String callee : callees.keySet()) {
+                    if (!callee.startsWith(self))
+                        numCallees++;
+                }
+                out.writeInt(numCallees);
+                for (Map.Entry<String, SuspendableType> callee : callees.entrySet()) {
+                    if (callee.getKey().startsWith(self))
+                        continue;
+                    out.writeUTF(callee.getKey());
+                    out.writeByte(callee.getValue() != null ? callee.getValue().ordinal() : -1);
+                }
+                out.writeInt(instrumented.length);
+                out.write(instrumented);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException e) {
+            instrumentor.log(LogLevel.WARNING, "Cannot write instrumentation cache entry %s for %s: %s", file, className, e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+    private String key(String className, byte[] classfile) {
+        final MessageDigest md = digest();
+        md.update(environment);
+        md.update(settings(className).getBytes(StandardCharsets.UTF_8));
+        md.update(classfile);
+        return hex(md.digest());
+    }
+
+    private String settings(String className) {
+        return "monitors=" + instrumentor.isAllowMonitors()
+                + ",blocking=" + instrumentor.isAllowBlocking()
+                + ",offload=" + instrumentor.isOffloadBlocking()
+                + ",compact=" + instrumentor.isCompactFrames()
+                + ",frameless=" + instrumentor.isFramelessForwarders()
+                + ",preemptible=" + instrumentor.isPreemptible(className)
+                + ",debug=" + instrumentor.isDebug();
+    }
+
+    private static byte[] environment() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(FORMAT).append('\n').append(quasarVersion()).append('\n');
+        final String classpath = System.getProperty("java.class.path", "");
+        for (String element : classpath.split(File.pathSeparator)) {
+            final File f = new File(element);
+            sb.append(f.getAbsolutePath());
+            if (f.isFile())
+                sb.append(':').append(f.length());
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The version in Quasar's jar manifest or, in a development build, the location and last-modified time of the instrumentor's class.
+     */
+    private static String quasarVersion() {
+        final String version = QuasarInstrumentor.class.getPackage().getImplementationVersion();
+        if (version != null)
+            return version;
+        final CodeSource cs = QuasarInstrumentor.class.getProtectionDomain().getCodeSource();
+        final URL location = cs != null ? cs.getLocation() : null;
+        if (location == null)
+            return "unknown";
+        try {
+            final File f = new File(location.toURI());
+            final File cls = f.isDirectory() ? new File(f, QuasarInstrumentor.class.getName().replace('.', '/') + ".class") : f;
+            return location + "@" + cls.lastModified();
+        } catch (Exception e) {
+            return location.toString();
+        }
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final char[] cs = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            cs[2 * i] = digits[(bytes[i] >> 4) & 0xf];
+            cs[2 * i + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(cs);
+    }
+
+    static final class Entry {
+        final byte[] bytes;
+        final ClassEntry classEntry;
+
+        Entry(byte[] bytes, ClassEntry classEntry) {
+            this.bytes = bytes;
+            this.classEntry = classEntry;
+        }
+    }
+}
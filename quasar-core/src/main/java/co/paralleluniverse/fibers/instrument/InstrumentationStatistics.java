@@ -0,0 +1,79 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects, for each method the {@link QuasarInstrumentor} instruments, the number of suspendable call sites, the number of slots
+ * the method saves at them, and the growth of its code. Used by the {@link InstrumentationTask AOT instrumentation task} to write
+ * a report of the methods that are most expensive to suspend and resume.
+ *
+ * @author pron
+ */
+final class InstrumentationStatistics {
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+
+    void record(String className, String methodName, String desc, boolean frameless, int callSites, int slots, int codeSizeBefore, int codeSizeAfter) {
+        entries.add(new Entry(className + '#' + methodName + desc, frameless, callSites, slots, codeSizeBefore, codeSizeAfter));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the entries, the ones that save the most slots first.
+     */
+    List<Entry> entries() {
+        final List<Entry> es = new ArrayList<>(entries);
+        Collections.sort(es, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                return Integer.compare(o2.slots, o1.slots);
+            }
+        });
+        return es;
+    }
+
+    void writeTo(PrintStream out) {
+        out.println("method\tframeless\tcallSites\tslots\tcodeSize\tcodeGrowth");
+        for (Entry e : entries())
+            out.printf("%s\t%b\t%d\t%d\t%d\t%d%n", e.method, e.frameless, e.callSites, e.slots, e.codeSizeAfter, e.codeSizeAfter - e.codeSizeBefore);
+    }
+
+    static final class Entry {
+        final String method;
+        final boolean frameless;
+        final int callSites;
+        final int slots;
+        final int codeSizeBefore;
+        final int codeSizeAfter;
+
+        Entry(String method, boolean frameless, int callSites, int slots, int codeSizeBefore, int codeSizeAfter) {
+            this.method = method;
+            this.frameless = frameless;
+            this.callSites = callSites;
+            this.slots = slots;
+            this.codeSizeBefore = codeSizeBefore;
+            this.codeSizeAfter = codeSizeAfter;
+        }
+    }
+}
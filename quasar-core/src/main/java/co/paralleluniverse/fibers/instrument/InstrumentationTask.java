@@ -45,10 +45,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.Project;
@@ -74,6 +81,8 @@ import org.apache.tools.ant.types.FileSet;
  * <li>debug - default: false<br/>Prints internal debugging information.</li>
  * <li>allowmonitors - default: false<br/>Allows the use of synchronized statements - this is DANGEROUS !</li>
  * <li>allowblocking - default: false<br/>Allows the use known blocking calls like Thread.sleep, Object.wait etc.</li>
+ * <li>offloadblocking - default: false<br/>Replaces calls to Thread.sleep with Strand.sleep, and runs calls to Thread.join on the scheduler's blocking pool.</li>
+ * <li>parallelism - default: the number of processors<br/>The number of threads checking and instrumenting classes in parallel.</li>
  * </ul></p>
  *
  * @see <a href="http://ant.apache.org/manual/CoreTypes/fileset.html">ANT FileSet</a>
@@ -85,8 +94,14 @@ public class InstrumentationTask extends Task {
     private boolean verbose;
     private boolean allowMonitors;
     private boolean allowBlocking;
+    private boolean offloadBlocking;
+    private boolean compactFrames;
+    private boolean framelessForwarders;
+    private File statisticsFile;
+    private String preemptible;
     private boolean debug;
     private boolean writeClasses = true;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
     private final ArrayList<WorkListEntry> workList = new ArrayList<>();
 
     public void addFileSet(FileSet fs) {
@@ -109,6 +124,33 @@ public class InstrumentationTask extends Task {
         this.allowBlocking = allowBlocking;
     }
 
+    public void setOffloadBlocking(boolean offloadBlocking) {
+        this.offloadBlocking = offloadBlocking;
+    }
+
+    public void setCompactFrames(boolean compactFrames) {
+        this.compactFrames = compactFrames;
+    }
+
+    public void setFramelessForwarders(boolean framelessForwarders) {
+        this.framelessForwarders = framelessForwarders;
+    }
+
+    /**
+     * Sets a file to which a report of the instrumented methods is written: their suspendable call sites, the slots they save,
+     * and the growth of their code.
+     */
+    public void setStatisticsFile(File statisticsFile) {
+        this.statisticsFile = statisticsFile;
+    }
+
+    /**
+     * Sets the classes whose suspendable methods are made preemptible, as a {@code ;}-separated list of globs.
+     */
+    public void setPreemptible(String preemptible) {
+        this.preemptible = preemptible;
+    }
+
     public void setDebug(boolean debug) {
         this.debug = debug;
     }
@@ -117,6 +159,15 @@ public class InstrumentationTask extends Task {
         this.writeClasses = writeClasses;
     }
 
+    /**
+     * Sets the number of threads checking and instrumenting classes in parallel (by default, the number of processors).
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0)
+            throw new BuildException("parallelism must be positive: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
     @Override
     public void execute() throws BuildException {
         try {
@@ -131,6 +182,18 @@ public class InstrumentationTask extends Task {
             instrumentor.setDebug(debug);
             instrumentor.setAllowMonitors(allowMonitors);
             instrumentor.setAllowBlocking(allowBlocking);
+            if (offloadBlocking)
+                instrumentor.setOffloadBlocking(true);
+            if (compactFrames)
+                instrumentor.setCompactFrames(true);
+            if (framelessForwarders)
+                instrumentor.setFramelessForwarders(true);
+            final InstrumentationStatistics statistics = statisticsFile != null ? new InstrumentationStatistics() : null;
+            instrumentor.setStatistics(statistics);
+            if (preemptible != null) {
+                for (String p : preemptible.split(";"))
+                    instrumentor.addPreemptible(p);
+            }
             instrumentor.setLog(new Log() {
                 @Override
                 public void log(LogLevel level, String msg, Object... args) {
@@ -157,6 +220,7 @@ public class InstrumentationTask extends Task {
                 }
             });
 
+            final List<File> files = new ArrayList<>();
             for (FileSet fs : filesets) {
                 final DirectoryScanner ds = fs.getDirectoryScanner(getProject());
                 final String[] includedFiles = ds.getIncludedFiles();
@@ -164,42 +228,109 @@ public class InstrumentationTask extends Task {
                 for (String filename : includedFiles) {
                     if (filename.endsWith(".class")) {
                         File file = new File(fs.getDir(), filename);
-                        if (file.isFile()) {
-                            final String className = instrumentor.checkClass(cl, file);
-                            workList.add(new WorkListEntry(className, file));
-                        } else
+                        if (file.isFile())
+                            files.add(file);
+                        else
                             log("File not found: " + filename);
                     }
                 }
             }
 
-            instrumentor.log(LogLevel.INFO, "Instrumenting " + workList.size() + " classes");
+            final long start = System.nanoTime();
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                // all classes must be checked before any is instrumented
+                final String[] classNames = new String[files.size()];
+                pool.invoke(new ForEach(0, files.size(), new IndexAction() {
+                    @Override
+                    public void apply(int i) {
+                        classNames[i] = instrumentor.checkClass(cl, files.get(i));
+                    }
+                }));
+                for (int i = 0; i < classNames.length; i++)
+                    workList.add(new WorkListEntry(classNames[i], files.get(i)));
 
-            for (WorkListEntry f : workList)
-                instrumentClass(cl, instrumentor, f);
+                instrumentor.log(LogLevel.INFO, "Instrumenting " + workList.size() + " classes");
 
+                final AtomicInteger instrumented = new AtomicInteger();
+                pool.invoke(new ForEach(0, workList.size(), new IndexAction() {
+                    @Override
+                    public void apply(int i) {
+                        if (instrumentClass(cl, instrumentor, workList.get(i)))
+                            instrumented.incrementAndGet();
+                    }
+                }));
+
+                final long millis = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), 1);
+                log(String.format("Checked %d and instrumented %d classes in %d ms (%d classes/sec, %d threads)",
+                        files.size(), instrumented.get(), millis, files.size() * 1000L / millis, parallelism));
+
+                if (statistics != null) {
+                    try (PrintStream out = new PrintStream(statisticsFile)) {
+                        statistics.writeTo(out);
+                    }
+                    log("Wrote the statistics of " + statistics.size() + " methods to " + statisticsFile);
+                }
+            } finally {
+                pool.shutdown();
+            }
         } catch (Exception ex) {
             log(ex.getMessage());
             throw new BuildException(ex.getMessage(), ex);
         }
     }
 
-    private void instrumentClass(ClassLoader cl, QuasarInstrumentor instrumentor, WorkListEntry entry) {
+    private boolean instrumentClass(ClassLoader cl, QuasarInstrumentor instrumentor, WorkListEntry entry) {
         if (!instrumentor.shouldInstrument(entry.name))
-            return;
+            return false;
         try {
             try (FileInputStream fis = new FileInputStream(entry.file)) {
                 final byte[] newClass = instrumentor.instrumentClass(cl, entry.name, fis);
 
                 if (writeClasses) {
-                    try (FileOutputStream fos = new FileOutputStream(entry.file)) {
+                    // other threads may be reading the file (as a super class) as we write it, so we replace it atomically
+                    final File tmp = new File(entry.file.getPath() + ".tmp");
+                    try (FileOutputStream fos = new FileOutputStream(tmp)) {
                         fos.write(newClass);
                     }
+                    Files.move(tmp.toPath(), entry.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
                 }
             }
         } catch (IOException ex) {
             throw new BuildException("Instrumenting file " + entry.file, ex);
         }
+        return true;
+    }
+
+    private interface IndexAction {
+        void apply(int i);
+    }
+
+    /**
+     * Applies an action to a range of indices, splitting the range among the pool's threads.
+     */
+    private static final class ForEach extends RecursiveAction {
+        private static final int LEAF_SIZE = 16;
+        private final int from;
+        private final int to;
+        private final IndexAction action;
+
+        ForEach(int from, int to, IndexAction action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++)
+                    action.apply(i);
+            } else {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new ForEach(from, mid, action), new ForEach(mid, to, action));
+            }
+        }
     }
 
     public static class WorkListEntry {
@@ -130,12 +130,16 @@ public class JavaAgent {
                     case 'b':
                         instrumentor.setAllowBlocking(true);
                         break;
+
+                    case 'o':
+                        instrumentor.setOffloadBlocking(true);
+                        break;
                         
                     case 'x':
                         i++;
                         c = agentArguments.charAt(i);
                         if (c != '(')
-                            throw new IllegalStateException("Usage: vdmcbx(exclusion;...) (verbose, debug, allow monitors, check class, allow blocking)");
+                            throw new IllegalStateException("Usage: vdmcbox(exclusion;...)p(preemptible;...) (verbose, debug, allow monitors, check class, allow blocking, offload blocking calls, exclusions, preemptible classes)");
                         i++;
                         StringBuilder sb = new StringBuilder();
                         while(true) {
@@ -144,13 +148,32 @@ public class JavaAgent {
                                 break;
                             sb.append(c);
                         }
+                        i--; // back to the ')', which the for loop's increment moves past
                         String[] exclusions = sb.toString().split(";");
                         for (String x : exclusions)
                             instrumentor.addExcludedPackage(x);
                         break;
 
+                    case 'p':
+                        i++;
+                        c = agentArguments.charAt(i);
+                        if (c != '(')
+                            throw new IllegalStateException("Usage: vdmcbox(exclusion;...)p(preemptible;...) (verbose, debug, allow monitors, check class, allow blocking, offload blocking calls, exclusions, preemptible classes)");
+                        i++;
+                        StringBuilder psb = new StringBuilder();
+                        while (true) {
+                            c = agentArguments.charAt(i++);
+                            if (c == ')')
+                                break;
+                            psb.append(c);
+                        }
+                        i--; // back to the ')', which the for loop's increment moves past
+                        for (String p : psb.toString().split(";"))
+                            instrumentor.addPreemptible(p);
+                        break;
+
                     default:
-                        throw new IllegalStateException("Usage: vdmcbx(exclusion;...) (verbose, debug, allow monitors, check class, allow blocking)");
+                        throw new IllegalStateException("Usage: vdmcbox(exclusion;...)p(preemptible;...) (verbose, debug, allow monitors, check class, allow blocking, offload blocking calls, exclusions, preemptible classes)");
                 }
             }
         }
@@ -172,7 +195,7 @@ public class JavaAgent {
         Retransform.instrumentor = instrumentor;
         Retransform.classLoaders = classLoaders;
 
-        instrumentation.addTransformer(new Transformer(instrumentor), true);
+        instrumentation.addTransformer(new Transformer(instrumentor, InstrumentationCache.fromSystemProperty(instrumentor)), true);
     }
 
     public static void agentmain(String agentArguments, Instrumentation instrumentation) {
@@ -185,9 +208,11 @@ public class JavaAgent {
 
     private static class Transformer implements ClassFileTransformer {
         private final QuasarInstrumentor instrumentor;
+        private final InstrumentationCache cache;
 
-        public Transformer(QuasarInstrumentor instrumentor) {
+        public Transformer(QuasarInstrumentor instrumentor, InstrumentationCache cache) {
             this.instrumentor = instrumentor;
+            this.cache = cache;
         }
 
         @Override
@@ -206,7 +231,9 @@ public class JavaAgent {
                 if (loader == null)
                     loader = Thread.currentThread().getContextClassLoader();
 
-                final byte[] transformed = instrumentor.instrumentClass(loader, className, classfileBuffer);
+                final byte[] transformed = cache != null
+                        ? cache.instrumentClass(loader, className, classfileBuffer)
+                        : instrumentor.instrumentClass(loader, className, classfileBuffer);
 
                 if (transformed != null)
                     Retransform.afterTransform(className, classBeingRedefined, transformed);
@@ -0,0 +1,164 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Finds the local variables that are live (i.e. may be read before they're written) at each instruction of a method.
+ * {@link InstrumentMethod} uses it to save and restore, at each suspendable call site, only the locals that are read after the call,
+ * rather than all those that hold a value.
+ * <p>
+ * This is the classic backward data-flow analysis. An instruction's exception handlers are treated as its successors, and,
+ * conservatively, the locals live at a handler are also live before any instruction the handler covers.
+ *
+ * @author pron
+ */
+final class LivenessAnalyzer {
+    private LivenessAnalyzer() {
+    }
+
+    /**
+     * Returns the locals live before each instruction of the method, or {@code null} if the method can't be analyzed
+     * (it uses subroutines, which only old class files do).
+     */
+    static BitSet[] analyze(MethodNode mn) {
+        final InsnList insns = mn.instructions;
+        final int n = insns.size();
+
+        final int[][] successors = new int[n][];
+        final BitSet use = new BitSet(); // reused
+        final BitSet[] uses = new BitSet[n];
+        final int[] defs = new int[n];
+        for (int i = 0; i < n; i++) {
+            final AbstractInsnNode in = insns.get(i);
+            final int opcode = in.getOpcode();
+            if (opcode == Opcodes.JSR || opcode == Opcodes.RET)
+                return null;
+
+            defs[i] = -1;
+            use.clear();
+            switch (in.getType()) {
+                case AbstractInsnNode.VAR_INSN:
+                    final int var = ((VarInsnNode) in).var;
+                    if (opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD)
+                        use.set(var);
+                    else
+                        defs[i] = var;
+                    break;
+                case AbstractInsnNode.IINC_INSN:
+                    use.set(((IincInsnNode) in).var);
+                    break;
+            }
+            uses[i] = use.isEmpty() ? null : (BitSet) use.clone();
+            successors[i] = successors(insns, in, i);
+        }
+
+        final int[][] handlers = handlers(mn, n);
+
+        final BitSet[] live = new BitSet[n];
+        for (int i = 0; i < n; i++)
+            live[i] = new BitSet();
+
+        final BitSet l = new BitSet(); // reused
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = n - 1; i >= 0; i--) {
+                l.clear();
+                for (int s : successors[i])
+                    l.or(live[s]);
+                if (defs[i] >= 0)
+                    l.clear(defs[i]);
+                if (uses[i] != null)
+                    l.or(uses[i]);
+                if (handlers[i] != null) {
+                    for (int h : handlers[i])
+                        l.or(live[h]);
+                }
+                if (!l.equals(live[i])) {
+                    live[i].clear();
+                    live[i].or(l);
+                    changed = true;
+                }
+            }
+        }
+        return live;
+    }
+
+    private static int[] successors(InsnList insns, AbstractInsnNode in, int i) {
+        final int opcode = in.getOpcode();
+        final boolean hasNext = i + 1 < insns.size();
+        switch (in.getType()) {
+            case AbstractInsnNode.JUMP_INSN: {
+                final int target = insns.indexOf(((JumpInsnNode) in).label);
+                return opcode == Opcodes.GOTO || !hasNext ? new int[]{target} : new int[]{target, i + 1};
+            }
+            case AbstractInsnNode.TABLESWITCH_INSN: {
+                final TableSwitchInsnNode ts = (TableSwitchInsnNode) in;
+                return targets(insns, ts.dflt, ts.labels);
+            }
+            case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+                final LookupSwitchInsnNode ls = (LookupSwitchInsnNode) in;
+                return targets(insns, ls.dflt, ls.labels);
+            }
+            default:
+                if ((opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) || opcode == Opcodes.ATHROW || !hasNext)
+                    return new int[0];
+                return new int[]{i + 1};
+        }
+    }
+
+    private static int[] targets(InsnList insns, LabelNode dflt, List<LabelNode> labels) {
+        final int[] ts = new int[labels.size() + 1];
+        ts[0] = insns.indexOf(dflt);
+        for (int j = 0; j < labels.size(); j++)
+            ts[j + 1] = insns.indexOf(labels.get(j));
+        return ts;
+    }
+
+    private static int[][] handlers(MethodNode mn, int n) {
+        final int[][] handlers = new int[n][];
+        if (mn.tryCatchBlocks == null)
+            return handlers;
+        for (TryCatchBlockNode tcb : mn.tryCatchBlocks) {
+            final int start = mn.instructions.indexOf(tcb.start);
+            final int end = mn.instructions.indexOf(tcb.end);
+            final int handler = mn.instructions.indexOf(tcb.handler);
+            for (int i = start; i < end; i++) {
+                final int[] hs = handlers[i];
+                if (hs == null)
+                    handlers[i] = new int[]{handler};
+                else {
+                    handlers[i] = Arrays.copyOf(hs, hs.length + 1);
+                    handlers[i][hs.length] = handler;
+                }
+            }
+        }
+        return handlers;
+    }
+}
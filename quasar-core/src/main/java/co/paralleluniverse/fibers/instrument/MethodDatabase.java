@@ -42,6 +42,8 @@
 package co.paralleluniverse.fibers.instrument;
 
 import static co.paralleluniverse.fibers.instrument.Classes.isYieldMethod;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -51,8 +53,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Opcodes;
@@ -62,6 +66,8 @@ import org.objectweb.asm.Opcodes;
  * Collects information about classes and their suspendable methods.</p>
  * <p>
  * Provides access to configuration parameters and to logging</p>
+ * <p>
+ * A database may be used by several threads instrumenting classes in parallel.</p>
  *
  * @author Matthias Mann
  * @author pron
@@ -70,9 +76,10 @@ public class MethodDatabase {
     private static final int ASMAPI = Opcodes.ASM5;
     private final WeakReference<ClassLoader> clRef;
     private final SuspendableClassifier classifier;
-    private final NavigableMap<String, ClassEntry> classes;
-    private final HashMap<String, String> superClasses;
+    private final ConcurrentNavigableMap<String, ClassEntry> classes;
+    private final ConcurrentMap<String, String> superClasses;
     private final QuasarInstrumentor instrumentor;
+    private final ThreadLocal<Map<String, SuspendableType>> lookups = new ThreadLocal<>(); // see startRecordingLookups
 
     public MethodDatabase(QuasarInstrumentor instrumentor, ClassLoader classloader, SuspendableClassifier classifier) {
         this.instrumentor = instrumentor;
@@ -82,8 +89,8 @@ public class MethodDatabase {
         this.clRef = new WeakReference<>(classloader);
         this.classifier = classifier;
 
-        classes = new TreeMap<>();
-        superClasses = new HashMap<>();
+        classes = new ConcurrentSkipListMap<>();
+        superClasses = new ConcurrentHashMap<>();
     }
 
     boolean isAllowMonitors() {
@@ -94,6 +101,26 @@ public class MethodDatabase {
         return instrumentor.isAllowBlocking();
     }
 
+    boolean isOffloadBlocking() {
+        return instrumentor.isOffloadBlocking();
+    }
+
+    boolean isCompactFrames() {
+        return instrumentor.isCompactFrames();
+    }
+
+    boolean isFramelessForwarders() {
+        return instrumentor.isFramelessForwarders();
+    }
+
+    InstrumentationStatistics getStatistics() {
+        return instrumentor.getStatistics();
+    }
+
+    boolean isPreemptible(String className) {
+        return instrumentor.isPreemptible(className);
+    }
+
     public SuspendableClassifier getClassifier() {
         return classifier;
     }
@@ -153,6 +180,36 @@ public class MethodDatabase {
     private static final int SUSPENDABLE = 4;
 
     public SuspendableType isMethodSuspendable(String className, String methodName, String methodDesc, int opcode) {
+        final SuspendableType st = isMethodSuspendable1(className, methodName, methodDesc, opcode);
+        final Map<String, SuspendableType> recorded = lookups.get();
+        if (recorded != null)
+            recorded.put(lookupKey(className, methodName, methodDesc, opcode), st);
+        return st;
+    }
+
+    /**
+     * Starts recording the results of {@link #isMethodSuspendable(String, String, String, int) isMethodSuspendable} on the current thread,
+     * i.e., the suspendability of the methods called by the class being instrumented, until {@link #stopRecordingLookups() stopRecordingLookups}
+     * is called.
+     */
+    void startRecordingLookups() {
+        lookups.set(new HashMap<String, SuspendableType>());
+    }
+
+    /**
+     * Stops recording, and returns the recorded results, keyed by {@link #lookupKey(String, String, String, int) lookupKey}.
+     */
+    Map<String, SuspendableType> stopRecordingLookups() {
+        final Map<String, SuspendableType> recorded = lookups.get();
+        lookups.remove();
+        return recorded;
+    }
+
+    static String lookupKey(String className, String methodName, String methodDesc, int opcode) {
+        return className + ' ' + methodName + ' ' + methodDesc + ' ' + opcode;
+    }
+
+    private SuspendableType isMethodSuspendable1(String className, String methodName, String methodDesc, int opcode) {
         if (className.startsWith("org/netbeans/lib/")) {
             log(LogLevel.INFO, "Method: %s#%s marked non-suspendable because it is Netbeans library", className, methodName);
             return SuspendableType.NON_SUSPENDABLE;
@@ -232,21 +289,23 @@ public class MethodDatabase {
         return suspendable;
     }
 
-    public synchronized ClassEntry getClassEntry(String className) {
+    public ClassEntry getClassEntry(String className) {
         return classes.get(className);
     }
 
-    public synchronized ClassEntry getOrCreateClassEntry(String className, String superType) {
+    public ClassEntry getOrCreateClassEntry(String className, String superType) {
         ClassEntry ce = classes.get(className);
         if (ce == null) {
-            ce = new ClassEntry(superType);
-            classes.put(className, ce);
+            final ClassEntry newCe = new ClassEntry(superType);
+            ce = classes.putIfAbsent(className, newCe);
+            if (ce == null)
+                ce = newCe;
         }
         return ce;
     }
 
     // this method is used by Pulsar
-    public synchronized Map<String, ClassEntry> getInnerClassesEntries(String className) {
+    public Map<String, ClassEntry> getInnerClassesEntries(String className) {
         Map<String, ClassEntry> tailMap = classes.tailMap(className, true);
         HashMap<String, ClassEntry> map = new HashMap<>();
         for (Map.Entry<String, ClassEntry> entry : tailMap.entrySet()) {
@@ -257,10 +316,7 @@ public class MethodDatabase {
     }
 
     void recordSuspendableMethods(String className, ClassEntry entry) {
-        ClassEntry oldEntry;
-        synchronized (this) {
-            oldEntry = classes.put(className, entry);
-        }
+        final ClassEntry oldEntry = classes.put(className, entry);
         if (oldEntry != null && oldEntry != entry) {
             if (!oldEntry.equals(entry)) {
                 log(LogLevel.WARNING, "Duplicate class entries with different data for class: %s", className);
@@ -403,17 +459,11 @@ public class MethodDatabase {
         if (entry != null && entry != CLASS_NOT_FOUND)
             return entry.getSuperName();
 
-        String superClass;
-        synchronized (this) {
-            superClass = superClasses.get(className);
-        }
+        String superClass = superClasses.get(className);
         if (superClass == null) {
             superClass = extractSuperClass(className);
             if (superClass != null) {
-                String oldSuperClass;
-                synchronized (this) {
-                    oldSuperClass = superClasses.put(className, superClass);
-                }
+                final String oldSuperClass = superClasses.put(className, superClass);
                 if (oldSuperClass != null) {
                     if (!oldSuperClass.equals(superClass))
                         log(LogLevel.WARNING, "Duplicate super class entry with different value: %s vs %s", oldSuperClass, superClass);
@@ -461,23 +511,26 @@ public class MethodDatabase {
     };
 
     public static final class ClassEntry {
-        private final HashMap<String, SuspendableType> methods;
-        private String sourceName;
-        private String sourceDebugInfo;
-        private boolean isInterface;
-        private String[] interfaces;
+        private final ConcurrentMap<String, SuspendableType> methods; // a missing method is the same as one whose suspendability is unknown
+        private volatile String sourceName;
+        private volatile String sourceDebugInfo;
+        private volatile boolean isInterface;
+        private volatile String[] interfaces;
         private final String superName;
-        private boolean instrumented;
+        private volatile boolean instrumented;
         private volatile boolean requiresInstrumentation;
 
         public ClassEntry(String superName) {
             this.superName = superName;
-            this.methods = new HashMap<>();
+            this.methods = new ConcurrentHashMap<>();
         }
 
         public void set(String name, String desc, SuspendableType suspendable) {
             String nameAndDesc = key(name, desc);
-            methods.put(nameAndDesc, suspendable);
+            if (suspendable != null)
+                methods.put(nameAndDesc, suspendable);
+            else
+                methods.remove(nameAndDesc);
         }
 
         public String getSourceName() {
@@ -568,6 +621,56 @@ public class MethodDatabase {
         public void setInstrumented(boolean instrumented) {
             this.instrumented = instrumented;
         }
+
+        void writeTo(DataOutput out) throws IOException {
+            writeNullableUTF(out, superName);
+            writeNullableUTF(out, sourceName);
+            writeNullableUTF(out, sourceDebugInfo);
+            out.writeBoolean(isInterface);
+            out.writeBoolean(instrumented);
+            out.writeBoolean(requiresInstrumentation);
+            out.writeInt(interfaces != null ? interfaces.length : -1);
+            if (interfaces != null) {
+                for (String iface : interfaces)
+                    out.writeUTF(iface);
+            }
+            final Map<String, SuspendableType> ms = new HashMap<>(methods);
+            out.writeInt(ms.size());
+            for (Map.Entry<String, SuspendableType> entry : ms.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().name());
+            }
+        }
+
+        static ClassEntry readFrom(DataInput in) throws IOException {
+            final ClassEntry entry = new ClassEntry(readNullableUTF(in));
+            entry.sourceName = readNullableUTF(in);
+            entry.sourceDebugInfo = readNullableUTF(in);
+            entry.isInterface = in.readBoolean();
+            entry.instrumented = in.readBoolean();
+            entry.requiresInstrumentation = in.readBoolean();
+            final int numInterfaces = in.readInt();
+            if (numInterfaces >= 0) {
+                final String[] interfaces = new String[numInterfaces];
+                for (int i = 0; i < numInterfaces; i++)
+                    interfaces[i] = in.readUTF();
+                entry.interfaces = interfaces;
+            }
+            final int numMethods = in.readInt();
+            for (int i = 0; i < numMethods; i++)
+                entry.methods.put(in.readUTF(), SuspendableType.valueOf(in.readUTF()));
+            return entry;
+        }
+
+        private static void writeNullableUTF(DataOutput out, String s) throws IOException {
+            out.writeBoolean(s != null);
+            if (s != null)
+                out.writeUTF(s);
+        }
+
+        private static String readNullableUTF(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
     }
 
     public static class ExtractSuperClass extends ClassVisitor {
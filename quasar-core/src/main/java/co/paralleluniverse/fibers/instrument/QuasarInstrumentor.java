@@ -27,10 +27,10 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 
 /**
@@ -43,15 +43,21 @@ public final class QuasarInstrumentor {
     private final static String EXAMINED_CLASS = System.getProperty("co.paralleluniverse.fibers.writeInstrumentedClasses");
     private static final boolean allowJdkInstrumentation = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.allowJdkInstrumentation");
     private WeakHashMap<ClassLoader, MethodDatabase> dbForClassloader = new WeakHashMap<>();
-    private boolean check;
+    // the settings are read by every instrumented method, possibly by several threads instrumenting classes in parallel, so reading them takes no lock
+    private volatile boolean check;
     private final boolean aot;
-    private boolean allowMonitors;
-    private boolean allowBlocking;
-    private final Collection<Pattern> exclusions = new ArrayList<>();
-    private Log log;
-    private boolean verbose;
-    private boolean debug;
-    private int logLevelMask;
+    private volatile boolean allowMonitors;
+    private volatile boolean allowBlocking;
+    private volatile boolean offloadBlocking = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.offloadBlockingCalls");
+    private volatile boolean compactFrames = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.compactStackFrames");
+    private volatile boolean framelessForwarders = SystemProperties.isEmptyOrTrue("co.paralleluniverse.fibers.framelessForwarders");
+    private volatile InstrumentationStatistics statistics;
+    private final Collection<Pattern> exclusions = new CopyOnWriteArrayList<>();
+    private final Collection<Pattern> preemptibles = new CopyOnWriteArrayList<>();
+    private volatile Log log;
+    private volatile boolean verbose;
+    private volatile boolean debug;
+    private volatile int logLevelMask;
 
     public QuasarInstrumentor() {
         this(false);
@@ -60,6 +66,11 @@ public final class QuasarInstrumentor {
     public QuasarInstrumentor(boolean aot) {
         this.aot = aot;
         setLogLevelMask();
+        final String preemptible = System.getProperty("co.paralleluniverse.fibers.preemptible");
+        if (preemptible != null) {
+            for (String p : preemptible.split(";"))
+                addPreemptible(p);
+        }
     }
 
     @SuppressWarnings("unused")
@@ -193,7 +204,7 @@ public final class QuasarInstrumentor {
     }
 
     @SuppressWarnings("WeakerAccess")
-    public synchronized boolean isAllowMonitors() {
+    public boolean isAllowMonitors() {
         return allowMonitors;
     }
 
@@ -204,7 +215,7 @@ public final class QuasarInstrumentor {
     }
 
     @SuppressWarnings("WeakerAccess")
-    public synchronized boolean isAllowBlocking() {
+    public boolean isAllowBlocking() {
         return allowBlocking;
     }
 
@@ -214,6 +225,68 @@ public final class QuasarInstrumentor {
         return this;
     }
 
+    @SuppressWarnings("WeakerAccess")
+    public boolean isOffloadBlocking() {
+        return offloadBlocking;
+    }
+
+    /**
+     * Sets whether calls to {@code Thread.sleep} in suspendable methods are replaced with {@code Strand.sleep}, and calls to
+     * {@code Thread.join} with {@code FiberBlockingPool.join}, which runs them on the scheduler's blocking pool, so that neither
+     * blocks the fiber's thread. The replaced calls need not be allowed with {@link #setAllowBlocking(boolean) setAllowBlocking}.
+     * Defaults to the value of the {@code co.paralleluniverse.fibers.offloadBlockingCalls} system property.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public synchronized QuasarInstrumentor setOffloadBlocking(boolean offloadBlocking) {
+        this.offloadBlocking = offloadBlocking;
+        return this;
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public boolean isCompactFrames() {
+        return compactFrames;
+    }
+
+    /**
+     * Sets whether instrumented methods store their frames compactly, with separately sized primitive and object regions,
+     * rather than in a single region sized for the larger of the two.
+     * Defaults to the value of the {@code co.paralleluniverse.fibers.compactStackFrames} system property.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public synchronized QuasarInstrumentor setCompactFrames(boolean compactFrames) {
+        this.compactFrames = compactFrames;
+        return this;
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public boolean isFramelessForwarders() {
+        return framelessForwarders;
+    }
+
+    /**
+     * Sets whether suspendable methods that only read final fields of their own class before forwarding to a single suspendable call
+     * (like {@code return target.receive()}) are left uninstrumented, so that they push no frame, just like those that only forward their arguments.
+     * When resumed, such a method re-reads the fields and calls the same method again.
+     * Defaults to the value of the {@code co.paralleluniverse.fibers.framelessForwarders} system property.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public synchronized QuasarInstrumentor setFramelessForwarders(boolean framelessForwarders) {
+        this.framelessForwarders = framelessForwarders;
+        return this;
+    }
+
+    InstrumentationStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Sets the statistics of the methods instrumented from now on are recorded in, or {@code null} (the default) for none.
+     */
+    synchronized QuasarInstrumentor setStatistics(InstrumentationStatistics statistics) {
+        this.statistics = statistics;
+        return this;
+    }
+
     public synchronized QuasarInstrumentor setLog(Log log) {
         this.log = log;
 //        for (MethodDatabase db : dbForClassloader.values()) {
@@ -227,7 +300,7 @@ public final class QuasarInstrumentor {
     }
 
     @SuppressWarnings("WeakerAccess")
-    public synchronized boolean isVerbose() {
+    public boolean isVerbose() {
         return verbose;
     }
 
@@ -237,7 +310,7 @@ public final class QuasarInstrumentor {
         setLogLevelMask();
     }
 
-    public synchronized boolean isDebug() {
+    public boolean isDebug() {
         return debug;
     }
 
@@ -250,7 +323,7 @@ public final class QuasarInstrumentor {
         exclusions.add(packagePattern(packageGlob));
     }
     
-    public synchronized boolean isExcluded(String className) {
+    public boolean isExcluded(String className) {
         if (className != null) {
             className = className.replace('.', '/');
             
@@ -267,6 +340,31 @@ public final class QuasarInstrumentor {
         return false;
     }
 
+    /**
+     * Makes the suspendable methods of the matching classes preemptible: the instrumentation inserts a cheap check at their loop back-branches,
+     * and a fiber that runs such a loop for longer than its time slice (see {@code Fiber.shouldPreempt}) yields.
+     * Methods that use monitors are never made preemptible.
+     * The initial set of globs is taken from the {@code co.paralleluniverse.fibers.preemptible} system property (separated by {@code ;}).
+     *
+     * @param glob a glob matched against both the package and the name of a class, e.g. {@code com.foo}, {@code com.foo.**} or {@code com.foo.Bar}.
+     */
+    public synchronized void addPreemptible(String glob) {
+        preemptibles.add(packagePattern(glob));
+    }
+
+    public boolean isPreemptible(String className) {
+        if (className == null || preemptibles.isEmpty())
+            return false;
+        className = className.replace('.', '/');
+        final int i = className.lastIndexOf('/');
+        final String packageName = i >= 0 ? className.substring(0, i) : "";
+        for (Pattern p : preemptibles) {
+            if (p.matcher(packageName).matches() || p.matcher(className).matches())
+                return true;
+        }
+        return false;
+    }
+
     private synchronized void setLogLevelMask() {
         logLevelMask = (1 << LogLevel.WARNING.ordinal());
         if (verbose || debug)
@@ -342,6 +440,9 @@ public final class QuasarInstrumentor {
                 case '\\':
                     out.append("\\\\");
                     break;
+                case '$': // nested classes
+                    out.append("\\$");
+                    break;
                 default:
                     out.append(c);
             }
@@ -21,6 +21,12 @@ import static co.paralleluniverse.fibers.instrument.Classes.DONT_INSTRUMENT_DESC
 import static co.paralleluniverse.fibers.instrument.Classes.SUSPEND_EXECUTION_NAME;
 import co.paralleluniverse.fibers.instrument.MethodDatabase.SuspendableType;
 import com.google.common.base.Function;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -28,12 +34,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.AbstractCollection;
 import java.util.ArrayDeque;
@@ -49,6 +57,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import org.apache.tools.ant.AntClassLoader;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
@@ -65,6 +75,8 @@ import org.objectweb.asm.Type;
 
 public class SuspendablesScanner extends Task {
     private static final int ASMAPI = Opcodes.ASM5;
+    private static final int INDEX_MAGIC = 0x51535349; // QSSI
+    private static final int INDEX_FORMAT = 1;
     //
     private final Map<String, MethodNode> methods = new HashMap<>();
     private final Map<String, ClassNode> classes = new HashMap<>();
@@ -79,6 +91,12 @@ public class SuspendablesScanner extends Task {
     private boolean append = false;
     private String supersFile;
     private String suspendablesFile;
+    private String indexFile;
+    private final Map<String, IndexEntry> oldIndex = new HashMap<>();
+    private final Map<String, IndexEntry> newIndex = new HashMap<>();
+    private final Map<String, String> jarStamps = new HashMap<>();
+    private int indexHits;
+    private int indexMisses;
 
     public SuspendablesScanner() {
         this.ant = getClass().getClassLoader() instanceof AntClassLoader;
@@ -118,6 +136,14 @@ public class SuspendablesScanner extends Task {
         this.append = value;
     }
 
+    /**
+     * A file in which to keep what the scanner has learned about the classes it has read, so that subsequent runs only read the
+     * class files (and jars) that have changed since. The method graph is still walked in full, so the output is the same as without an index.
+     */
+    public void setIndexFile(String indexFile) {
+        this.indexFile = indexFile;
+    }
+
     void setURLs(List<URL> urls) {
         this.urls = unique(urls).toArray(new URL[0]);
         this.cl = new URLClassLoader(this.urls);
@@ -184,6 +210,10 @@ public class SuspendablesScanner extends Task {
 
             final long tStart = System.nanoTime();
 
+            if (indexFile != null)
+                readIndex();
+            indexHits = indexMisses = 0;
+
             scanExternalSuspendables();
 
             final long tScanExternal = System.nanoTime();
@@ -191,11 +221,11 @@ public class SuspendablesScanner extends Task {
                 log("Scanned external suspendables in " + (tScanExternal - tStart) / 1000000 + " ms", Project.MSG_INFO);
 
             // scan classes in filesets
-            Function<InputStream, Void> fileVisitor = new Function<InputStream, Void>() {
+            Function<URL, Void> fileVisitor = new Function<URL, Void>() {
                 @Override
-                public Void apply(InputStream is1) {
-                    try (InputStream is = is1) {
-                        createGraph(is);
+                public Void apply(URL url) {
+                    try {
+                        createGraph(url);
                         return null;
                     } catch (IOException e) {
                         throw new RuntimeException(e);
@@ -214,6 +244,11 @@ public class SuspendablesScanner extends Task {
             walkGraph();
             final long tWalkGraph = System.nanoTime();
             log("Walked method graph in " + (tWalkGraph - tBuildGraph) / 1000000 + " ms", Project.MSG_INFO);
+
+            if (indexFile != null) {
+                writeIndex();
+                log("Read " + indexMisses + " classes; " + indexHits + " unchanged classes taken from the index " + indexFile, Project.MSG_INFO);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -226,9 +261,8 @@ public class SuspendablesScanner extends Task {
                 if (resource.startsWith("java/util") || resource.startsWith("java/lang") || resource.startsWith("co/paralleluniverse/asm"))
                     return;
                 if (isClassFile(url.getFile())) {
-                    try (InputStream is = cl.getResourceAsStream(resource)) { // cl.getResourceAsStream(resource)
-                        new ClassReader(is)
-                                .accept(new SuspendableClassifier(false, ASMAPI, null), ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE);
+                    try {
+                        classify(summary(cl.getResource(resource), false), false);
                     } catch (Exception e) {
                         System.err.println("Exception thrown during processing of " + resource + " at " + url);
                         throw e;
@@ -238,7 +272,7 @@ public class SuspendablesScanner extends Task {
         });
     }
 
-    private void visitAntProject(Function<InputStream, Void> classFileVisitor) throws IOException {
+    private void visitAntProject(Function<URL, Void> classFileVisitor) throws IOException {
         for (FileSet fs : filesets) {
             try {
                 final DirectoryScanner ds = fs.getDirectoryScanner(getProject());
@@ -248,7 +282,7 @@ public class SuspendablesScanner extends Task {
                         try {
                             File file = new File(fs.getDir(), filename);
                             if (file.isFile())
-                                classFileVisitor.apply(new FileInputStream(file));
+                                classFileVisitor.apply(file.toURI().toURL());
                             else
                                 log("File not found: " + filename);
                         } catch (Exception e) {
@@ -262,13 +296,13 @@ public class SuspendablesScanner extends Task {
         }
     }
 
-    private void visitProjectDir(final Function<InputStream, Void> classFileVisitor) throws IOException {
+    private void visitProjectDir(final Function<URL, Void> classFileVisitor) throws IOException {
         Files.walkFileTree(projectDir, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                 try {
                     if (isClassFile(file.getFileName().toString()))
-                        classFileVisitor.apply(Files.newInputStream(file));
+                        classFileVisitor.apply(file.toUri().toURL());
                     return FileVisitResult.CONTINUE;
                 } catch (Exception e) {
                     throw new RuntimeException("Exception while processing " + file, e);
@@ -280,7 +314,7 @@ public class SuspendablesScanner extends Task {
     /**
      * Visits classes whose methods are found in the suspendables file, as if they were part of the project
      */
-    private void scanSuspendablesFile(Function<InputStream, Void> classFileVisitor) {
+    private void scanSuspendablesFile(Function<URL, Void> classFileVisitor) {
         // scan classes in suspendables file
         if (suspendablesFile != null) {
             SimpleSuspendableClassifier tssc = new SimpleSuspendableClassifier(suspendablesFile);
@@ -292,7 +326,10 @@ public class SuspendablesScanner extends Task {
             for (String className : cs) {
                 try {
                     log("Scanning suspendable class:" + className, Project.MSG_VERBOSE);
-                    classFileVisitor.apply(cl.getResourceAsStream(classToResource(className)));
+                    final URL url = cl.getResource(classToResource(className));
+                    if (url == null)
+                        throw new IOException("Class not found");
+                    classFileVisitor.apply(url);
                 } catch (Exception e) {
                     throw new RuntimeException("Exception while processing " + className, e);
                 }
@@ -300,205 +337,388 @@ public class SuspendablesScanner extends Task {
         }
     }
 
-    private class SuspendableClassifier extends ClassVisitor {
-        private final boolean inProject;
-        private String className;
-        private boolean suspendableClass;
-
-        public SuspendableClassifier(boolean inProject, int api, ClassVisitor cv) {
-            super(api, cv);
-            this.inProject = inProject;
-        }
-
-        @Override
-        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-            super.visit(version, access, name, signature, superName, interfaces);
-            this.className = name.intern();
-            log("Searching suspendables in " + className, Project.MSG_DEBUG);
+    /**
+     * Reads a class, or returns its summary from the index if it hasn't changed since it was indexed.
+     */
+    private ClassSummary summary(URL url, boolean withCode) throws IOException {
+        final String key = url.toString();
+        final String stamp = indexFile != null ? stamp(url) : null;
+        if (stamp != null) {
+            IndexEntry entry = newIndex.get(key);
+            if (entry == null)
+                entry = oldIndex.get(key);
+            if (entry != null && entry.stamp.equals(stamp) && (entry.summary.withCode || !withCode)) {
+                newIndex.put(key, entry);
+                indexHits++;
+                return entry.summary;
+            }
         }
 
-        @Override
-        public AnnotationVisitor visitAnnotation(String adesc, boolean visible) {
-            final AnnotationVisitor av = super.visitAnnotation(adesc, visible);
-            if (adesc.equals(SUSPENDABLE_DESC))
-                suspendableClass = true;
-            return av;
+        final ClassSummary summary = new ClassSummary(withCode);
+        try (InputStream is = url.openStream()) {
+            new ClassReader(is).accept(new SummaryVisitor(summary), ClassReader.SKIP_DEBUG | (withCode ? 0 : ClassReader.SKIP_CODE));
         }
+        indexMisses++;
+        if (stamp != null)
+            newIndex.put(key, new IndexEntry(stamp, summary));
+        return summary;
+    }
 
-        @Override
-        public MethodVisitor visitMethod(int access, final String methodname, final String desc, String signature, String[] exceptions) {
-            final MethodVisitor mv = super.visitMethod(access, methodname, desc, signature, exceptions);
-
+    /**
+     * Marks the class's methods that are known to be suspendable (or suspendable-supers) by annotations, thrown exceptions or the suspendables files.
+     */
+    private void classify(ClassSummary c, boolean inProject) {
+        final String className = c.name.intern();
+        log("Searching suspendables in " + className, Project.MSG_DEBUG);
+        for (MethodSummary m : c.methods) {
             SuspendableType suspendable = SuspendableType.NON_SUSPENDABLE;
-            final boolean noImpl = (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0;
-            if (suspendableClass)
-                suspendable = noImpl ? SuspendableType.SUSPENDABLE_SUPER : SuspendableType.SUSPENDABLE;
-            if (suspendable != SuspendableType.SUSPENDABLE && checkExceptions(exceptions))
-                suspendable = noImpl ? SuspendableType.SUSPENDABLE_SUPER : SuspendableType.SUSPENDABLE;
-            if (suspendable != SuspendableType.SUSPENDABLE && ssc.isSuperSuspendable(className, methodname, desc))
+            if (c.suspendableClass)
+                suspendable = m.noImpl ? SuspendableType.SUSPENDABLE_SUPER : SuspendableType.SUSPENDABLE;
+            if (suspendable != SuspendableType.SUSPENDABLE && m.throwsSuspendExecution)
+                suspendable = m.noImpl ? SuspendableType.SUSPENDABLE_SUPER : SuspendableType.SUSPENDABLE;
+            if (suspendable != SuspendableType.SUSPENDABLE && ssc.isSuperSuspendable(className, m.name, m.desc))
                 suspendable = max(suspendable, SuspendableType.SUSPENDABLE_SUPER);
-            if (suspendable != SuspendableType.SUSPENDABLE && ssc.isSuspendable(className, methodname, desc))
+            if (suspendable != SuspendableType.SUSPENDABLE && ssc.isSuspendable(className, m.name, m.desc))
                 suspendable = max(suspendable, SuspendableType.SUSPENDABLE);
 
-            final SuspendableType suspendable1 = suspendable;
-            return new MethodVisitor(api, mv) {
-                private SuspendableType susp = suspendable1 != SuspendableType.NON_SUSPENDABLE ? suspendable1 : null;
+            SuspendableType susp = suspendable != SuspendableType.NON_SUSPENDABLE ? suspendable : null;
+            if (m.annotation == MethodSummary.SUSPENDABLE)
+                susp = m.noImpl ? SuspendableType.SUSPENDABLE_SUPER : SuspendableType.SUSPENDABLE;
+            else if (m.annotation == MethodSummary.DONT_INSTRUMENT)
+                susp = SuspendableType.NON_SUSPENDABLE;
 
-                @Override
-                public AnnotationVisitor visitAnnotation(String adesc, boolean visible) {
-                    final AnnotationVisitor av = super.visitAnnotation(desc, visible);
+            if (susp != null)
+                markKnownSuspendable(className, m.name, m.desc, susp, inProject);
+        }
+    }
 
-                    if (SUSPENDABLE_DESC.equals(adesc))
-                        susp = noImpl ? SuspendableType.SUSPENDABLE_SUPER : SuspendableType.SUSPENDABLE;
-                    else if (DONT_INSTRUMENT_DESC.equals(adesc))
-                        susp = SuspendableType.NON_SUSPENDABLE;
+    private void markKnownSuspendable(String className, String methodname, String desc, SuspendableType sus, boolean inProject) {
+        final MethodNode method = getOrCreateMethodNode(className + '.' + methodname + desc);
+        method.owner = className;
+        method.inProject |= inProject;
+        method.setSuspendType(max(method.suspendType, sus));
+        method.known = true;
 
-                    return av;
-                }
+        if (auto || inProject)
+            knownSuspendablesOrSupers.add(method);
 
-                @Override
-                public void visitEnd() {
-                    super.visitEnd();
+        log("Known suspendable " + className + '.' + methodname + desc, Project.MSG_VERBOSE);
+    }
 
-                    if (susp != null)
-                        markKnownSuspendable(methodname, desc, susp);
-                }
-            };
-        }
+    private static SuspendableType max(SuspendableType a, SuspendableType b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        return b.compareTo(a) > 0 ? b : a;
+    }
 
-        private void markKnownSuspendable(String methodname, String desc, SuspendableType sus) {
-            final MethodNode method = getOrCreateMethodNode(className + '.' + methodname + desc);
-            method.owner = className;
-            method.inProject |= inProject;
-            method.setSuspendType(max(method.suspendType, sus));
-            method.known = true;
+    /**
+     * Adds the class, its supers and its methods to the class graph.
+     */
+    private void addClassNode(ClassSummary c, boolean inProject) {
+        log("Loading and analyzing class " + c.name, Project.MSG_DEBUG);
 
-            if (auto || inProject)
-                knownSuspendablesOrSupers.add(method);
+        final ClassNode cn = getOrCreateClassNode(c.name);
+        cn.inProject |= inProject;
+        cn.setSupers(c.superName, c.interfaces);
 
-            log("Known suspendable " + className + '.' + methodname + desc, Project.MSG_VERBOSE);
-        }
+        final List<String> ms = new ArrayList<>(c.methods.size());
+        for (MethodSummary m : c.methods)
+            ms.add(m.name + m.desc);
+        cn.setMethods(ms);
+    }
 
-        private boolean checkExceptions(String[] exceptions) {
-            if (exceptions != null) {
-                for (String ex : exceptions) {
-                    if (ex.equals(SUSPEND_EXECUTION_NAME))
-                        return true;
+    /**
+     * Adds the class's methods' calls to the method graph.
+     */
+    private void addCalls(ClassSummary c, boolean inProject) {
+        for (MethodSummary m : c.methods) {
+            final MethodNode caller = getOrCreateMethodNode(c.name + '.' + m.name + m.desc);
+            caller.inProject |= inProject;
+            for (int i = 0; i < m.calls.size(); i += 3) {
+                final String owner = m.calls.get(i);
+                final String name = m.calls.get(i + 1);
+                final String desc = m.calls.get(i + 2);
+                if (isReflectInvocation(owner, name))
+                    log("NOTE: Reflective invocation in " + methodToString(c, m), Project.MSG_WARN);
+                else if (isInvocationHandlerInvocation(owner, name))
+                    log("NOTE: Invocation handler invocation in " + methodToString(c, m), Project.MSG_WARN);
+                else if (isMethodHandleInvocation(owner, name))
+                    log("NOTE: Method handle invocation in " + methodToString(c, m), Project.MSG_WARN);
+                else {
+                    final MethodNode callee = getOrCreateMethodNode(owner + '.' + name + desc);
+                    log("Adding caller " + caller + " to " + callee, Project.MSG_DEBUG);
+                    callee.addCaller(caller);
                 }
             }
-            return false;
+            for (int i = 0; i < m.invokeDynamics; i++)
+                log("NOTE: InvokeDynamic invocation in " + methodToString(c, m), Project.MSG_WARN);
         }
+    }
 
-        private SuspendableType max(SuspendableType a, SuspendableType b) {
-            if (a == null)
-                return b;
-            if (b == null)
-                return a;
-            return b.compareTo(a) > 0 ? b : a;
-        }
+    private static String methodToString(ClassSummary c, MethodSummary m) {
+        return (c.name + '.' + m.name + "(" + Arrays.toString(Type.getArgumentTypes(m.desc)) + ") - " + c.name + '.' + m.name + m.desc);
     }
 
-    private class ClassNodeVisitor extends ClassVisitor {
-        private final boolean inProject;
-        private String className;
-        private final List<String> methods = new ArrayList<>();
-        private ClassNode cn;
+    private void createGraph(URL url) throws IOException {
+        final ClassSummary c = summary(url, auto);
+        classify(c, true);
+        addClassNode(c, true);
+        if (auto)
+            addCalls(c, true);
+    }
 
-        public ClassNodeVisitor(boolean inProject, int api, ClassVisitor cv) {
-            super(api, cv);
-            this.inProject = inProject;
+    /**
+     * Everything the scanner needs to know about a class, so that it can be kept in the index rather than read from the class file on every run.
+     */
+    private static final class ClassSummary {
+        final boolean withCode; // whether the methods' calls have been recorded
+        String name;
+        String superName;
+        String[] interfaces;
+        boolean suspendableClass;
+        final List<MethodSummary> methods = new ArrayList<>();
+
+        ClassSummary(boolean withCode) {
+            this.withCode = withCode;
         }
 
-        @Override
-        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-            super.visit(version, access, name, signature, superName, interfaces);
-
-            this.className = name;
-            log("Loading and analyzing class " + className, Project.MSG_DEBUG);
-
-            cn = getOrCreateClassNode(className);
-            cn.inProject |= inProject;
-            cn.setSupers(superName, interfaces);
+        void write(DataOutput out) throws IOException {
+            out.writeBoolean(withCode);
+            out.writeUTF(name);
+            writeNullableUTF(out, superName);
+            out.writeInt(interfaces != null ? interfaces.length : -1);
+            if (interfaces != null) {
+                for (String iface : interfaces)
+                    out.writeUTF(iface);
+            }
+            out.writeBoolean(suspendableClass);
+            out.writeInt(methods.size());
+            for (MethodSummary m : methods) {
+                out.writeUTF(m.name);
+                out.writeUTF(m.desc);
+                out.writeBoolean(m.noImpl);
+                out.writeBoolean(m.throwsSuspendExecution);
+                out.writeByte(m.annotation);
+                out.writeInt(m.invokeDynamics);
+                out.writeInt(m.calls.size());
+                for (String s : m.calls)
+                    out.writeUTF(s);
+            }
         }
 
-        @Override
-        public MethodVisitor visitMethod(int access, String methodname, String desc, String signature, String[] exceptions) {
-            final MethodVisitor mv = super.visitMethod(access, methodname, desc, signature, exceptions);
-
-            methods.add((methodname + desc).intern());
+        static ClassSummary read(DataInput in) throws IOException {
+            final ClassSummary c = new ClassSummary(in.readBoolean());
+            c.name = in.readUTF();
+            c.superName = readNullableUTF(in);
+            final int numInterfaces = in.readInt();
+            if (numInterfaces >= 0) {
+                c.interfaces = new String[numInterfaces];
+                for (int i = 0; i < numInterfaces; i++)
+                    c.interfaces[i] = in.readUTF();
+            }
+            c.suspendableClass = in.readBoolean();
+            final int numMethods = in.readInt();
+            for (int i = 0; i < numMethods; i++) {
+                final MethodSummary m = new MethodSummary(in.readUTF(), in.readUTF());
+                m.noImpl = in.readBoolean();
+                m.throwsSuspendExecution = in.readBoolean();
+                m.annotation = in.readByte();
+                m.invokeDynamics = in.readInt();
+                final int numCalls = in.readInt();
+                for (int j = 0; j < numCalls; j++)
+                    m.calls.add(in.readUTF().intern());
+                c.methods.add(m);
+            }
+            return c;
+        }
 
-            return mv;
+        private static void writeNullableUTF(DataOutput out, String s) throws IOException {
+            out.writeBoolean(s != null);
+            if (s != null)
+                out.writeUTF(s);
         }
 
-        @Override
-        public void visitEnd() {
-            super.visitEnd();
+        private static String readNullableUTF(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
 
-            cn.setMethods(methods);
+    private static final class MethodSummary {
+        static final int SUSPENDABLE = 1;
+        static final int DONT_INSTRUMENT = 2;
+        final String name;
+        final String desc;
+        boolean noImpl;
+        boolean throwsSuspendExecution;
+        int annotation; // the last of @Suspendable or @DontInstrument, if any
+        int invokeDynamics;
+        final List<String> calls = new ArrayList<>(); // owner, name, desc of each called method
+
+        MethodSummary(String name, String desc) {
+            this.name = name;
+            this.desc = desc;
         }
     }
 
-    private class CallGraphVisitor extends ClassVisitor {
-        private final boolean inProject;
-        private String className;
+    private static class SummaryVisitor extends ClassVisitor {
+        private final ClassSummary summary;
 
-        public CallGraphVisitor(boolean inProject, int api, ClassVisitor cv) {
-            super(api, cv);
-            this.inProject = inProject;
+        SummaryVisitor(ClassSummary summary) {
+            super(ASMAPI);
+            this.summary = summary;
         }
 
         @Override
         public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-            super.visit(version, access, name, signature, superName, interfaces);
-            this.className = name;
+            summary.name = name;
+            summary.superName = superName;
+            summary.interfaces = interfaces;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String adesc, boolean visible) {
+            if (adesc.equals(SUSPENDABLE_DESC))
+                summary.suspendableClass = true;
+            return null;
         }
 
         @Override
-        public MethodVisitor visitMethod(int access, final String methodname, final String desc, String signature, String[] exceptions) {
-            final MethodVisitor mv = super.visitMethod(access, methodname, desc, signature, exceptions);
+        public MethodVisitor visitMethod(int access, String methodname, String desc, String signature, String[] exceptions) {
+            final MethodSummary m = new MethodSummary(methodname, desc);
+            m.noImpl = (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0;
+            m.throwsSuspendExecution = checkExceptions(exceptions);
+            summary.methods.add(m);
+
+            return new MethodVisitor(api) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String adesc, boolean visible) {
+                    if (SUSPENDABLE_DESC.equals(adesc))
+                        m.annotation = MethodSummary.SUSPENDABLE;
+                    else if (DONT_INSTRUMENT_DESC.equals(adesc))
+                        m.annotation = MethodSummary.DONT_INSTRUMENT;
+                    return null;
+                }
 
-            final MethodNode caller = getOrCreateMethodNode(className + '.' + methodname + desc);
-            caller.inProject |= inProject;
-            return new MethodVisitor(api, mv) {
                 @Override
                 public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-                    super.visitMethodInsn(opcode, owner, name, desc, itf);
-                    if (isReflectInvocation(owner, name))
-                        log("NOTE: Reflective invocation in " + methodToString(), Project.MSG_WARN);
-                    else if (isInvocationHandlerInvocation(owner, name))
-                        log("NOTE: Invocation handler invocation in " + methodToString(), Project.MSG_WARN);
-                    else if (isMethodHandleInvocation(owner, name))
-                        log("NOTE: Method handle invocation in " + methodToString(), Project.MSG_WARN);
-                    else {
-                        final MethodNode callee = getOrCreateMethodNode(owner + '.' + name + desc);
-                        log("Adding caller " + caller + " to " + callee, Project.MSG_DEBUG);
-                        callee.addCaller(caller);
-                    }
+                    m.calls.add(owner);
+                    m.calls.add(name);
+                    m.calls.add(desc);
                 }
 
                 @Override
                 public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
-                    super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
-
-                    log("NOTE: InvokeDynamic invocation in " + methodToString(), Project.MSG_WARN);
+                    m.invokeDynamics++;
                 }
+            };
+        }
 
-                private String methodToString() {
-                    return (className + '.' + methodname + "(" + Arrays.toString(Type.getArgumentTypes(desc)) + ") - " + className + '.' + methodname + desc);
+        private static boolean checkExceptions(String[] exceptions) {
+            if (exceptions != null) {
+                for (String ex : exceptions) {
+                    if (ex.equals(SUSPEND_EXECUTION_NAME))
+                        return true;
                 }
-            };
+            }
+            return false;
         }
     }
 
-    private void createGraph(InputStream classStream) throws IOException {
-        final ClassReader cr = new ClassReader(classStream);
-        ClassVisitor cv = null;
-        cv = new SuspendableClassifier(true, ASMAPI, cv);
-        cv = new ClassNodeVisitor(true, ASMAPI, cv);
-        if (auto)
-            cv = new CallGraphVisitor(true, ASMAPI, cv);
+    private static final class IndexEntry {
+        final String stamp;
+        final ClassSummary summary;
+
+        IndexEntry(String stamp, ClassSummary summary) {
+            this.stamp = stamp;
+            this.summary = summary;
+        }
+    }
+
+    int getIndexHits() {
+        return indexHits;
+    }
 
-        cr.accept(cv, ClassReader.SKIP_DEBUG | (auto ? 0 : ClassReader.SKIP_CODE));
+    int getIndexMisses() {
+        return indexMisses;
+    }
+
+    /**
+     * Identifies the version of a class file by the size and modification time of the file or of the jar containing it.
+     * Returns {@code null} for classes that aren't loaded from either.
+     */
+    private String stamp(URL url) {
+        try {
+            switch (url.getProtocol()) {
+                case "file":
+                    return stamp(new File(url.toURI()));
+                case "jar":
+                    final String path = url.getPath();
+                    final int sep = path.indexOf("!/");
+                    if (sep < 0)
+                        return null;
+                    final String jar = path.substring(0, sep);
+                    String stamp = jarStamps.get(jar);
+                    if (stamp == null && !jarStamps.containsKey(jar)) {
+                        final URL jarUrl = new URL(jar);
+                        stamp = "file".equals(jarUrl.getProtocol()) ? stamp(new File(jarUrl.toURI())) : null;
+                        jarStamps.put(jar, stamp);
+                    }
+                    return stamp;
+                default:
+                    return null;
+            }
+        } catch (URISyntaxException | MalformedURLException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String stamp(File file) {
+        return file.isFile() ? file.length() + ":" + file.lastModified() : null;
+    }
+
+    private void readIndex() {
+        oldIndex.clear();
+        newIndex.clear();
+        final File file = new File(indexFile);
+        if (!file.isFile())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_FORMAT)
+                return;
+            final int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                final String key = in.readUTF();
+                final String stamp = in.readUTF();
+                oldIndex.put(key, new IndexEntry(stamp, ClassSummary.read(in)));
+            }
+        } catch (IOException | RuntimeException e) {
+            log("Ignoring unreadable index " + indexFile + ": " + e, Project.MSG_WARN);
+            oldIndex.clear();
+        }
+    }
+
+    /**
+     * Writes the summaries of the classes read in this run, dropping those of classes that are gone.
+     */
+    private void writeIndex() throws IOException {
+        final File file = new File(indexFile);
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        final File tmp = new File(indexFile + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_FORMAT);
+            out.writeInt(newIndex.size());
+            for (Map.Entry<String, IndexEntry> e : newIndex.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue().stamp);
+                e.getValue().summary.write(out);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        oldIndex.clear();
     }
 
     private void walkGraph() {
@@ -662,11 +882,11 @@ public class SuspendablesScanner extends Task {
     private ClassNode fill(ClassNode node) {
         try {
             if (node.supers == null) {
-                try (InputStream is = cl.getResourceAsStream(classToResource(node.name))) {
-                    final ClassReader cr = new ClassReader(is);
-                    cr.accept(new ClassNodeVisitor(false, ASMAPI, null), ClassReader.SKIP_DEBUG | ClassReader.SKIP_CODE);
-                    assert node.supers != null;
-                }
+                final URL url = cl.getResource(classToResource(node.name));
+                if (url == null)
+                    throw new IOException("Class not found");
+                addClassNode(summary(url, false), false);
+                assert node.supers != null;
             }
             return node;
         } catch (IOException e) {
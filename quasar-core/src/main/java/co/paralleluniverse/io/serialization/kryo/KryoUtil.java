@@ -31,8 +31,13 @@ import org.objenesis.strategy.SerializingInstantiatorStrategy;
  */
 public final class KryoUtil {
     public static Kryo newKryo() {
-        Kryo kryo = new ReplaceableObjectKryo();
+        return configure(new ReplaceableObjectKryo());
+    }
 
+    /**
+     * Configures the given Kryo instance the way {@link #newKryo()} configures the instances it creates.
+     */
+    public static <K extends Kryo> K configure(K kryo) {
         kryo.setRegistrationRequired(false);
         kryo.setInstantiatorStrategy(new SerializingInstantiatorStrategy());
         registerCommonClasses(kryo);
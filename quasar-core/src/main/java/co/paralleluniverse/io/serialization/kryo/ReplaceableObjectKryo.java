@@ -47,7 +47,7 @@ public class ReplaceableObjectKryo extends Kryo {
             super.writeClass(output, null);
             return;
         }
-        Object newObj = getReplacement(getMethods(object.getClass()).writeReplace, object);
+        Object newObj = isReplaceable(object) ? getReplacement(getMethods(object.getClass()).writeReplace, object) : object;
         setAutoReset(false);
         Registration registration = super.writeClass(output, newObj.getClass());
         setAutoReset(true);
@@ -78,7 +78,8 @@ public class ReplaceableObjectKryo extends Kryo {
     public void writeObject(Output output, Object object, Serializer serializer) {
         Method m = getMethods(object.getClass()).writeReplace;
         if (m != null) {
-            object = getReplacement(m, object);
+            if (isReplaceable(object))
+                object = getReplacement(m, object);
             Registration reg = super.writeClass(output, object.getClass());
             serializer = reg.getSerializer();
         }
@@ -112,9 +113,17 @@ public class ReplaceableObjectKryo extends Kryo {
         return readReplace(super.readClassAndObject(input));
     }
 
+    /**
+     * Whether the given object is replaced by its {@code writeReplace} method when written, and by its {@code readResolve} method when read.
+     * Returns {@code true}; subclasses may keep some objects as they are.
+     */
+    protected boolean isReplaceable(Object object) {
+        return true;
+    }
+
     private <T> T readReplace(Object obj) {
-        if (obj == null)
-            return null;
+        if (obj == null || !isReplaceable(obj))
+            return (T) obj;
         return (T) getReplacement(getMethods(obj.getClass()).readResolve, obj);
     }
 
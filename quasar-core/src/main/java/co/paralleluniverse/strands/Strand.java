@@ -13,6 +13,7 @@
  */
 package co.paralleluniverse.strands;
 
+import co.paralleluniverse.common.util.CheckedCallable;
 import co.paralleluniverse.common.util.Exceptions;
 import co.paralleluniverse.fibers.Fiber;
 import co.paralleluniverse.fibers.FiberForkJoinScheduler;
@@ -470,6 +471,24 @@ public abstract class Strand {
             unit.sleep(duration);
     }
 
+    /**
+     * Runs a thread-blocking operation without blocking the current strand's thread, if the current strand is a fiber.
+     * In a fiber, the operation is run on its scheduler's {@link co.paralleluniverse.fibers.FiberBlockingPool blocking pool},
+     * and the fiber blocks until it completes; in a thread, the operation is simply called.
+     *
+     * @param callable the operation
+     * @return the operation's result
+     * @throws E                    if the operation has thrown an exception
+     * @throws InterruptedException if the current strand has been interrupted while waiting for the operation to complete,
+     *                              in which case the thread running the operation is interrupted.
+     */
+    public static <V, E extends Exception> V blocking(CheckedCallable<V, E> callable) throws E, SuspendExecution, InterruptedException {
+        final Fiber<?> fiber = Fiber.currentFiber();
+        if (fiber == null)
+            return callable.call();
+        return fiber.getScheduler().getBlockingPool().run(callable);
+    }
+
     /**
      * Disables the current strand for scheduling purposes unless the
      * permit is available.
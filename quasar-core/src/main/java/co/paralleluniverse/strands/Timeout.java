@@ -13,6 +13,7 @@
  */
 package co.paralleluniverse.strands;
 
+import co.paralleluniverse.common.util.TimerSlack;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -42,6 +43,29 @@ public class Timeout {
         this.deadline = System.nanoTime() + unit.toNanos(timeout);
     }
 
+    /**
+     * Starts a new {@code Timeout} that expires within the given timeout from the instant this constructor has been called,
+     * but may expire up to {@code slack} later.
+     * The deadline is rounded up to a multiple of the slack, so that timeouts with the same slack created around the same time
+     * expire at the same instant.
+     * <p>
+     * This only aligns the deadlines. Fibers parking until aligned deadlines share a single timer entry, and are resumed together,
+     * only if the fiber scheduler's timer has slack as well (see
+     * {@link co.paralleluniverse.fibers.FiberForkJoinScheduler#setTimerSlack(long, TimeUnit) FiberForkJoinScheduler.setTimerSlack}),
+     * and then only with the default, single-threaded timer; otherwise, each of them is resumed separately.
+     *
+     * @param timeout the duration of the timeout
+     * @param slack   the time by which the timeout may expire late
+     * @param unit    the time unit of {@code timeout} and {@code slack}
+     */
+    public Timeout(long timeout, long slack, TimeUnit unit) {
+        if (slack < 0)
+            throw new IllegalArgumentException("slack: " + slack);
+        final long s = unit.toNanos(slack);
+        final long d = System.nanoTime() + unit.toNanos(timeout);
+        this.deadline = s == 0 ? d : TimerSlack.roundUp(d, s);
+    }
+
     /**
      * Returns how many nanoseconds are left before the timeout expires,
      * or a negative number indicating how many nanoseconds have elapsed since
@@ -0,0 +1,181 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.concurrent.util;
+
+import co.paralleluniverse.common.test.TestUtil;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+/**
+ *
+ * @author pron
+ */
+public class TimingWheelDelayQueueTest {
+    @Rule
+    public TestRule watchman = TestUtil.WATCHMAN;
+
+    TimingWheelDelayQueue<Timeout> q;
+
+    @Before
+    public void setUp() {
+        q = new TimingWheelDelayQueue<>(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testTimedPoll() throws Exception {
+        q.offer(new Timeout(2, 100));
+        q.offer(new Timeout(1, 50));
+        q.offer(new Timeout(3, 150));
+
+        Timeout t;
+
+        t = q.poll(30, TimeUnit.MILLISECONDS);
+        assertThat(t, is(nullValue()));
+
+        t = q.poll(100, TimeUnit.MILLISECONDS);
+        assertThat(t.value, is(1));
+
+        t = q.poll(100, TimeUnit.MILLISECONDS);
+        assertThat(t.value, is(2));
+
+        t = q.poll(100, TimeUnit.MILLISECONDS);
+        assertThat(t.value, is(3));
+
+        assertThat(q.size(), is(0));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        final Timeout t1 = new Timeout(1, 50);
+        final Timeout t2 = new Timeout(2, 60);
+        q.offer(t1);
+        q.offer(t2);
+        assertThat(q.poll(), is(nullValue()));
+        q.remove(t1);
+
+        assertThat(q.take().value, is(2));
+        assertThat(q.poll(100, TimeUnit.MILLISECONDS), is(nullValue()));
+        assertThat(q.size(), is(0));
+    }
+
+    @Test
+    public void testPeek() throws Exception {
+        final Timeout t1 = new Timeout(1, 20);
+        q.offer(t1);
+        q.offer(new Timeout(2, 1000));
+        assertThat(q.peek(), is(nullValue())); // nothing has expired
+
+        Thread.sleep(50);
+        assertThat(q.peek(), is(sameInstance(t1)));
+        assertThat(q.peek(), is(sameInstance(t1)));
+        assertThat(q.size(), is(2));
+        assertThat(q.poll(), is(sameInstance(t1)));
+        assertThat(q.peek(), is(nullValue()));
+    }
+
+    @Test
+    public void testIterator() throws Exception {
+        final Timeout t1 = new Timeout(1, 0);
+        final Timeout t2 = new Timeout(2, 100);
+        final Timeout t3 = new Timeout(3, 10000); // in a higher level
+        final Timeout t4 = new Timeout(4, 200);
+        q.offer(t1);
+        q.offer(t2);
+        q.offer(t3);
+        q.offer(t4);
+        q.remove(t4);
+
+        final Set<Timeout> elements = new HashSet<>();
+        for (Timeout t : q)
+            elements.add(t);
+        assertThat(elements, is((Set<Timeout>) new HashSet<>(Arrays.asList(t1, t2, t3))));
+        assertThat(q.contains(t3), is(true));
+        assertThat(q.contains(t4), is(false));
+    }
+
+    @Test
+    public void testTimedPollOfEmptyQueue() throws Exception {
+        final long start = System.nanoTime();
+        assertThat(q.poll(50, TimeUnit.MILLISECONDS), is(nullValue()));
+        final long elapsed = System.nanoTime() - start;
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    public void testNeverEarly() throws Exception {
+        // spans several cascades of the second level
+        final Random rand = new Random(1);
+        final int n = 1000;
+        for (int i = 0; i < n; i++)
+            q.offer(new Timeout(i, rand.nextInt(1200)));
+
+        for (int i = 0; i < n; i++) {
+            final Timeout t = q.poll(2, TimeUnit.SECONDS);
+            assertThat(t, is(notNullValue()));
+            assertTrue(t.getDelay(TimeUnit.NANOSECONDS) <= 0);
+        }
+        assertThat(q.size(), is(0));
+    }
+
+    @Test
+    public void testProducerWakesConsumer() throws Exception {
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    q.offer(new Timeout(1, 10));
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        producer.start();
+
+        final long start = System.nanoTime();
+        final Timeout t = q.poll(1, TimeUnit.SECONDS);
+        assertThat(t.value, is(1));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    static final class Timeout extends TimingWheelDelayQueue.Entry {
+        final int value;
+        final long time;
+
+        Timeout(int value, long delayMillis) {
+            this.value = value;
+            this.time = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(time, ((Timeout) o).time);
+        }
+    }
+}
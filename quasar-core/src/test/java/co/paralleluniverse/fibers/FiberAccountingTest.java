@@ -0,0 +1,76 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.test.TestUtil;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+/**
+ *
+ * @author pron
+ */
+public class FiberAccountingTest {
+    @Rule
+    public TestRule watchman = TestUtil.WATCHMAN;
+
+    @Test
+    public void testNamePrefix() {
+        assertThat(FiberAccounting.namePrefix("worker-17"), is("worker"));
+        assertThat(FiberAccounting.namePrefix("fiber-test-10000042"), is("fiber-test"));
+        assertThat(FiberAccounting.namePrefix("http.handler#3"), is("http.handler"));
+        assertThat(FiberAccounting.namePrefix("consumer"), is("consumer"));
+        assertThat(FiberAccounting.namePrefix("1234"), is("1234"));
+    }
+
+    @Test
+    public void testTopGroups() {
+        final FiberAccounting accounting = new FiberAccounting();
+        final Fiber<Void> w1 = fiber("worker-1");
+        final Fiber<Void> w2 = fiber("worker-2");
+        final Fiber<Void> c = fiber("consumer-1");
+        final Fiber<Void> t = fiber("anything-1").setAccountingTag("tagged");
+
+        accounting.record(w1, 100);
+        accounting.record(w2, 200);
+        accounting.record(w1, 300);
+        accounting.record(c, 1000);
+        accounting.record(t, 50);
+
+        final FiberGroupInfo[] top = accounting.top(2);
+        assertThat(top.length, is(2));
+        assertThat(top[0].getName(), is("consumer"));
+        assertThat(top[0].getCpuTime(), is(1000L));
+        assertThat(top[1].getName(), is("worker"));
+        assertThat(top[1].getCpuTime(), is(600L));
+        assertThat(top[1].getRuns(), is(3L));
+        assertThat(top[1].getAverageSlice(), is(200L));
+
+        final FiberGroupInfo[] all = accounting.top(10);
+        assertThat(all.length, is(3));
+        assertThat(all[2].getName(), is("tagged"));
+    }
+
+    private static Fiber<Void> fiber(String name) {
+        return new Fiber<Void>(name, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+            }
+        });
+    }
+}
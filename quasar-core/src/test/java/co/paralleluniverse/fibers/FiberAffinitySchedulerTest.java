@@ -0,0 +1,148 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class FiberAffinitySchedulerTest {
+    private FiberAffinityScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    @Test
+    public void testResumedOnLastThread() throws Exception {
+        scheduler = new FiberAffinityScheduler("test", 2);
+        scheduler.setMaxInboxWait(1, TimeUnit.MINUTES); // so that the fiber isn't taken out of the inbox while the threads are busy
+        final AtomicReference<Thread> first = new AtomicReference<>();
+        final AtomicReference<Thread> second = new AtomicReference<>();
+        final Fiber<Void> fiber = parker(first, second).start();
+        awaitParked(fiber);
+
+        // occupy both threads, so the fiber can only be picked up from its last thread's inbox
+        final AtomicReference<Thread> thread1 = new AtomicReference<>();
+        final AtomicReference<Thread> thread2 = new AtomicReference<>();
+        final AtomicBoolean release1 = new AtomicBoolean();
+        final AtomicBoolean release2 = new AtomicBoolean();
+        final Fiber<Void> spinner1 = spinner(thread1, release1).start();
+        final Fiber<Void> spinner2 = spinner(thread2, release2).start();
+        while (thread1.get() == null || thread2.get() == null)
+            Thread.sleep(1);
+
+        final FiberForkJoinScheduler.FiberWorkerThread worker = (FiberForkJoinScheduler.FiberWorkerThread) first.get();
+        fiber.unpark();
+        assertEquals(1, worker.affinityInbox.size());
+
+        (thread1.get() == worker ? release1 : release2).set(true);
+        fiber.join();
+        assertSame(worker, second.get());
+        assertTrue(worker.affinityInbox.isEmpty());
+
+        release1.set(true);
+        release2.set(true);
+        spinner1.join();
+        spinner2.join();
+    }
+
+    @Test
+    public void testNotHeldUpByLongFiber() throws Exception {
+        scheduler = new FiberAffinityScheduler("test", 2);
+        final AtomicReference<Thread> first = new AtomicReference<>();
+        final AtomicReference<Thread> second = new AtomicReference<>();
+        final Fiber<Void> fiber = parker(first, second).start();
+        awaitParked(fiber);
+
+        // keep the fiber's last thread busy, and leave the other one idle
+        final AtomicReference<Thread> thread1 = new AtomicReference<>();
+        final AtomicReference<Thread> thread2 = new AtomicReference<>();
+        final AtomicBoolean release1 = new AtomicBoolean();
+        final AtomicBoolean release2 = new AtomicBoolean();
+        final Fiber<Void> spinner1 = spinner(thread1, release1).start();
+        final Fiber<Void> spinner2 = spinner(thread2, release2).start();
+        while (thread1.get() == null || thread2.get() == null)
+            Thread.sleep(1);
+
+        final FiberForkJoinScheduler.FiberWorkerThread worker = (FiberForkJoinScheduler.FiberWorkerThread) first.get();
+        final boolean spinner1OnWorker = thread1.get() == worker;
+        (spinner1OnWorker ? release2 : release1).set(true);
+        (spinner1OnWorker ? spinner2 : spinner1).join();
+
+        fiber.unpark();
+        fiber.join(5, TimeUnit.SECONDS);
+        assertNotSame(worker, second.get());
+        assertTrue(worker.affinityInbox.isEmpty());
+        assertFalse((spinner1OnWorker ? spinner1 : spinner2).isDone()); // the long fiber still holds the fiber's last thread
+
+        release1.set(true);
+        release2.set(true);
+        spinner1.join();
+        spinner2.join();
+    }
+
+    @Test
+    public void testIdleLastThread() throws Exception {
+        scheduler = new FiberAffinityScheduler("test", 2);
+        final AtomicReference<Thread> first = new AtomicReference<>();
+        final AtomicReference<Thread> second = new AtomicReference<>();
+        final Fiber<Void> fiber = parker(first, second).start();
+        awaitParked(fiber);
+
+        final FiberForkJoinScheduler.FiberWorkerThread worker = (FiberForkJoinScheduler.FiberWorkerThread) first.get();
+        fiber.unpark();
+        fiber.join();
+        assertNotNull(second.get());
+        assertTrue(worker.affinityInbox.isEmpty());
+    }
+
+    private Fiber<Void> parker(final AtomicReference<Thread> first, final AtomicReference<Thread> second) {
+        return new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                first.set(Thread.currentThread());
+                Fiber.park();
+                second.set(Thread.currentThread());
+            }
+        });
+    }
+
+    private Fiber<Void> spinner(final AtomicReference<Thread> thread, final AtomicBoolean release) {
+        return new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                thread.set(Thread.currentThread());
+                while (!release.get())
+                    ; // keeps the thread busy without parking
+            }
+        });
+    }
+
+    private static void awaitParked(Fiber<?> fiber) throws InterruptedException {
+        while (fiber.getState() != Strand.State.WAITING)
+            Thread.sleep(1);
+    }
+}
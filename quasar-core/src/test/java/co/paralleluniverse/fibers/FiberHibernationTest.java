@@ -0,0 +1,318 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.monitoring.MonitorType;
+import co.paralleluniverse.strands.SuspendableCallable;
+import co.paralleluniverse.strands.channels.Channel;
+import co.paralleluniverse.strands.channels.Channels;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class FiberHibernationTest {
+    private FiberScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    @Test
+    public void testHibernateAndRehydrate() throws Exception {
+        scheduler = newScheduler("test", MonitorType.NONE, 20);
+        final Fiber<String> fiber = new Fiber<>(scheduler, new SuspendableCallable<String>() {
+            @Override
+            public String run() throws SuspendExecution, InterruptedException {
+                final List<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+                final long x = 12345678901L;
+                final Fiber<?> self = Fiber.currentFiber();
+                Fiber.park();
+                assertThat(Fiber.currentFiber(), is((Object) self)); // strands keep their identity
+                return list.toString() + x;
+            }
+        }).setHibernatable(true).start();
+
+        awaitHibernated(1);
+        assertThat(fiber.isHibernatable(), is(true));
+        assertThat(scheduler.getHibernator().getSpillFileUsedBytes() > 0, is(true));
+
+        fiber.unpark();
+        assertThat(fiber.get(), is("[a, b]12345678901"));
+        assertThat(scheduler.getHibernator().getHibernatedCount(), is(0L));
+    }
+
+    @Test
+    public void testReceiveFromChannel() throws Exception {
+        scheduler = newScheduler("test", MonitorType.NONE, 20);
+        final Channel<String> channel = Channels.newChannel(10);
+        final Fiber<String> fiber = new Fiber<>(scheduler, new SuspendableCallable<String>() {
+            @Override
+            public String run() throws SuspendExecution, InterruptedException {
+                return channel.receive();
+            }
+        }).setHibernatable(true).start();
+
+        awaitHibernated(1);
+        channel.send("hello"); // the hibernated fiber must wake up, and receive from the same channel
+        assertThat(fiber.get(5, TimeUnit.SECONDS), is("hello"));
+    }
+
+    @Test
+    public void testSharedObjectsKeepTheirIdentity() throws Exception {
+        scheduler = newScheduler("test", MonitorType.NONE, 20);
+        final List<String> shared = new ArrayList<>();
+        final SuspendableCallable<Object> target = new SuspendableCallable<Object>() {
+            @Override
+            public Object run() throws SuspendExecution, InterruptedException {
+                final List<String> list = shared;
+                final List<String> own = new ArrayList<>(Arrays.asList("a"));
+                Fiber.park();
+                list.add("x");
+                own.add("b");
+                assertThat(own, is(Arrays.asList("a", "b")));
+                return this;
+            }
+        };
+        final Fiber<Object> fiber = new Fiber<>(scheduler, target).setHibernatable(true).start();
+
+        awaitHibernated(1);
+        fiber.unpark();
+        assertThat(fiber.get(5, TimeUnit.SECONDS), sameInstance((Object) target));
+        assertThat(shared, is(Arrays.asList("x")));
+    }
+
+    @Test
+    public void testTooManySharedObjects() throws Exception {
+        scheduler = newScheduler("test", MonitorType.NONE, 20);
+        final List<Object> shared = new ArrayList<>();
+        for (int i = 0; i < 20000; i++)
+            shared.add(new Object());
+        final Fiber<Integer> fiber = new Fiber<>(scheduler, new SuspendableCallable<Integer>() {
+            @Override
+            public Integer run() throws SuspendExecution, InterruptedException {
+                final List<Object> list = shared;
+                Fiber.park();
+                return list.size();
+            }
+        }).setHibernatable(true).start();
+
+        for (int i = 0; i < 100 && fiber.isHibernatable(); i++)
+            Thread.sleep(20);
+        assertThat(fiber.isHibernatable(), is(false)); // hibernation has been refused
+        assertThat(fiber.hibernation, is(FiberHibernator.AWAKE));
+        fiber.unpark();
+        assertThat(fiber.get(5, TimeUnit.SECONDS), is(20000));
+    }
+
+    @Test
+    public void testNotHibernatable() throws Exception {
+        scheduler = newScheduler("test", MonitorType.NONE, 20);
+        final Fiber<Void> fiber = new Fiber<Void>(scheduler, new SuspendableCallable<Void>() {
+            @Override
+            public Void run() throws SuspendExecution, InterruptedException {
+                Fiber.park();
+                return null;
+            }
+        }).start();
+
+        Thread.sleep(200);
+        assertThat(fiber.hibernation, is(FiberHibernator.AWAKE));
+        fiber.unpark();
+        fiber.join();
+    }
+
+    @Test
+    public void testParkAndUnparkImmediately() throws Exception {
+        scheduler = newScheduler("test", MonitorType.NONE, 0); // fibers are hibernated as soon as they've parked
+        final int parks = 5000;
+        final Fiber<Integer> fiber = new Fiber<>(scheduler, new SuspendableCallable<Integer>() {
+            @Override
+            public Integer run() throws SuspendExecution, InterruptedException {
+                final List<Integer> list = new ArrayList<>();
+                for (int i = 0; i < parks; i++) {
+                    final long x = i * 3L;
+                    list.add(i);
+                    Fiber.park();
+                    assertThat(x, is(i * 3L));
+                    assertThat(list.size(), is(i + 1));
+                }
+                return list.size();
+            }
+        }).setHibernatable(true).start();
+
+        final Thread unparker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!fiber.isDone()) {
+                    fiber.unpark();
+                    Thread.yield();
+                }
+            }
+        });
+        unparker.start();
+        try {
+            assertThat(fiber.get(30, TimeUnit.SECONDS), is(parks));
+        } finally {
+            unparker.join();
+        }
+        assertThat(scheduler.getHibernator().getHibernatedCount(), is(0L));
+    }
+
+    @Test
+    public void testResumeWhileHibernating() throws Exception {
+        scheduler = newScheduler("test", MonitorType.NONE, 20);
+        final Fiber<Integer> fiber = new Fiber<>(scheduler, new SuspendableCallable<Integer>() {
+            @Override
+            public Integer run() throws SuspendExecution, InterruptedException {
+                final SlowToWrite value = new SlowToWrite(7);
+                Fiber.park();
+                return value.value;
+            }
+        }).setHibernatable(true).start();
+
+        assertThat(SlowToWrite.writing.await(5, TimeUnit.SECONDS), is(true)); // the hibernator is writing the stack
+        fiber.unpark();
+        Thread.sleep(50);
+        SlowToWrite.release.countDown();
+
+        assertThat(fiber.get(5, TimeUnit.SECONDS), is(7));
+        assertThat(scheduler.getHibernator().getHibernatedCount(), is(0L));
+    }
+
+    @Test
+    public void testMonitor() throws Exception {
+        scheduler = newScheduler("hibernation-monitor-test", MonitorType.JMX, 20);
+        final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("co.paralleluniverse:type=Fibers,name=hibernation-monitor-test");
+        assertThat((Long) mbs.getAttribute(name, "HibernatedFibers"), is(0L));
+
+        final Fiber<String> fiber = new Fiber<>(scheduler, new SuspendableCallable<String>() {
+            @Override
+            public String run() throws SuspendExecution, InterruptedException {
+                final String s = "hello";
+                Fiber.park();
+                return s;
+            }
+        }).setHibernatable(true).start();
+
+        awaitHibernated(1);
+        assertThat((Long) mbs.getAttribute(name, "HibernatedFibers"), is(1L));
+        assertThat((Long) mbs.getAttribute(name, "SpillFileSize") > 0, is(true));
+        assertThat((Long) mbs.getAttribute(name, "SpillFileUsedBytes") > 0, is(true));
+
+        fiber.unpark();
+        assertThat(fiber.get(), is("hello"));
+        assertThat((Long) mbs.getAttribute(name, "HibernatedFibers"), is(0L));
+        assertThat((Long) mbs.getAttribute(name, "SpillFileUsedBytes"), is(0L));
+    }
+
+    @Test
+    public void testDisableHibernation() throws Exception {
+        scheduler = newScheduler("test", MonitorType.NONE, 20);
+        final File spillFile = scheduler.getHibernator().getSpillFile();
+        final Fiber<String> fiber = new Fiber<>(scheduler, new SuspendableCallable<String>() {
+            @Override
+            public String run() throws SuspendExecution, InterruptedException {
+                final String s = "hello";
+                Fiber.park();
+                return s;
+            }
+        }).setHibernatable(true).start();
+        awaitHibernated(1);
+
+        scheduler.disableHibernation();
+        Thread.sleep(50);
+        assertThat(spillFile.exists(), is(true)); // still holds the hibernated fiber
+
+        fiber.unpark();
+        assertThat(fiber.get(), is("hello"));
+        assertThat(spillFile.exists(), is(false));
+
+        final Fiber<Void> other = new Fiber<Void>(scheduler, new SuspendableCallable<Void>() {
+            @Override
+            public Void run() throws SuspendExecution, InterruptedException {
+                Fiber.park();
+                return null;
+            }
+        }).setHibernatable(true).start();
+        Thread.sleep(100);
+        assertThat(other.hibernation, is(FiberHibernator.AWAKE));
+        other.unpark();
+        other.join();
+    }
+
+    private static FiberScheduler newScheduler(String name, MonitorType monitorType, long thresholdMillis) throws Exception {
+        final FiberScheduler scheduler = new FiberForkJoinScheduler(name, 2, monitorType, false);
+        scheduler.enableHibernation(thresholdMillis, TimeUnit.MILLISECONDS, null);
+        return scheduler;
+    }
+
+    private void awaitHibernated(long n) throws InterruptedException {
+        for (int i = 0; i < 100 && scheduler.getHibernator().getHibernatedCount() != n; i++)
+            Thread.sleep(20);
+        assertThat(scheduler.getHibernator().getHibernatedCount(), is(n));
+    }
+
+    /**
+     * Blocks the hibernator while it is written for the first time.
+     */
+    public static class SlowToWrite implements KryoSerializable {
+        static final CountDownLatch writing = new CountDownLatch(1);
+        static final CountDownLatch release = new CountDownLatch(1);
+        int value;
+
+        public SlowToWrite() {
+        }
+
+        SlowToWrite(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output) {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            output.writeInt(value);
+        }
+
+        @Override
+        public void read(Kryo kryo, Input input) {
+            this.value = input.readInt();
+        }
+    }
+}
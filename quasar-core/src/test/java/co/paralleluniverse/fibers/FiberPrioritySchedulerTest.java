@@ -0,0 +1,89 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class FiberPrioritySchedulerTest {
+    private FiberPriorityScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    @Test
+    public void testHighPriorityRunsFirst() throws Exception {
+        scheduler = new FiberPriorityScheduler("test", 1, 3, 1000, null, null, false);
+        final List<String> order = runQueued(5, 1);
+
+        assertEquals("high", order.get(0));
+    }
+
+    @Test
+    public void testLowPriorityIsNotStarved() throws Exception {
+        scheduler = new FiberPriorityScheduler("test", 1, 3, 2, null, null, false);
+        final List<String> order = runQueued(1, 10);
+
+        assertTrue(order.indexOf("low") <= 2);
+    }
+
+    /**
+     * Starts the given numbers of low and high priority fibers from a fiber on the scheduler's single thread, so that they're all
+     * queued before any of them runs, and then lets them all run.
+     */
+    private List<String> runQueued(int lows, int highs) throws Exception {
+        final List<String> order = new ArrayList<>();
+        final List<Fiber<Void>> fibers = new ArrayList<>();
+        for (int i = 0; i < lows; i++)
+            fibers.add(recorder(order, "low").setPriority(Strand.MIN_PRIORITY));
+        for (int i = 0; i < highs; i++)
+            fibers.add(recorder(order, "high").setPriority(Strand.MAX_PRIORITY));
+
+        final Fiber<Void> starter = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (Fiber<Void> f : fibers)
+                    f.start(); // none can run before this fiber returns
+            }
+        }).start();
+
+        starter.join();
+        for (Fiber<Void> f : fibers)
+            f.join();
+        return order;
+    }
+
+    private Fiber<Void> recorder(final List<String> order, final String name) {
+        return new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                synchronized (order) {
+                    order.add(name);
+                }
+            }
+        });
+    }
+}
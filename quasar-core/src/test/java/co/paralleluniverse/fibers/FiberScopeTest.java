@@ -0,0 +1,102 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableCallable;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.hamcrest.CoreMatchers.*;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class FiberScopeTest {
+    private final FiberScheduler scheduler = new FiberForkJoinScheduler("test", 4, null, false);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testJoin() throws Exception {
+        final FiberScope scope = new FiberScope(scheduler);
+        final Fiber<Integer> a = scope.fork(sleeper(50, 1));
+        final Fiber<Integer> b = scope.fork(sleeper(100, 2));
+        scope.join();
+
+        assertThat(scope.getRunningCount(), is(0));
+        assertThat(a.get() + b.get(), is(3));
+    }
+
+    @Test
+    public void testFailureCancelsSiblings() throws Exception {
+        final FiberScope scope = new FiberScope(scheduler);
+        final Fiber<Integer> slow = scope.fork(sleeper(5000, 1));
+        scope.fork(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                Fiber.sleep(20);
+                throw new IllegalStateException("fail");
+            }
+        });
+
+        try {
+            scope.join();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), is("fail"));
+        }
+        assertThat(scope.isCancelled(), is(true));
+        awaitTermination(slow); // interrupted, rather than left running
+    }
+
+    @Test
+    public void testTimeoutCancelsChildren() throws Exception {
+        final Fiber<Integer> slow;
+        try (FiberScope scope = new FiberScope(scheduler)) {
+            slow = scope.fork(sleeper(5000, 1));
+            try {
+                scope.join(50, TimeUnit.MILLISECONDS);
+                fail();
+            } catch (TimeoutException e) {
+            }
+        }
+        awaitTermination(slow);
+    }
+
+    private static void awaitTermination(Fiber<?> fiber) throws Exception {
+        try {
+            fiber.join(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+        }
+        assertThat(fiber.isDone(), is(true));
+    }
+
+    private static SuspendableCallable<Integer> sleeper(final long millis, final int result) {
+        return new SuspendableCallable<Integer>() {
+            @Override
+            public Integer run() throws SuspendExecution, InterruptedException {
+                Fiber.sleep(millis);
+                return result;
+            }
+        };
+    }
+}
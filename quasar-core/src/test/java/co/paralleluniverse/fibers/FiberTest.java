@@ -14,6 +14,7 @@
 package co.paralleluniverse.fibers;
 
 import co.paralleluniverse.common.test.TestUtil;
+import co.paralleluniverse.common.util.CheckedCallable;
 import co.paralleluniverse.common.util.Debug;
 import co.paralleluniverse.common.util.Exceptions;
 import co.paralleluniverse.io.serialization.ByteArraySerializer;
@@ -24,6 +25,7 @@ import co.paralleluniverse.strands.Strand;
 import co.paralleluniverse.strands.SuspendableCallable;
 import co.paralleluniverse.strands.SuspendableRunnable;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
 import java.io.Serializable;
 
 import java.util.ArrayList;
@@ -31,11 +33,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
@@ -250,6 +254,245 @@ public class FiberTest implements Serializable {
         assertThat(terminated.get(), is(false));
     }
 
+    @Test
+    public void testParkAndUnpark() throws Exception {
+        final int rounds = 1000;
+        pingPong(scheduler, rounds, -1, new AtomicInteger(-1), new AtomicInteger());
+
+        // With a single worker, a fiber submitted in the middle of the rounds only gets to run once they're done,
+        // unless the ping-pong fibers are themselves submitted rather than handed off.
+        // Each fiber must also run only after the other has parked, rather than nested in its call to parkAndUnpark.
+        final FiberForkJoinScheduler ownScheduler = new FiberForkJoinScheduler("test-handoff", 1, null, false);
+        ownScheduler.setMaxHandOffChain(Integer.MAX_VALUE);
+        try {
+            final AtomicInteger observed = new AtomicInteger(-1);
+            final AtomicInteger nested = new AtomicInteger();
+            pingPong(ownScheduler, rounds, rounds / 2, observed, nested);
+            assertThat(observed.get(), is(rounds));
+            assertThat(nested.get(), is(0));
+        } finally {
+            ownScheduler.shutdown();
+        }
+    }
+
+    /**
+     * Has two fibers take turns with {@code parkAndUnpark}, the first one starting the second.
+     *
+     * @param observeAt the turn at which a third fiber is started, which sets {@code observed} to the turn it sees; {@code -1} for none
+     * @param nested    counts the turns taken while the other fiber hadn't parked
+     */
+    private static void pingPong(final FiberScheduler scheduler, final int rounds, final int observeAt,
+            final AtomicInteger observed, final AtomicInteger nested) throws Exception {
+        final AtomicInteger turn = new AtomicInteger();
+        final Fiber<Void> observer = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                observed.set(turn.get());
+            }
+        });
+        final Fiber[] fibers = new Fiber[2];
+        for (int i = 0; i < 2; i++) {
+            final int me = i;
+            fibers[i] = new Fiber(scheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    final Fiber other = fibers[1 - me];
+                    if (me == 0)
+                        other.start();
+                    int t;
+                    while ((t = turn.get()) < rounds) {
+                        if (t % 2 != me) {
+                            Fiber.park(); // woken before our turn by a permit left over from the start
+                            continue;
+                        }
+                        if (t == observeAt)
+                            observer.start();
+                        if (t > 1 && other.getState() != Strand.State.WAITING)
+                            nested.incrementAndGet();
+                        turn.incrementAndGet();
+                        Fiber.parkAndUnpark(other);
+                    }
+                    other.unpark();
+                }
+            });
+        }
+        fibers[0].start();
+        fibers[0].join(5, TimeUnit.SECONDS);
+        fibers[1].join(5, TimeUnit.SECONDS);
+        assertThat(turn.get(), is(rounds));
+        if (observeAt >= 0)
+            observer.join(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testParkAndUnparkWithoutParking() throws Exception {
+        final FiberForkJoinScheduler ownScheduler = new FiberForkJoinScheduler("test-handoff", 2, null, false);
+        try {
+            final AtomicBoolean ran = new AtomicBoolean();
+            final Fiber<Void> other = new Fiber<Void>(ownScheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    Fiber.park();
+                    ran.set(true);
+                }
+            }).start();
+            while (other.getState() != Strand.State.WAITING)
+                Thread.sleep(1);
+
+            final Fiber<Boolean> fiber = new Fiber<>(ownScheduler, new SuspendableCallable<Boolean>() {
+                @Override
+                public Boolean run() throws SuspendExecution, InterruptedException {
+                    Fiber.currentFiber().unpark(); // so the following park returns immediately
+                    Fiber.parkAndUnpark(other);
+
+                    // other must be able to run on the other worker while this fiber keeps running
+                    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                    while (!ran.get() && System.nanoTime() < deadline)
+                        Thread.yield();
+                    return ran.get();
+                }
+            }).start();
+
+            assertThat(fiber.get(10, TimeUnit.SECONDS), is(true));
+            other.join(5, TimeUnit.SECONDS);
+        } finally {
+            ownScheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlocking() throws Exception {
+        Fiber<String> fiber = new Fiber<>(scheduler, new SuspendableCallable<String>() {
+            @Override
+            public String run() throws SuspendExecution, InterruptedException {
+                final Thread fiberThread = Thread.currentThread();
+                return Strand.blocking(new CheckedCallable<String, InterruptedException>() {
+                    @Override
+                    public String call() throws InterruptedException {
+                        assertNotSame(fiberThread, Thread.currentThread());
+                        Thread.sleep(20);
+                        return Thread.currentThread().getName();
+                    }
+                });
+            }
+        }).start();
+
+        assertTrue(fiber.get(5, TimeUnit.SECONDS).startsWith("fiber-blocking-"));
+        assertThat(scheduler.getBlockingPool().getQueueLength(), is(0));
+    }
+
+    @Test
+    public void testBlockingException() throws Exception {
+        Fiber<Void> fiber = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                try {
+                    Strand.blocking(new CheckedCallable<Void, IOException>() {
+                        @Override
+                        public Void call() throws IOException {
+                            throw new IOException("foo");
+                        }
+                    });
+                    fail();
+                } catch (IOException e) {
+                    assertThat(e.getMessage(), is("foo"));
+                }
+            }
+        }).start();
+
+        fiber.join(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testBlockingInterrupt() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        Fiber<Void> fiber = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                try {
+                    Strand.blocking(new CheckedCallable<Void, RuntimeException>() {
+                        @Override
+                        public Void call() {
+                            running.countDown();
+                            try {
+                                Thread.sleep(10000);
+                            } catch (InterruptedException e) {
+                                interrupted.set(true);
+                            }
+                            done.countDown();
+                            return null;
+                        }
+                    });
+                    fail("InterruptedException not thrown");
+                } catch (InterruptedException e) {
+                }
+            }
+        }).start();
+
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        fiber.interrupt();
+        fiber.join(5, TimeUnit.SECONDS);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertThat(interrupted.get(), is(true)); // the thread running the operation has been interrupted, too
+    }
+
+    @Test
+    public void testBlockingCancelWhileQueued() throws Exception {
+        final FiberScheduler ownScheduler = new FiberForkJoinScheduler("test-blocking", 2, null, false);
+        ownScheduler.getBlockingPool().setMaxThreads(1);
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            final AtomicBoolean ran = new AtomicBoolean();
+            final Fiber<Void> first = new Fiber<Void>(ownScheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    Strand.blocking(new CheckedCallable<Void, InterruptedException>() {
+                        @Override
+                        public Void call() throws InterruptedException {
+                            release.await(); // occupies the pool's only thread
+                            return null;
+                        }
+                    });
+                }
+            }).start();
+            while (ownScheduler.getBlockingPool().getThreadCount() == 0)
+                Thread.sleep(1);
+
+            final Fiber<Void> second = new Fiber<Void>(ownScheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution {
+                    try {
+                        Strand.blocking(new CheckedCallable<Void, RuntimeException>() {
+                            @Override
+                            public Void call() {
+                                ran.set(true);
+                                return null;
+                            }
+                        });
+                        fail("InterruptedException not thrown");
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }).start();
+            while (ownScheduler.getBlockingPool().getQueueLength() == 0)
+                Thread.sleep(1);
+
+            second.cancel(true);
+            second.join(5, TimeUnit.SECONDS);
+
+            release.countDown();
+            first.join(5, TimeUnit.SECONDS);
+            while (ownScheduler.getBlockingPool().getQueueLength() != 0) // the cancelled operation is dequeued, but not run
+                Thread.sleep(1);
+            Thread.sleep(50);
+            assertThat(ran.get(), is(false));
+        } finally {
+            ownScheduler.shutdown();
+        }
+    }
+
     @Test
     public void testThreadLocals() throws Exception {
         final ThreadLocal<String> tl1 = new ThreadLocal<>();
@@ -337,8 +580,128 @@ public class FiberTest implements Serializable {
 
         assertThat(tl1.get(), is("foo"));
     }
-    
-    
+
+    @Test
+    public void testFiberLocal() throws Exception {
+        final FiberLocal<String> fl = new FiberLocal<String>() {
+            @Override
+            protected String initialValue() {
+                return "init";
+            }
+        };
+        fl.set("foo");
+
+        Fiber fiber = new Fiber(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                assertThat(fl.get(), is("init"));
+
+                fl.set("koko");
+                Fiber.sleep(100);
+                assertThat(fl.get(), is("koko"));
+
+                fl.remove();
+                assertThat(fl.get(), is("init"));
+            }
+        });
+        fiber.start();
+        fiber.join();
+
+        assertThat(fl.get(), is("foo"));
+    }
+
+    @Test
+    public void testSwitchOnlyFiberThreadLocals() throws Exception {
+        final ThreadLocal<String> tl1 = new ThreadLocal<>();
+        final FiberScheduler ownScheduler = new FiberForkJoinScheduler("test-locals", 2, null, false); // registered ThreadLocals can't be removed
+        ownScheduler.addFiberThreadLocal(tl1);
+        ownScheduler.setSwitchAllThreadLocals(false);
+        try {
+            Fiber fiber = new Fiber(ownScheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    assertThat(tl1.get(), is(nullValue()));
+                    tl1.set("koko");
+
+                    Fiber.sleep(100);
+
+                    assertThat(tl1.get(), is("koko"));
+                }
+            });
+            fiber.start();
+            fiber.join();
+
+            assertThat(tl1.get(), is(nullValue()));
+        } finally {
+            ownScheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testSwitchedThreadLocalsAreInitializedInFiber() throws Exception {
+        final AtomicInteger initialized = new AtomicInteger();
+        final ThreadLocal<String> tl1 = new ThreadLocal<String>() {
+            @Override
+            protected String initialValue() {
+                initialized.incrementAndGet();
+                return Strand.currentStrand().getName();
+            }
+        };
+        final FiberScheduler ownScheduler = new FiberForkJoinScheduler("test-locals", 2, null, false);
+        ownScheduler.addFiberThreadLocal(tl1);
+        ownScheduler.setSwitchAllThreadLocals(false);
+        try {
+            Fiber fiber = new Fiber("local-fiber", ownScheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    Fiber.sleep(10);
+                    assertThat(tl1.get(), is("local-fiber"));
+                    Fiber.sleep(10);
+                    assertThat(tl1.get(), is("local-fiber"));
+                }
+            });
+            fiber.start();
+            fiber.join();
+
+            assertThat(initialized.get(), is(1)); // not run for the carrier threads when installing and restoring the fiber's value
+        } finally {
+            ownScheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testSwitchedThreadLocalSetToNull() throws Exception {
+        final AtomicInteger initialized = new AtomicInteger();
+        final ThreadLocal<String> tl1 = new ThreadLocal<String>() {
+            @Override
+            protected String initialValue() {
+                initialized.incrementAndGet();
+                return "init";
+            }
+        };
+        final FiberScheduler ownScheduler = new FiberForkJoinScheduler("test-locals", 2, null, false);
+        ownScheduler.addFiberThreadLocal(tl1);
+        ownScheduler.setSwitchAllThreadLocals(false);
+        try {
+            Fiber fiber = new Fiber(ownScheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    tl1.set(null);
+                    Fiber.sleep(10);
+                    assertThat(tl1.get(), is(nullValue())); // still set, so not initialized again
+                    tl1.remove();
+                    Fiber.sleep(10);
+                    assertThat(tl1.get(), is("init"));
+                }
+            });
+            fiber.start();
+            fiber.join();
+
+            assertThat(initialized.get(), is(1));
+        } finally {
+            ownScheduler.shutdown();
+        }
+    }
 
     @Test
     public void testThreadLocalsParallel() throws Exception {
@@ -0,0 +1,106 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.util.TimerSlack;
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import co.paralleluniverse.strands.Timeout;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class FiberTimedSchedulerTest {
+    private FiberForkJoinScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    @Test
+    public void testRoundUp() {
+        assertEquals(100, TimerSlack.roundUp(100, 50));
+        assertEquals(150, TimerSlack.roundUp(101, 50));
+        assertEquals(-100, TimerSlack.roundUp(-100, 50));
+        assertEquals(-50, TimerSlack.roundUp(-99, 50)); // nanoTime may be negative
+    }
+
+    @Test
+    public void testAlign() {
+        final long slack = MILLISECONDS.toNanos(160);
+        final long now = 0;
+        assertEquals(slack, TimerSlack.align(slack, now, slack));
+        assertEquals(slack, TimerSlack.align(slack + 1000, now, slack)); // an aligned deadline turned into a delay and back
+        assertEquals(slack, TimerSlack.align(slack + MILLISECONDS.toNanos(10), now, slack));
+        assertEquals(2 * slack, TimerSlack.align(slack + MILLISECONDS.toNanos(11), now, slack));
+        assertEquals(slack, TimerSlack.align(slack - 1000, now, slack));
+        assertEquals(slack + 1000, TimerSlack.align(slack + 1000, slack, slack)); // not rounded down into the past
+        assertEquals(2, TimerSlack.align(1, now, 2)); // no tolerance for tiny slacks
+    }
+
+    @Test
+    public void testTimeoutsWithSlackAreCoalesced() throws Exception {
+        scheduler = new FiberForkJoinScheduler("test", 2);
+        scheduler.setTimerSlack(100, MILLISECONDS); // the same as the timeouts', which must not be rounded up again
+
+        final int n = 5;
+        new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                Fiber.park(1, TimeUnit.MILLISECONDS);
+            }
+        }).start().join(); // so that the fibers below don't start late, in a different 100ms period
+        while (TimerSlack.roundUp(System.nanoTime(), MILLISECONDS.toNanos(100)) - System.nanoTime() < MILLISECONDS.toNanos(50))
+            Thread.sleep(1); // so that all the fibers create their timeouts in the same 100ms period
+        final AtomicLong maxLateness = new AtomicLong();
+        final List<Fiber<Void>> fibers = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            fibers.add(new Fiber<Void>(scheduler, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    final Timeout timeout = new Timeout(200, 100, MILLISECONDS);
+                    while (!timeout.isExpired())
+                        Fiber.park(timeout.nanosLeft(), TimeUnit.NANOSECONDS);
+                    final long lateness = -timeout.nanosLeft();
+                    long m;
+                    do {
+                        m = maxLateness.get();
+                    } while (lateness > m && !maxLateness.compareAndSet(m, lateness));
+                }
+            }).start());
+            Thread.sleep(2); // the fibers' deadlines would fall in different timer slots without the timeouts' slack
+        }
+        for (Fiber<Void> f : fibers) {
+            while (f.getState() != Strand.State.TIMED_WAITING)
+                Thread.sleep(1);
+        }
+
+        assertEquals(1, scheduler.getTimedQueueLength());
+
+        for (Fiber<Void> f : fibers)
+            f.join(5, TimeUnit.SECONDS);
+        assertTrue("late by " + maxLateness.get() / 1000000 + "ms", maxLateness.get() < MILLISECONDS.toNanos(50)); // not a whole slack late
+    }
+}
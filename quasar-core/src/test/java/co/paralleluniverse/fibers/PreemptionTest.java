@@ -0,0 +1,124 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.fibers.instrument.Retransform;
+import co.paralleluniverse.strands.SuspendableCallable;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs a CPU-bound fiber and another fiber on a single thread, so the other fiber can only run if the first is preempted.
+ * Requires the instrumentation agent.
+ *
+ * @author pron
+ */
+public class PreemptionTest {
+    private FiberScheduler scheduler;
+
+    @BeforeClass
+    public static void setupClass() {
+        Retransform.getInstrumentor().addPreemptible(PreemptionTest.class.getName() + "$PreemptibleSpinner"); // before the class is loaded
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = new FiberForkJoinScheduler("test-preemption", 1, null, false);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testPreemptibleLoopYields() throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final Fiber<Boolean> spinner = new Fiber<>(scheduler, new PreemptibleSpinner(stop, TimeUnit.SECONDS.toNanos(10))).start();
+        final Fiber<Void> stopper = new Fiber<Void>(scheduler, new Stopper(stop)).start();
+
+        assertThat(spinner.get(20, TimeUnit.SECONDS), is(true)); // the stopper has run while the spinner was looping
+        stopper.join();
+    }
+
+    @Test
+    public void testNonPreemptibleLoopDoesNotYield() throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final Fiber<Boolean> spinner = new Fiber<>(scheduler, new Spinner(stop, TimeUnit.MILLISECONDS.toNanos(200))).start();
+        final Fiber<Void> stopper = new Fiber<Void>(scheduler, new Stopper(stop)).start();
+
+        assertThat(spinner.get(20, TimeUnit.SECONDS), is(false)); // the stopper has only run once the spinner was done
+        stopper.join();
+        assertThat(stop.get(), is(true));
+    }
+
+    static class Stopper implements SuspendableRunnable {
+        private final AtomicBoolean stop;
+
+        Stopper(AtomicBoolean stop) {
+            this.stop = stop;
+        }
+
+        @Override
+        public void run() throws SuspendExecution {
+            stop.set(true);
+        }
+    }
+
+    /**
+     * Spins until stopped or for the given duration, and returns whether it's been stopped.
+     */
+    static class Spinner implements SuspendableCallable<Boolean> {
+        final AtomicBoolean stop;
+        final long nanos;
+
+        Spinner(AtomicBoolean stop, long nanos) {
+            this.stop = stop;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public Boolean run() throws SuspendExecution {
+            final long deadline = System.nanoTime() + nanos;
+            while (!stop.get()) {
+                if (System.nanoTime() - deadline > 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    static class PreemptibleSpinner extends Spinner {
+        PreemptibleSpinner(AtomicBoolean stop, long nanos) {
+            super(stop, nanos);
+        }
+
+        @Override
+        public Boolean run() throws SuspendExecution {
+            final long deadline = System.nanoTime() + nanos;
+            while (!stop.get()) {
+                if (System.nanoTime() - deadline > 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The timers' shards are never polled by their owners here, so all timeouts are fired by the fallback thread.
+ *
+ * @author pron
+ */
+public class ShardedFiberTimerTest {
+    private FiberScheduler scheduler;
+    private ShardedFiberTimer timer;
+
+    @Before
+    public void setUp() {
+        scheduler = new FiberForkJoinScheduler("test", 2);
+        timer = new ShardedFiberTimer(2, new ThreadFactoryBuilder().setDaemon(true).build(), null);
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testFire() throws Exception {
+        final List<Integer> woken = new ArrayList<>();
+        final Fiber<Void> fiber = parker(woken, 1);
+        final long start = System.nanoTime();
+        final Future<Void> timeout = timer.schedule(timer.nextShard(), fiber, null, 50, TimeUnit.MILLISECONDS);
+        assertEquals(1, timer.getQueueLength());
+
+        fiber.join(5, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Arrays.asList(1), woken);
+        assertTrue(timeout.isDone());
+        assertFalse(timeout.cancel(false));
+        assertEquals(0, timer.getQueueLength());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final List<Integer> woken = new ArrayList<>();
+        final Fiber<Void> fiber = parker(woken, 1);
+        final Future<Void> timeout = timer.schedule(timer.nextShard(), fiber, null, 30, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel(false));
+        assertTrue(timeout.isCancelled());
+        assertTrue(timeout.isDone());
+
+        Thread.sleep(100);
+        assertFalse(fiber.isDone());
+        assertEquals(0, timer.getQueueLength()); // discarded by the fallback thread once it reached the head
+
+        fiber.unpark();
+        fiber.join(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testCancelledTimeoutsArePurged() throws Exception {
+        final Fiber<Void> fiber = parker(new ArrayList<Integer>(), 1);
+        final ShardedFiberTimer.Shard shard = timer.nextShard();
+        final List<Future<Void>> timeouts = new ArrayList<>();
+        for (int i = 0; i < 4 * ShardedFiberTimer.PURGE_THRESHOLD; i++)
+            timeouts.add(timer.schedule(shard, fiber, null, 1, TimeUnit.HOURS));
+        for (Future<Void> t : timeouts)
+            t.cancel(false);
+
+        assertTrue(timer.getQueueLength() <= ShardedFiberTimer.PURGE_THRESHOLD);
+
+        fiber.unpark();
+        fiber.join(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testOrderAcrossShards() throws Exception {
+        final List<Integer> woken = new ArrayList<>();
+        final ShardedFiberTimer.Shard shard1 = timer.nextShard();
+        final ShardedFiberTimer.Shard shard2 = timer.nextShard();
+        assertTrue(shard1 != shard2);
+
+        final List<Fiber<Void>> fibers = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            final Fiber<Void> fiber = parker(woken, i);
+            fibers.add(fiber);
+            timer.schedule(i % 2 == 0 ? shard1 : shard2, fiber, null, 30 + 40 * i, TimeUnit.MILLISECONDS);
+        }
+
+        for (Fiber<Void> fiber : fibers)
+            fiber.join(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), woken);
+    }
+
+    /**
+     * Starts a fiber that parks until unparked, and then records its value.
+     */
+    private Fiber<Void> parker(final List<Integer> woken, final int value) throws InterruptedException {
+        final Fiber<Void> fiber = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                Fiber.park();
+                record(woken, value);
+            }
+        }).start();
+        while (fiber.getState() != Strand.State.WAITING)
+            Thread.sleep(1);
+        return fiber;
+    }
+
+    private static void record(List<Integer> woken, int value) {
+        synchronized (woken) {
+            woken.add(value);
+        }
+    }
+}
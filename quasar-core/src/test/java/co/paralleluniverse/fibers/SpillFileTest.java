@@ -0,0 +1,96 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import java.io.File;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class SpillFileTest {
+    private static final int REGION = 64;
+    private File file;
+    private SpillFile spill;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("spill-file-test", ".spill");
+        spill = new SpillFile(file, REGION);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (file.exists())
+            spill.close();
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final long p1 = spill.write(record(1, 40), 40);
+        final long p2 = spill.write(record(2, 20), 20);
+        assertEquals(0, p1);
+        assertEquals(40, p2); // fits in the first region
+        assertEquals(REGION, spill.size());
+        assertEquals(60, spill.usedBytes());
+        assertArrayEquals(record(1, 40), spill.read(p1, 40));
+        assertArrayEquals(record(2, 20), spill.read(p2, 20));
+
+        assertEquals(-1, spill.write(record(3, REGION + 1), REGION + 1));
+    }
+
+    @Test
+    public void testRegionRecycling() throws Exception {
+        final long p1 = spill.write(record(1, 40), 40);
+        final long p2 = spill.write(record(2, 40), 40);
+        final long p3 = spill.write(record(3, 40), 40);
+        assertEquals(3 * REGION, spill.size());
+        assertEquals(120, spill.usedBytes());
+
+        spill.free(p1, 40); // the first region is sealed and now empty
+        assertEquals(80, spill.usedBytes());
+
+        final long p4 = spill.write(record(4, 40), 40);
+        assertTrue(p4 < REGION); // reuses the first region
+        assertEquals(3 * REGION, spill.size());
+        assertArrayEquals(record(4, 40), spill.read(p4, 40));
+        assertArrayEquals(record(2, 40), spill.read(p2, 40));
+        assertArrayEquals(record(3, 40), spill.read(p3, 40));
+
+        spill.free(p4, 40); // the current region isn't recycled until it's sealed
+        final long p5 = spill.write(record(5, 20), 20);
+        assertEquals(40, p5);
+        assertEquals(100, spill.usedBytes());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final long p = spill.write(record(1, 40), 40);
+        spill.free(p, 40);
+        spill.close();
+        assertFalse(file.exists());
+        assertEquals(0, spill.size());
+    }
+
+    private static byte[] record(int value, int length) {
+        final byte[] buf = new byte[length];
+        Arrays.fill(buf, (byte) value);
+        return buf;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.monitoring.MonitorType;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class StackPoolTest {
+    private FiberForkJoinScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        if (scheduler != null)
+            scheduler.shutdown();
+    }
+
+    @Test
+    public void testReleasedArraysAreClearedAndReused() {
+        final CountingMonitor monitor = new CountingMonitor();
+        final StackPool pool = new StackPool(2, monitor);
+        final long[] dataLong = new long[64];
+        final Object[] dataObject = new Object[64];
+        Arrays.fill(dataLong, 17L);
+        Arrays.fill(dataObject, "a");
+
+        pool.release(dataLong, dataObject);
+        assertEquals(1, pool.size());
+
+        final Stack s = newStack();
+        assertTrue(pool.acquire(s, 32, 64));
+        assertSame(dataLong, s.getDataLong());
+        assertSame(dataObject, s.getDataObject());
+        for (long x : dataLong)
+            assertEquals(0L, x);
+        for (Object x : dataObject)
+            assertNull(x);
+        assertEquals(0, pool.size());
+        assertEquals(1, monitor.hits);
+        assertEquals(0, monitor.misses);
+    }
+
+    @Test
+    public void testTooShortArraysAreNotAcquired() {
+        final CountingMonitor monitor = new CountingMonitor();
+        final StackPool pool = new StackPool(2, monitor);
+        pool.release(new long[16], new Object[64]);
+
+        final Stack s = newStack();
+        assertFalse(pool.acquire(s, 32, 32));
+        assertFalse(s.isAllocated());
+        assertEquals(1, pool.size());
+        assertEquals(0, monitor.hits);
+        assertEquals(1, monitor.misses);
+    }
+
+    @Test
+    public void testCapacity() {
+        final StackPool pool = new StackPool(2, null);
+        pool.release(new long[16], new Object[16]);
+        pool.release(new long[16], new Object[16]);
+        pool.release(new long[16], new Object[16]);
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testMaxPooledLength() {
+        final StackPool pool = new StackPool(4, null);
+        pool.release(new long[StackPool.MAX_POOLED_LENGTH + 1], new Object[16]);
+        pool.release(new long[16], new Object[StackPool.MAX_POOLED_LENGTH + 1]);
+        assertEquals(0, pool.size());
+
+        pool.release(new long[StackPool.MAX_POOLED_LENGTH], new Object[StackPool.MAX_POOLED_LENGTH]);
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void testTerminatedFibersArraysAreReusedOnTheSameThread() throws Exception {
+        scheduler = new FiberForkJoinScheduler("test", 1, MonitorType.JMX, false); // a single thread, so both fibers run on it
+        scheduler.setStackPoolCapacity(4);
+        final JMXFibersMonitor monitor = (JMXFibersMonitor) scheduler.getMonitor();
+
+        final AtomicReference<long[]> first = new AtomicReference<>();
+        sleeper(first).start().join();
+        assertNotNull(first.get());
+        assertEquals(0, monitor.getStackPoolHits());
+        assertEquals(1, monitor.getStackPoolMisses());
+
+        final AtomicReference<long[]> second = new AtomicReference<>();
+        sleeper(second).start().join();
+        assertSame(first.get(), second.get());
+        assertEquals(1, monitor.getStackPoolHits());
+        assertEquals(1, monitor.getStackPoolMisses());
+    }
+
+    private Fiber<Void> sleeper(final AtomicReference<long[]> dataLong) {
+        return new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                Fiber.sleep(1, TimeUnit.MILLISECONDS); // allocates the stack
+                dataLong.set(Fiber.currentFiber().getStack().getDataLong());
+            }
+        });
+    }
+
+    private static Stack newStack() {
+        final Fiber fiber = new Fiber((String) null, null, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+            }
+        });
+        return new Stack(fiber, 4);
+    }
+
+    private static class CountingMonitor extends NoopFibersMonitor {
+        int hits;
+        int misses;
+
+        @Override
+        public void stackPoolHit() {
+            hits++;
+        }
+
+        @Override
+        public void stackPoolMiss() {
+            misses++;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMX;
+import javax.management.ObjectName;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class StackStatisticsTest {
+    private final StackStatistics statistics = new StackStatistics();
+
+    @Test
+    public void testTopResumedMethods() {
+        hot(3);
+        hot(5);
+        cold();
+
+        final SuspendableMethodInfo[] top = statistics.getTopResumedMethods(10);
+        assertEquals(2, top.length);
+
+        assertEquals(getClass().getName() + ".hot(I)V", top[0].getName());
+        assertEquals(2, top[0].getResumes());
+        assertEquals(2, top[0].getPushes());
+        assertEquals(5, top[0].getMaxDepth());
+        assertEquals(4.0, top[0].getAverageDepth(), 0.0);
+
+        assertEquals(getClass().getName() + ".cold()V", top[1].getName());
+        assertEquals(1, top[1].getResumes());
+        assertEquals(0, top[1].getPushes());
+
+        assertEquals(1, statistics.getTopResumedMethods(1).length);
+
+        statistics.reset();
+        assertEquals(0, statistics.getTopResumedMethods(10).length);
+    }
+
+    @Test
+    public void testDump() throws IOException {
+        hot(2);
+        final File file = File.createTempFile("stack-statistics", ".tsv");
+        try {
+            statistics.dump(file.getPath());
+            final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            assertEquals(2, lines.size());
+            assertEquals(getClass().getName() + ".hot(I)V\t1\t1\t2.0\t2", lines.get(1));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testOverloads() {
+        hot(1);
+        hot("a");
+        hot("b");
+
+        final SuspendableMethodInfo[] top = statistics.getTopResumedMethods(10);
+        assertEquals(2, top.length);
+        assertEquals(getClass().getName() + ".hot(Ljava/lang/String;)V", top[0].getName());
+        assertEquals(2, top[0].getResumes());
+        assertEquals(getClass().getName() + ".hot(I)V", top[1].getName());
+        assertEquals(1, top[1].getResumes());
+    }
+
+    /**
+     * Runs {@link Worker} in a JVM of its own, as {@link Stack} only reads the system property when it's loaded.
+     */
+    @Test
+    public void testInstrumentedFiber() throws Exception {
+        final File file = File.createTempFile("stack-statistics", ".tsv");
+        try {
+            final List<String> command = new ArrayList<>();
+            command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+            for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+                if (arg.startsWith("-javaagent:"))
+                    command.add(arg); // if the test classes aren't instrumented ahead of time
+            }
+            command.add("-D" + StackStatistics.PROPERTY + "=true");
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(Worker.class.getName());
+            command.add(file.getPath());
+            assertEquals(0, new ProcessBuilder(command).inheritIO().start().waitFor());
+
+            final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            assertEquals(Worker.class.getName() + ".work(I)V\t3\t3", counts(lines, Worker.class.getName() + ".work(I)V"));
+            assertEquals(Worker.class.getName() + ".work(Ljava/lang/String;)V\t1\t1", counts(lines, Worker.class.getName() + ".work(Ljava/lang/String;)V"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the method's name, resumes and pushes from a dump.
+     */
+    private static String counts(List<String> lines, String method) {
+        for (String line : lines) {
+            if (line.startsWith(method + '\t')) {
+                final String[] fields = line.split("\t");
+                return fields[0] + '\t' + fields[1] + '\t' + fields[2];
+            }
+        }
+        return null;
+    }
+
+    public static class Worker {
+        static final AtomicInteger parks = new AtomicInteger();
+
+        public static void main(String[] args) throws Exception {
+            final Fiber<Void> fiber = new Fiber<Void>(new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    for (int i = 0; i < 3; i++)
+                        work(i);
+                    work("a");
+                }
+            }).start();
+            for (int i = 1; i <= 4; i++) { // resume each park exactly once
+                while (parks.get() != i || fiber.getState() != Strand.State.WAITING)
+                    Thread.sleep(1);
+                fiber.unpark();
+            }
+            fiber.join();
+
+            JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(), new ObjectName("co.paralleluniverse:type=Fibers,name=StackStatistics"),
+                    StackStatisticsMXBean.class).dump(args[0]);
+            System.exit(0);
+        }
+
+        // the call to incrementAndGet also keeps the methods from being instrumented as frameless forwarders
+        static void work(int i) throws SuspendExecution {
+            parks.incrementAndGet();
+            Fiber.park();
+        }
+
+        static void work(String s) throws SuspendExecution {
+            parks.incrementAndGet();
+            Fiber.park();
+        }
+    }
+
+    private void hot(int depth) {
+        statistics.resumed(depth);
+        statistics.pushed();
+    }
+
+    private void hot(String s) {
+        statistics.resumed(1);
+    }
+
+    private void cold() {
+        statistics.resumed(1);
+    }
+}
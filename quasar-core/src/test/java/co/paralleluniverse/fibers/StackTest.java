@@ -0,0 +1,188 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Drives the stack the way instrumented methods do, mixing regular and extended frames.
+ *
+ * @author pron
+ */
+public class StackTest {
+    private static final int HEADER = Stack.EXTENDED_FRAME_HEADER;
+
+    @Test
+    public void testExtendedFrames() {
+        final Stack s = newStack();
+
+        // unwind: regular, extended, regular, and a method that parks
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethod(3, 2, 1);
+        Stack.push(11, s, 0);
+        Stack.push(12L, s, 1);
+        Stack.push("a", s, 0);
+
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethodExtended(Stack.MAX_ENTRY + 7, 3, 2);
+        Stack.push(21, s, HEADER + 0);
+        Stack.push(22, s, HEADER + 2);
+        Stack.push("b", s, 0);
+        Stack.push("c", s, 1);
+
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethod(5, 1, 0);
+        Stack.push(31, s, 0);
+
+        assertEquals(0, s.nextMethodEntry());
+
+        // resume
+        s.resumeStack();
+        assertEquals(3, s.nextMethodEntry());
+        assertEquals(11, s.getInt(0));
+        assertEquals(12L, s.getLong(1));
+        assertEquals("a", s.getObject(0));
+
+        assertEquals(Stack.MAX_ENTRY + 7, s.nextMethodEntry());
+        assertEquals(21, s.getInt(HEADER + 0));
+        assertEquals(22, s.getInt(HEADER + 2));
+        assertEquals("b", s.getObject(0));
+        assertEquals("c", s.getObject(1));
+
+        assertEquals(5, s.nextMethodEntry());
+        assertEquals(31, s.getInt(0));
+
+        assertEquals(0, s.nextMethodEntry());
+
+        // return
+        s.popMethod(0);
+        assertEquals(31, s.getInt(0));
+        s.popMethod(0);
+        assertEquals(21, s.getInt(HEADER + 0));
+        assertEquals("c", s.getObject(1));
+        s.popMethod(2);
+        assertEquals(11, s.getInt(0));
+        assertEquals("a", s.getObject(0));
+        s.popMethod(1);
+    }
+
+    @Test
+    public void testCompactAndRegularFrames() {
+        final Stack s = newStack();
+
+        // unwind: regular (both regions sized 3), compact with only objects, compact with only primitives, regular
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethod(1, 3);
+        Stack.push(11, s, 0);
+        Stack.push("a", s, 1);
+        Stack.push(1.5, s, 2);
+
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethod(2, 0, 3);
+        Stack.push("b", s, 0);
+        Stack.push("c", s, 1);
+        Stack.push("d", s, 2);
+
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethod(3, 2, 0);
+        Stack.push(31L, s, 0);
+        Stack.push(32, s, 1);
+
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethod(4, 1);
+        Stack.push("e", s, 0);
+
+        assertEquals(0, s.nextMethodEntry());
+
+        // resume
+        s.resumeStack();
+        assertEquals(1, s.nextMethodEntry());
+        assertEquals(11, s.getInt(0));
+        assertEquals("a", s.getObject(1));
+        assertEquals(1.5, s.getDouble(2), 0.0);
+
+        assertEquals(2, s.nextMethodEntry());
+        assertEquals("b", s.getObject(0));
+        assertEquals("c", s.getObject(1));
+        assertEquals("d", s.getObject(2));
+
+        assertEquals(3, s.nextMethodEntry());
+        assertEquals(31L, s.getLong(0));
+        assertEquals(32, s.getInt(1));
+
+        assertEquals(4, s.nextMethodEntry());
+        assertEquals("e", s.getObject(0));
+
+        assertEquals(0, s.nextMethodEntry());
+
+        // return
+        s.popMethod(0);
+        assertEquals("e", s.getObject(0));
+        s.popMethod(1);
+        assertEquals(31L, s.getLong(0));
+        s.popMethod(0);
+        assertEquals("b", s.getObject(0));
+        assertEquals("d", s.getObject(2));
+        s.popMethod(3);
+        assertEquals(11, s.getInt(0));
+        assertEquals("a", s.getObject(1));
+        s.popMethod(3);
+    }
+
+    @Test
+    public void testOversizedFrame() {
+        final Stack s = newStack();
+        final int slots = Stack.MAX_SLOTS + 100;
+
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethod(1, 1, 1);
+        Stack.push("a", s, 0);
+
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethodExtended(2, slots, 1);
+        Stack.push(41L, s, HEADER + slots - 1);
+        Stack.push("b", s, 0);
+
+        assertEquals(0, s.nextMethodEntry());
+        s.pushMethod(3, 0, 0); // a regular frame reusing the record
+
+        assertEquals(0, s.nextMethodEntry());
+
+        s.resumeStack();
+        assertEquals(1, s.nextMethodEntry());
+        assertEquals(2, s.nextMethodEntry());
+        assertEquals(41L, s.getLong(HEADER + slots - 1));
+        assertEquals(3, s.nextMethodEntry());
+        assertEquals(0, s.nextMethodEntry());
+
+        s.popMethod(0);
+        s.popMethod(0);
+        assertEquals(41L, s.getLong(HEADER + slots - 1));
+        assertEquals("b", s.getObject(0));
+        s.popMethod(1);
+        assertEquals("a", s.getObject(0));
+        s.popMethod(1);
+    }
+
+    private static Stack newStack() {
+        final Fiber fiber = new Fiber((String) null, null, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+            }
+        });
+        return new Stack(fiber, 4);
+    }
+}
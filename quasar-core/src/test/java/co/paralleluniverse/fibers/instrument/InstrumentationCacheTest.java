@@ -0,0 +1,173 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.instrument.MethodDatabase.ClassEntry;
+import co.paralleluniverse.fibers.instrument.MethodDatabase.SuspendableType;
+import co.paralleluniverse.fibers.SuspendExecution;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class InstrumentationCacheTest {
+    private static final String CLASS_NAME = "foo/Bar";
+    private static final byte[] ORIGINAL = {1, 2, 3, 4};
+    private static final byte[] INSTRUMENTED = {5, 6, 7, 8, 9};
+    private static final Map<String, SuspendableType> NO_CALLEES = Collections.emptyMap();
+    private Path dir;
+    private QuasarInstrumentor instrumentor;
+    private MethodDatabase db;
+    private InstrumentationCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("quasar-cache");
+        instrumentor = new QuasarInstrumentor(false);
+        db = instrumentor.getMethodDatabase(getClass().getClassLoader());
+        cache = new InstrumentationCache(dir, instrumentor);
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir.toFile());
+    }
+
+    @Test
+    public void testHit() {
+        final ClassEntry entry = new ClassEntry("foo/Base");
+        entry.setInterfaces(new String[]{"foo/Iface"});
+        entry.setSourceName("Bar.java");
+        entry.setInstrumented(true);
+        entry.set("run", "()V", SuspendableType.SUSPENDABLE);
+        entry.set("get", "()I", SuspendableType.NON_SUSPENDABLE);
+
+        assertNull(cache.get(db, CLASS_NAME, ORIGINAL));
+        cache.put(CLASS_NAME, ORIGINAL, INSTRUMENTED, entry, NO_CALLEES);
+
+        final InstrumentationCache.Entry hit = new InstrumentationCache(dir, instrumentor).get(db, CLASS_NAME, ORIGINAL);
+        assertNotNull(hit);
+        assertArrayEquals(INSTRUMENTED, hit.bytes);
+        assertEquals(entry, hit.classEntry);
+        assertEquals("foo/Base", hit.classEntry.getSuperName());
+        assertArrayEquals(new String[]{"foo/Iface"}, hit.classEntry.getInterfaces());
+        assertEquals("Bar.java", hit.classEntry.getSourceName());
+        assertNull(hit.classEntry.getSourceDebugInfo());
+        assertTrue(hit.classEntry.isInstrumented());
+        assertEquals(SuspendableType.SUSPENDABLE, hit.classEntry.check("run", "()V"));
+        assertEquals(SuspendableType.NON_SUSPENDABLE, hit.classEntry.check("get", "()I"));
+    }
+
+    @Test
+    public void testMissOnChange() {
+        cache.put(CLASS_NAME, ORIGINAL, INSTRUMENTED, new ClassEntry("java/lang/Object"), NO_CALLEES);
+
+        assertNull(cache.get(db, CLASS_NAME, new byte[]{1, 2, 3, 5}));
+        assertNull(cache.get(db, "foo/Baz", ORIGINAL));
+
+        instrumentor.setAllowMonitors(!instrumentor.isAllowMonitors());
+        assertNull(cache.get(db, CLASS_NAME, ORIGINAL));
+    }
+
+    @Test
+    public void testMissOnCalleeChange() throws IOException {
+        final Path classes = dir.resolve("classes");
+        final byte[] caller = callerClass();
+        writeCallee(classes, false);
+
+        assertNotNull(instrumentCaller(classes, caller));
+        assertNotNull(cachedCaller(classes, caller));
+
+        writeCallee(classes, true); // the caller's bytes are unchanged, but it must now be instrumented differently
+        assertNull(cachedCaller(classes, caller));
+        assertNotNull(instrumentCaller(classes, caller));
+        assertNotNull(cachedCaller(classes, caller));
+    }
+
+    /**
+     * Instruments the caller through the cache, as a fresh agent would.
+     */
+    private byte[] instrumentCaller(Path classes, byte[] caller) throws IOException {
+        final QuasarInstrumentor instrumentor = new QuasarInstrumentor(false);
+        return new InstrumentationCache(dir, instrumentor).instrumentClass(loader(classes), "foo/Caller", caller);
+    }
+
+    /**
+     * Looks up the caller's cache entry, as a fresh agent would.
+     */
+    private InstrumentationCache.Entry cachedCaller(Path classes, byte[] caller) throws IOException {
+        final QuasarInstrumentor instrumentor = new QuasarInstrumentor(false);
+        return new InstrumentationCache(dir, instrumentor).get(instrumentor.getMethodDatabase(loader(classes)), "foo/Caller", caller);
+    }
+
+    private URLClassLoader loader(Path classes) throws IOException {
+        return new URLClassLoader(new URL[]{classes.toUri().toURL()}, getClass().getClassLoader());
+    }
+
+    /**
+     * A class with a suspendable method calling {@code foo/Callee.foo()}.
+     */
+    private static byte[] callerClass() {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "foo/Caller", null, "java/lang/Object", null);
+        final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "()V", null,
+                new String[]{Type.getInternalName(SuspendExecution.class)});
+        mv.visitCode();
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "foo/Callee", "foo", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void writeCallee(Path classes, boolean suspendable) throws IOException {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "foo/Callee", null, "java/lang/Object", null);
+        final MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "foo", "()V", null,
+                suspendable ? new String[]{Type.getInternalName(SuspendExecution.class)} : null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        Files.createDirectories(classes.resolve("foo"));
+        Files.write(classes.resolve("foo/Callee.class"), cw.toByteArray());
+    }
+
+    private static void delete(File f) {
+        final File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children)
+                delete(c);
+        }
+        f.delete();
+    }
+}
@@ -17,13 +17,21 @@ import co.paralleluniverse.fibers.Fiber;
 import co.paralleluniverse.fibers.Instrumented;
 import co.paralleluniverse.fibers.SuspendExecution;
 import co.paralleluniverse.fibers.Suspendable;
+import co.paralleluniverse.strands.SuspendableCallable;
 import co.paralleluniverse.strands.SuspendableRunnable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 import static org.junit.Assert.*;
 import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 
 /**
  *
@@ -281,4 +289,59 @@ public class InstrumentationOptimizerTest {
         }).start().join();
         assertFalse(isOptimized("skipForwardsWithReflectiveCalls"));
     }
+
+    static class Forwarder {
+        private final SuspendableCallable<Object> target;
+        private SuspendableCallable<Object> mutableTarget;
+
+        Forwarder(SuspendableCallable<Object> target) {
+            this.target = target;
+            this.mutableTarget = target;
+        }
+
+        Object forwardFinal() throws SuspendExecution, InterruptedException {
+            return target.run();
+        }
+
+        Object forwardMutable() throws SuspendExecution, InterruptedException {
+            return mutableTarget.run();
+        }
+    }
+
+    @Test
+    public void testFramelessForwarders() throws IOException {
+        assertFalse(isOptimized(instrumentForwarder(false), "forwardFinal"));
+
+        final ClassNode cn = instrumentForwarder(true);
+        assertTrue(isOptimized(cn, "forwardFinal"));
+        assertFalse(isOptimized(cn, "forwardMutable"));
+    }
+
+    private static ClassNode instrumentForwarder(boolean frameless) throws IOException {
+        final QuasarInstrumentor instrumentor = new QuasarInstrumentor(false);
+        instrumentor.setFramelessForwarders(frameless);
+        final byte[] instrumented;
+        try (final InputStream in = Forwarder.class.getResourceAsStream("InstrumentationOptimizerTest$Forwarder.class")) {
+            instrumented = instrumentor.instrumentClass(Forwarder.class.getClassLoader(), Forwarder.class.getName(), in, true);
+        }
+        final ClassNode cn = new ClassNode();
+        new ClassReader(instrumented).accept(cn, 0);
+        return cn;
+    }
+
+    private static boolean isOptimized(ClassNode cn, String method) {
+        for (MethodNode mn : cn.methods) {
+            if (method.equals(mn.name) && mn.visibleAnnotations != null) {
+                for (AnnotationNode an : mn.visibleAnnotations) {
+                    if (an.desc.equals(Type.getDescriptor(Instrumented.class))) {
+                        for (int i = 0; i < an.values.size(); i += 2) {
+                            if (Instrumented.FIELD_NAME_METHOD_OPTIMIZED.equals(an.values.get(i)))
+                                return (Boolean) an.values.get(i + 1);
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class InstrumentationStatisticsTest {
+    static class Subject {
+        int twoCalls(int a) throws SuspendExecution {
+            final long b = a * 2L;
+            final String s = "x" + a;
+            Fiber.park();
+            Fiber.park();
+            return (int) b + s.length();
+        }
+
+        void forward() throws SuspendExecution {
+            Fiber.park();
+        }
+    }
+
+    @Test
+    public void testStatistics() throws IOException {
+        final QuasarInstrumentor instrumentor = new QuasarInstrumentor(false);
+        final InstrumentationStatistics statistics = new InstrumentationStatistics();
+        instrumentor.setStatistics(statistics);
+        try (final InputStream in = Subject.class.getResourceAsStream("InstrumentationStatisticsTest$Subject.class")) {
+            instrumentor.instrumentClass(Subject.class.getClassLoader(), Subject.class.getName(), in, true);
+        }
+
+        final String className = Subject.class.getName().replace('.', '/');
+        final Map<String, InstrumentationStatistics.Entry> entries = new HashMap<>();
+        for (InstrumentationStatistics.Entry e : statistics.entries())
+            entries.put(e.method, e);
+
+        final InstrumentationStatistics.Entry twoCalls = entries.get(className + "#twoCalls(I)I");
+        assertNotNull(twoCalls);
+        assertFalse(twoCalls.frameless);
+        assertEquals(2, twoCalls.callSites);
+        assertTrue(twoCalls.slots >= 4); // b and s at each call
+        assertTrue(twoCalls.codeSizeAfter > twoCalls.codeSizeBefore);
+
+        final InstrumentationStatistics.Entry forward = entries.get(className + "#forward()V");
+        assertNotNull(forward);
+        assertTrue(forward.frameless);
+        assertEquals(1, forward.callSites);
+        assertEquals(0, forward.slots);
+    }
+}
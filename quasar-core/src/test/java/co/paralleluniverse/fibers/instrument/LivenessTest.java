@@ -0,0 +1,66 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.fibers.TestsHelper;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that locals that are dead at a suspendable call site (and so aren't saved) don't affect those that are live.
+ *
+ * @author pron
+ */
+public class LivenessTest implements SuspendableRunnable {
+    private String result;
+
+    @Test
+    public void testDeadLocals() {
+        Fiber co = new Fiber((String) null, null, this);
+        int count = 1;
+        while (!TestsHelper.exec(co))
+            count++;
+
+        assertEquals(4, count);
+        assertEquals("a:3:b:7:c", result);
+    }
+
+    @Override
+    public void run() throws SuspendExecution {
+        result = compute("a", 1, 2);
+    }
+
+    private String compute(String s, int a, int b) throws SuspendExecution {
+        int dead = a * 10;           // dead at the first call: overwritten before it's read
+        final int sum = a + b;       // live across the first call
+        park();
+        dead = sum + 4;              // live across the second call
+        String t = s + ':' + sum;    // live across the second call
+        String unused = t + "!";     // read only by the handler
+        park();
+        try {
+            park();
+        } catch (IllegalStateException e) {
+            return t + unused;
+        }
+        return t + ":b:" + dead + ":c";
+    }
+
+    private static void park() throws SuspendExecution {
+        Fiber.park();
+    }
+}
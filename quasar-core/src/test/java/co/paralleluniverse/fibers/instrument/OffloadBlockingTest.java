@@ -0,0 +1,203 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.FiberForkJoinScheduler;
+import co.paralleluniverse.fibers.FiberScheduler;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the replacement of blocking calls in suspendable methods. The classes with blocking calls are only ever loaded
+ * after being instrumented here.
+ *
+ * @author pron
+ */
+public class OffloadBlockingTest {
+    private static final String SLEEPER = OffloadBlockingTest.class.getName() + "$Sleeper";
+    private static final String JOINER = OffloadBlockingTest.class.getName() + "$Joiner";
+    private FiberScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new FiberForkJoinScheduler("test-offload", 1, null, false);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testReplacedCalls() throws IOException {
+        final List<String> replaced = new ArrayList<>();
+        final List<String> warnings = new ArrayList<>();
+        final QuasarInstrumentor instrumentor = newInstrumentor(replaced, warnings);
+        instrumentor.setOffloadBlocking(true);
+
+        instrument(instrumentor, SLEEPER);
+        instrument(instrumentor, JOINER);
+
+        assertEquals(4, replaced.size());
+        assertTrue(replaced.toString(), replaced.contains("java/lang/Thread#sleep(J)V with co/paralleluniverse/strands/Strand#sleep(J)V"));
+        assertTrue(replaced.toString(), replaced.contains("java/lang/Thread#sleep(JI)V with co/paralleluniverse/strands/Strand#sleep(JI)V"));
+        assertTrue(replaced.toString(), replaced.contains("java/lang/Thread#join()V with co/paralleluniverse/fibers/FiberBlockingPool#join(Ljava/lang/Thread;)V"));
+        assertTrue(replaced.toString(), replaced.contains("java/lang/Thread#join(J)V with co/paralleluniverse/fibers/FiberBlockingPool#join(Ljava/lang/Thread;J)V"));
+        assertTrue(warnings.toString(), warnings.isEmpty()); // the replaced calls don't block
+    }
+
+    @Test
+    public void testAllowBlockingDoesNotReplaceCalls() throws IOException {
+        final List<String> replaced = new ArrayList<>();
+        final List<String> warnings = new ArrayList<>();
+        final QuasarInstrumentor instrumentor = newInstrumentor(replaced, warnings);
+        instrumentor.setAllowBlocking(true);
+
+        instrument(instrumentor, SLEEPER);
+
+        assertTrue(replaced.toString(), replaced.isEmpty());
+        assertEquals(1, warnings.size()); // reported once per method
+        assertTrue(warnings.get(0), warnings.get(0).contains("potentially blocking call to java/lang/Thread#sleep"));
+    }
+
+    @Test
+    public void testSleepDoesNotBlockThread() throws Exception {
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicBoolean otherRan = new AtomicBoolean();
+        final Fiber<Void> sleeper = new Fiber<Void>(scheduler, newInstance(SLEEPER, done, otherRan)).start();
+        final Fiber<Void> other = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                otherRan.set(!done.get());
+            }
+        }).start();
+
+        sleeper.join(5, TimeUnit.SECONDS);
+        other.join(5, TimeUnit.SECONDS);
+        assertTrue(done.get());
+        assertTrue(otherRan.get()); // ran on the scheduler's only thread while the first fiber was sleeping
+    }
+
+    @Test
+    public void testJoinDoesNotBlockThread() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        });
+        thread.start();
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final Fiber<Void> joiner = new Fiber<Void>(scheduler, newInstance(JOINER, done, thread)).start();
+        final Fiber<Void> other = new Fiber<Void>(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                release.countDown(); // can only run if the joining fiber doesn't block the scheduler's only thread
+            }
+        }).start();
+
+        joiner.join(5, TimeUnit.SECONDS);
+        other.join(5, TimeUnit.SECONDS);
+        assertTrue(done.get());
+    }
+
+    private static QuasarInstrumentor newInstrumentor(final List<String> replaced, final List<String> warnings) {
+        final QuasarInstrumentor instrumentor = new QuasarInstrumentor(false);
+        instrumentor.setVerbose(true); // replacements are logged at INFO
+        instrumentor.setLog(new Log() {
+            @Override
+            public void log(LogLevel level, String msg, Object... args) {
+                msg = String.format(Locale.ENGLISH, msg, args);
+                if (level == LogLevel.WARNING)
+                    warnings.add(msg);
+                else if (msg.contains("replaced blocking call to "))
+                    replaced.add(msg.substring(msg.indexOf("replaced blocking call to ") + "replaced blocking call to ".length()));
+            }
+
+            @Override
+            public void error(String msg, Throwable ex) {
+                throw new Error(msg, ex);
+            }
+        });
+        return instrumentor;
+    }
+
+    private static byte[] instrument(QuasarInstrumentor instrumentor, String className) throws IOException {
+        try (final InputStream in = OffloadBlockingTest.class.getResourceAsStream("/" + className.replace('.', '/') + ".class")) {
+            return instrumentor.instrumentClass(OffloadBlockingTest.class.getClassLoader(), className, in, true);
+        }
+    }
+
+    private static SuspendableRunnable newInstance(String className, Object... args) throws Exception {
+        final QuasarInstrumentor instrumentor = newInstrumentor(new ArrayList<String>(), new ArrayList<String>());
+        instrumentor.setOffloadBlocking(true);
+        final byte[] bytes = instrument(instrumentor, className);
+        final Class<?> clazz = new ClassLoader(OffloadBlockingTest.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(className, bytes, 0, bytes.length);
+            }
+        }.define();
+        return (SuspendableRunnable) clazz.getDeclaredConstructors()[0].newInstance(args);
+    }
+
+    public static class Sleeper implements SuspendableRunnable {
+        private final AtomicBoolean done;
+
+        public Sleeper(AtomicBoolean done, AtomicBoolean unused) {
+            this.done = done;
+        }
+
+        @Override
+        public void run() throws SuspendExecution, InterruptedException {
+            Thread.sleep(50);
+            Thread.sleep(50, 0);
+            done.set(true);
+        }
+    }
+
+    public static class Joiner implements SuspendableRunnable {
+        private final AtomicBoolean done;
+        private final Thread thread;
+
+        public Joiner(AtomicBoolean done, Thread thread) {
+            this.done = done;
+            this.thread = thread;
+        }
+
+        @Override
+        public void run() throws SuspendExecution, InterruptedException {
+            thread.join(5000);
+            thread.join();
+            done.set(true);
+        }
+    }
+}
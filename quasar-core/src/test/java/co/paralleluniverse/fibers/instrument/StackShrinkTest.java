@@ -0,0 +1,94 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (c) 2013-2017, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.FiberForkJoinScheduler;
+import co.paralleluniverse.fibers.Stack;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.lang.reflect.Field;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class StackShrinkTest {
+    private static final int SHRINK_PARKS = 3;
+
+    @Test
+    public void testShrinkAfterDeepPark() throws Exception {
+        final FiberForkJoinScheduler scheduler = new FiberForkJoinScheduler("test", 1, null, false);
+        scheduler.setStackShrinkPolicy(SHRINK_PARKS, 0.25f, 0.5f);
+
+        final int[] sizes = new int[2];
+        final Fiber fiber = new Fiber(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                deep(200);
+                sizes[0] = getStackSize(Fiber.currentFiber());
+                for (int i = 0; i < SHRINK_PARKS; i++)
+                    Fiber.sleep(1);
+                sizes[1] = getStackSize(Fiber.currentFiber());
+            }
+        }).start();
+        fiber.join();
+
+        assertTrue(sizes[0] > 200);
+        assertTrue(sizes[1] < sizes[0] / 4);
+    }
+
+    @Test
+    public void testNoShrinkWhenDisabled() throws Exception {
+        final FiberForkJoinScheduler scheduler = new FiberForkJoinScheduler("test", 1, null, false);
+
+        final int[] sizes = new int[2];
+        final Fiber fiber = new Fiber(scheduler, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                deep(200);
+                sizes[0] = getStackSize(Fiber.currentFiber());
+                for (int i = 0; i < SHRINK_PARKS; i++)
+                    Fiber.sleep(1);
+                sizes[1] = getStackSize(Fiber.currentFiber());
+            }
+        }).start();
+        fiber.join();
+
+        assertEquals(sizes[0], sizes[1]);
+    }
+
+    private static void deep(int depth) throws SuspendExecution, InterruptedException {
+        if (depth == 0)
+            Fiber.sleep(1);
+        else
+            deep(depth - 1);
+    }
+
+    private static int getStackSize(Fiber c) {
+        try {
+            Field stackField = Fiber.class.getDeclaredField("stack");
+            stackField.setAccessible(true);
+            Object stack = stackField.get(c);
+            Field dataObjectField = Stack.class.getDeclaredField("dataObject");
+            dataObjectField.setAccessible(true);
+            Object[] dataObject = (Object[]) dataObjectField.get(stack);
+            return dataObject.length;
+        } catch (Throwable ex) {
+            throw new AssertionError(ex);
+        }
+    }
+}
@@ -16,6 +16,7 @@ package co.paralleluniverse.fibers.instrument;
 import co.paralleluniverse.fibers.Fiber;
 import co.paralleluniverse.fibers.SuspendExecution;
 import co.paralleluniverse.fibers.Suspendable;
+import java.io.File;
 import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -29,6 +30,7 @@ import org.objectweb.asm.Type;
 
 public class SuspendablesScannerTest {
     private static SuspendablesScanner scanner;
+    private static Path testClasses;
     private static final Set<String> suspendables = new HashSet<>();
     private static final Set<String> suspendableSupers = new HashSet<>();
 
@@ -41,6 +43,7 @@ public class SuspendablesScannerTest {
         final Path p2 = Paths.get(url.toURI()).toAbsolutePath();
         final Path p = p2.getRoot().resolve(p2.subpath(0, p2.getNameCount() - p1.getNameCount()));
         System.out.println("Test classes: " + p);
+        testClasses = p;
 
         scanner = new SuspendablesScanner(p);
 //        scanner = new AutoSuspendablesScanner(
@@ -103,6 +106,46 @@ public class SuspendablesScannerTest {
         assertTrue(!suspendableSupers.contains(A2.class.getName() + ".baz(I)Ljava/lang/Object;"));
     }
 
+    @Test
+    public void indexTest() throws Exception {
+        final File index = File.createTempFile("suspendables", ".index");
+        index.delete();
+        final File changed = new File(testClasses.toFile(), B.class.getName().replace('.', '/') + ".class");
+        final long lastModified = changed.lastModified();
+        try {
+            final SuspendablesScanner first = scanWithIndex(index); // creates the index (classes looked up twice are only read once)
+            assertTrue(first.getIndexMisses() > 0);
+            final int lookups = first.getIndexHits() + first.getIndexMisses();
+
+            final SuspendablesScanner second = scanWithIndex(index); // uses it
+            assertEquals(0, second.getIndexMisses());
+            assertEquals(lookups, second.getIndexHits());
+
+            assertTrue(changed.setLastModified(lastModified - 10000));
+            final SuspendablesScanner third = scanWithIndex(index); // re-reads only the changed class
+            assertEquals(2, third.getIndexMisses()); // once by the class path scan, and again, with code, by the project scan
+            assertEquals(lookups - 2, third.getIndexHits());
+        } finally {
+            changed.setLastModified(lastModified);
+            index.delete();
+        }
+    }
+
+    private static SuspendablesScanner scanWithIndex(File index) {
+        final SuspendablesScanner s = new SuspendablesScanner(testClasses);
+        s.setAuto(true);
+        s.setIndexFile(index.getPath());
+        s.run();
+        assertTrue(index.isFile());
+
+        final Set<String> ss = new HashSet<>();
+        final Set<String> sss = new HashSet<>();
+        s.putSuspendablesAndSupers(ss, sss);
+        assertEquals(suspendables, ss);
+        assertEquals(suspendableSupers, sss);
+        return s;
+    }
+
     static interface IA {
         // super suspendable
         void foo(int t);